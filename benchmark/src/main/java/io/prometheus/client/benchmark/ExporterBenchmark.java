@@ -0,0 +1,84 @@
+package io.prometheus.client.benchmark;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.exporter.HTTPServer;
+import io.prometheus.client.exporter.NIOHTTPServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scrape latency of {@link HTTPServer} and {@link NIOHTTPServer} over loopback, with keep-alive connections.
+ */
+@State(Scope.Benchmark)
+public class ExporterBenchmark {
+
+  private HTTPServer httpServer;
+  private NIOHTTPServer nioHttpServer;
+  private URL httpServerUrl;
+  private URL nioHttpServerUrl;
+
+  @Setup
+  public void setup() throws IOException {
+    CollectorRegistry registry = new CollectorRegistry();
+    Gauge gauge = Gauge.build()
+        .name("gauge")
+        .help("Some gauge.")
+        .labelNames("path", "status")
+        .register(registry);
+    for (int i = 0; i < 1000; i++) {
+      gauge.labels("/path/" + i, String.valueOf(200 + i % 5)).set(i);
+    }
+    httpServer = new HTTPServer(new InetSocketAddress("localhost", 0), registry, true);
+    nioHttpServer = new NIOHTTPServer(new InetSocketAddress("localhost", 0), registry, true);
+    httpServerUrl = new URL("http://localhost:" + httpServer.getPort() + "/metrics");
+    nioHttpServerUrl = new URL("http://localhost:" + nioHttpServer.getPort() + "/metrics");
+  }
+
+  @TearDown
+  public void tearDown() {
+    httpServer.stop();
+    nioHttpServer.close();
+  }
+
+  private static long scrape(URL url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    InputStream in = connection.getInputStream();
+    byte[] buf = new byte[8192];
+    long total = 0;
+    int n;
+    while ((n = in.read(buf)) != -1) {
+      total += n;
+    }
+    // Closing the stream after reading it fully returns the connection to the keep-alive cache.
+    in.close();
+    return total;
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public long httpServerScrape() throws IOException {
+    return scrape(httpServerUrl);
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.AverageTime})
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public long nioHttpServerScrape() throws IOException {
+    return scrape(nioHttpServerUrl);
+  }
+}
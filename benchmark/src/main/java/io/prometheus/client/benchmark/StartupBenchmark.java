@@ -0,0 +1,79 @@
+package io.prometheus.client.benchmark;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.GaugeMetricFamily;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from a cold JVM to the first registered and updated metric.
+ * <p>
+ * Every measurement runs in a fresh fork, so class loading and static initialization are included.
+ */
+@BenchmarkMode({Mode.SingleShotTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class StartupBenchmark {
+
+  @Benchmark
+  public Counter firstCounter() {
+    Counter counter = Counter.build()
+        .name("requests_total")
+        .help("Total requests.")
+        .register();
+    counter.inc();
+    return counter;
+  }
+
+  @Benchmark
+  public Collector firstCustomCollector() {
+    return new SlowCollector().register();
+  }
+
+  @Benchmark
+  public Collector firstCustomCollectorDeferredAutoDescribe() {
+    CollectorRegistry.defaultRegistry.setDeferAutoDescribe(true);
+    return new SlowCollector().register();
+  }
+
+  /**
+   * A Collector that doesn't implement Describable, with a collect() that takes a while, e.g. because of JMX calls.
+   */
+  private static class SlowCollector extends Collector {
+    @Override
+    public List<MetricFamilySamples> collect() {
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return Collections.<MetricFamilySamples>singletonList(new GaugeMetricFamily("slow_gauge", "help", 1));
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+
+    Options opt = new OptionsBuilder()
+      .include(StartupBenchmark.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
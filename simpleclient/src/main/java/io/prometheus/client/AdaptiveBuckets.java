@@ -0,0 +1,157 @@
+package io.prometheus.client;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * Bucket boundaries of a {@link Histogram} learned from a warm-up sample of its observations.
+ * <p>
+ * The sample is shared by all children of the histogram. When it is full, the boundaries are computed and frozen:
+ * each of at most {@code maxBuckets} buckets gets the same share of the sample, which bounds the error of quantiles
+ * estimated from the bucket counts. Boundaries are rounded up to a few significant digits, so that {@code le} values
+ * stay readable. Reading the histogram does not freeze the buckets, until then only the {@code +Inf} bucket is
+ * exported.
+ * <p>
+ * See {@link Histogram.Builder#adaptiveBuckets(int, int)}.
+ */
+final class AdaptiveBuckets {
+
+  private static final int MAX_SIGNIFICANT_DIGITS = 4;
+
+  /**
+   * The {@code le} label values of a child during the warm-up, when it only has the {@code +Inf} bucket.
+   */
+  static final String[] WARMUP_BUCKET_LABELS = new String[]{"+Inf"};
+
+  private final int maxBuckets;
+  private final double[] fallback;
+  private double[] sample;
+  private int size;
+  private volatile double[] buckets;
+  private volatile String[] bucketLabels;
+
+  /**
+   * @param fallback buckets to use if none of the warm-up observations is finite.
+   */
+  AdaptiveBuckets(int maxBuckets, int warmupObservations, double[] fallback) {
+    this.maxBuckets = maxBuckets;
+    this.fallback = fallback;
+    this.sample = new double[warmupObservations];
+  }
+
+  /**
+   * Add an observation to the warm-up sample. Freezes the buckets when the sample is full.
+   *
+   * @return {@code false} if the buckets were already frozen, so that {@code amt} was not added.
+   */
+  synchronized boolean add(double amt) {
+    if (buckets != null) {
+      return false;
+    }
+    sample[size++] = amt;
+    if (size == sample.length) {
+      freeze();
+    }
+    return true;
+  }
+
+  /**
+   * @return the frozen buckets, or {@code null} during the warm-up.
+   */
+  double[] getBuckets() {
+    return buckets;
+  }
+
+  /**
+   * Freeze the buckets, if that did not happen yet. This is only called when the sample is full, or when the
+   * buckets were adopted.
+   *
+   * @return the frozen buckets, with {@code +Inf} as the last bucket.
+   */
+  double[] freeze() {
+    double[] result = buckets;
+    if (result == null) {
+      synchronized (this) {
+        if (buckets == null) {
+          use(compute(sample, size, maxBuckets, fallback));
+        }
+        result = buckets;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Use {@code buckets} instead of learning them, unless the buckets are already frozen.
+   */
+  synchronized void adopt(double[] buckets) {
+    if (this.buckets == null) {
+      use(buckets);
+    }
+  }
+
+  private void use(double[] frozen) {
+    String[] labels = new String[frozen.length];
+    for (int i = 0; i < frozen.length; i++) {
+      labels[i] = Collector.doubleToGoString(frozen[i]);
+    }
+    bucketLabels = labels;
+    buckets = frozen;
+    sample = null;
+  }
+
+  /**
+   * @return the {@code le} label values of the frozen buckets, or {@code null} during the warm-up.
+   */
+  String[] getBucketLabels() {
+    return bucketLabels;
+  }
+
+  /**
+   * Compute at most {@code maxBuckets} finite boundaries so that each bucket holds about the same number of
+   * observations of the sample, followed by {@code +Inf}.
+   */
+  static double[] compute(double[] sample, int size, int maxBuckets, double[] fallback) {
+    double[] sorted = new double[size];
+    int n = 0;
+    for (int i = 0; i < size; i++) {
+      // Infinite values end up in the +Inf bucket anyway, and NaN is never counted in a bucket.
+      if (!Double.isNaN(sample[i]) && !Double.isInfinite(sample[i])) {
+        sorted[n++] = sample[i];
+      }
+    }
+    if (n == 0) {
+      return fallback;
+    }
+    Arrays.sort(sorted, 0, n);
+    double[] result = null;
+    // Use more significant digits if rounding makes boundaries collapse, e.g. for a narrow distribution.
+    for (int digits = 2; digits <= MAX_SIGNIFICANT_DIGITS; digits++) {
+      double[] candidate = boundaries(sorted, n, maxBuckets, new MathContext(digits, RoundingMode.CEILING));
+      if (result == null || candidate.length > result.length) {
+        result = candidate;
+      }
+      if (result.length == Math.min(maxBuckets, n) + 1) {
+        break;
+      }
+    }
+    return result;
+  }
+
+  private static double[] boundaries(double[] sorted, int n, int maxBuckets, MathContext mc) {
+    double[] result = new double[maxBuckets + 1];
+    int count = 0;
+    for (int i = 1; i <= maxBuckets; i++) {
+      int rank = (int) Math.ceil((double) i * n / maxBuckets) - 1;
+      // Rounding up keeps the quantile in the bucket that it bounds.
+      double boundary = BigDecimal.valueOf(sorted[rank]).round(mc).doubleValue();
+      if (count == 0 || boundary > result[count - 1]) {
+        result[count++] = boundary;
+      }
+    }
+    result[count++] = Double.POSITIVE_INFINITY;
+    return Arrays.copyOf(result, count);
+  }
+}
@@ -0,0 +1,375 @@
+package io.prometheus.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Periodically writes the values of the {@link Counter} and {@link Histogram} children of a
+ * {@link CollectorRegistry} to a file, and restores them when the metrics are registered after a restart.
+ * <p>
+ * A checkpoint is written to a temporary file, synced to disk, and then renamed over the previous checkpoint,
+ * which is kept as a fallback with the suffix {@code .1}. Each checkpoint ends with a CRC32, so a file that was
+ * torn by a crash is detected and the fallback is used instead.
+ * <p>
+ * Values are read the same way a scrape reads them, so observers are never blocked.
+ * Metrics kept in a {@link MultiprocessStorage} are skipped, as the storage already survives restarts, and so are
+ * histograms whose adaptive buckets are still learned.
+ */
+class Checkpoints implements Closeable {
+
+  private static final Logger logger = Logger.getLogger(Checkpoints.class.getName());
+
+  private static final int MAGIC = 0x50434b50;
+  private static final int VERSION = 1;
+  private static final byte COUNTER = 0;
+  private static final byte HISTOGRAM = 1;
+
+  private final CollectorRegistry registry;
+  private final File file;
+  private final File previousFile;
+  private final File tmpFile;
+  private final ScheduledExecutorService executor;
+  // Checkpointed metrics whose Collector has not been registered yet, by name.
+  private final Map<String, MetricCheckpoint> pending = new ConcurrentHashMap<String, MetricCheckpoint>();
+
+  static class MetricCheckpoint {
+    final byte type;
+    final String name;
+    final List<String> labelNames;
+    final double[] upperBounds; // histograms only
+    final List<ChildCheckpoint> children;
+
+    MetricCheckpoint(byte type, String name, List<String> labelNames, double[] upperBounds, List<ChildCheckpoint> children) {
+      this.type = type;
+      this.name = name;
+      this.labelNames = labelNames;
+      this.upperBounds = upperBounds;
+      this.children = children;
+    }
+  }
+
+  static class ChildCheckpoint {
+    final List<String> labelValues;
+    final long created;
+    final double value; // the counter value, or the histogram sum
+    final double[] buckets; // cumulative bucket counts, histograms only
+
+    ChildCheckpoint(List<String> labelValues, long created, double value, double[] buckets) {
+      this.labelValues = labelValues;
+      this.created = created;
+      this.value = value;
+      this.buckets = buckets;
+    }
+  }
+
+  Checkpoints(CollectorRegistry registry, File file, long interval, TimeUnit unit) {
+    this.registry = registry;
+    this.file = file;
+    this.previousFile = new File(file.getPath() + ".1");
+    this.tmpFile = new File(file.getPath() + ".tmp");
+    for (MetricCheckpoint metric : load()) {
+      pending.put(metric.name, metric);
+    }
+    executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "prometheus-checkpoints");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          write();
+        } catch (IOException e) {
+          logger.log(Level.WARNING, "Failed to write metrics checkpoint to " + Checkpoints.this.file, e);
+        }
+      }
+    }, interval, interval, unit);
+  }
+
+  private List<MetricCheckpoint> load() {
+    for (File f : new File[]{file, previousFile}) {
+      if (!f.exists()) {
+        continue;
+      }
+      try {
+        return read(f);
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Ignoring invalid metrics checkpoint " + f, e);
+      }
+    }
+    return Collections.emptyList();
+  }
+
+  /**
+   * Restore the checkpointed values of {@code collector}, if any. Each checkpointed metric is only restored once.
+   */
+  void restore(Collector collector) {
+    if (pending.isEmpty()) {
+      return;
+    }
+    if (collector instanceof Counter) {
+      Counter counter = (Counter) collector;
+      if (counter.isMultiprocess()) {
+        // Its value already survives restarts in the storage, restoring it would count it twice.
+        pending.remove(counter.fullname);
+        return;
+      }
+      MetricCheckpoint metric = pending.get(counter.fullname);
+      if (metric == null || metric.type != COUNTER || !metric.labelNames.equals(counter.labelNames)
+          || !pending.remove(counter.fullname, metric)) {
+        return;
+      }
+      for (ChildCheckpoint c : metric.children) {
+        Counter.Child child = counter.getOrCreateChild(c.labelValues);
+        if (child.getClass() == Counter.Child.class) {
+          child.restore(c.value, c.created);
+        }
+      }
+    } else if (collector instanceof Histogram) {
+      Histogram histogram = (Histogram) collector;
+      if (histogram.isMultiprocess()) {
+        pending.remove(histogram.fullname);
+        return;
+      }
+      MetricCheckpoint metric = pending.get(histogram.fullname);
+      if (metric != null && metric.type == HISTOGRAM && metric.labelNames.equals(histogram.labelNames)) {
+        // Keep the buckets that adaptive histograms learned in the previous run.
+        histogram.adoptBuckets(metric.upperBounds);
+      }
+      if (metric == null || metric.type != HISTOGRAM || !metric.labelNames.equals(histogram.labelNames)
+          || !Arrays.equals(metric.upperBounds, histogram.getBuckets())
+          || !pending.remove(histogram.fullname, metric)) {
+        return;
+      }
+      for (ChildCheckpoint c : metric.children) {
+        histogram.getOrCreateChild(c.labelValues).restore(c.buckets, c.value, c.created);
+      }
+    }
+  }
+
+  /**
+   * Write a checkpoint of all registered Counters and Histograms, and of checkpointed metrics that were
+   * not registered yet.
+   */
+  synchronized void write() throws IOException {
+    List<MetricCheckpoint> metrics = new ArrayList<MetricCheckpoint>();
+    Set<String> names = new HashSet<String>();
+    for (Collector collector : registry.collectors()) {
+      if (collector instanceof Counter) {
+        Counter counter = (Counter) collector;
+        names.add(counter.fullname);
+        if (counter.isMultiprocess()) {
+          continue;
+        }
+        List<ChildCheckpoint> children = new ArrayList<ChildCheckpoint>();
+        for (Map.Entry<List<String>, Counter.Child> e : counter.children.entrySet()) {
+          Counter.Child child = e.getValue();
+          if (child.getClass() == Counter.Child.class) {
+            children.add(new ChildCheckpoint(e.getKey(), child.created(), child.get(), null));
+          }
+        }
+        metrics.add(new MetricCheckpoint(COUNTER, counter.fullname, counter.labelNames, null, children));
+      } else if (collector instanceof Histogram) {
+        Histogram histogram = (Histogram) collector;
+        names.add(histogram.fullname);
+        // Writing the buckets of a histogram that is still warming up would freeze them on part of the sample.
+        if (histogram.isMultiprocess() || histogram.isWarmingUp()) {
+          continue;
+        }
+        List<ChildCheckpoint> children = new ArrayList<ChildCheckpoint>();
+        for (Map.Entry<List<String>, Histogram.Child> e : histogram.children.entrySet()) {
+          Histogram.Child.Value v = e.getValue().get();
+          children.add(new ChildCheckpoint(e.getKey(), v.created, v.sum, v.buckets));
+        }
+        metrics.add(new MetricCheckpoint(HISTOGRAM, histogram.fullname, histogram.labelNames, histogram.getBuckets(), children));
+      }
+    }
+    for (MetricCheckpoint metric : pending.values()) {
+      // Keep metrics that are not registered yet, unless a registered metric with the same name replaced them.
+      if (!names.contains(metric.name)) {
+        metrics.add(metric);
+      }
+    }
+    byte[] bytes = encode(metrics);
+    FileOutputStream out = new FileOutputStream(tmpFile);
+    try {
+      out.write(bytes);
+      out.getFD().sync();
+    } finally {
+      out.close();
+    }
+    if (file.exists()) {
+      Files.move(file.toPath(), previousFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    syncDirectory();
+  }
+
+  private void syncDirectory() {
+    File dir = file.getAbsoluteFile().getParentFile();
+    try {
+      FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+      try {
+        channel.force(true);
+      } finally {
+        channel.close();
+      }
+    } catch (IOException e) {
+      // Not supported on all platforms. The rename is still atomic, it just may not be durable yet.
+    }
+  }
+
+  /**
+   * Stop writing checkpoints, and write a final one.
+   */
+  @Override
+  public void close() throws IOException {
+    registry.checkpointsClosed(this);
+    executor.shutdown();
+    try {
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    write();
+  }
+
+  static byte[] encode(List<MetricCheckpoint> metrics) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(metrics.size());
+    for (MetricCheckpoint metric : metrics) {
+      out.writeByte(metric.type);
+      out.writeUTF(metric.name);
+      writeStrings(out, metric.labelNames);
+      if (metric.type == HISTOGRAM) {
+        writeDoubles(out, metric.upperBounds);
+      }
+      out.writeInt(metric.children.size());
+      for (ChildCheckpoint child : metric.children) {
+        writeStrings(out, child.labelValues);
+        out.writeLong(child.created);
+        out.writeDouble(child.value);
+        if (metric.type == HISTOGRAM) {
+          writeDoubles(out, child.buckets);
+        }
+      }
+    }
+    CRC32 crc = new CRC32();
+    crc.update(bytes.toByteArray());
+    out.writeLong(crc.getValue());
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  static List<MetricCheckpoint> read(File f) throws IOException {
+    byte[] bytes = new byte[(int) f.length()];
+    DataInputStream fileIn = new DataInputStream(new FileInputStream(f));
+    try {
+      fileIn.readFully(bytes);
+    } finally {
+      fileIn.close();
+    }
+    return decode(bytes);
+  }
+
+  static List<MetricCheckpoint> decode(byte[] bytes) throws IOException {
+    if (bytes.length < 8) {
+      throw new IOException("Truncated checkpoint");
+    }
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length - 8);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    in.skipBytes(bytes.length - 8);
+    if (in.readLong() != crc.getValue()) {
+      throw new IOException("Checksum mismatch");
+    }
+    in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      throw new IOException("Not a checkpoint, or unsupported version");
+    }
+    int metricCount = in.readInt();
+    List<MetricCheckpoint> metrics = new ArrayList<MetricCheckpoint>(metricCount);
+    for (int i = 0; i < metricCount; i++) {
+      byte type = in.readByte();
+      String name = in.readUTF();
+      List<String> labelNames = readStrings(in);
+      double[] upperBounds = type == HISTOGRAM ? readDoubles(in) : null;
+      int childCount = in.readInt();
+      List<ChildCheckpoint> children = new ArrayList<ChildCheckpoint>(childCount);
+      for (int j = 0; j < childCount; j++) {
+        List<String> labelValues = readStrings(in);
+        long created = in.readLong();
+        double value = in.readDouble();
+        double[] buckets = type == HISTOGRAM ? readDoubles(in) : null;
+        children.add(new ChildCheckpoint(labelValues, created, value, buckets));
+      }
+      metrics.add(new MetricCheckpoint(type, name, labelNames, upperBounds, children));
+    }
+    return metrics;
+  }
+
+  private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+    out.writeInt(strings.size());
+    for (String s : strings) {
+      out.writeUTF(s);
+    }
+  }
+
+  private static List<String> readStrings(DataInputStream in) throws IOException {
+    int n = in.readInt();
+    List<String> strings = new ArrayList<String>(n);
+    for (int i = 0; i < n; i++) {
+      strings.add(in.readUTF());
+    }
+    return strings;
+  }
+
+  private static void writeDoubles(DataOutputStream out, double[] doubles) throws IOException {
+    out.writeInt(doubles.length);
+    for (double d : doubles) {
+      out.writeDouble(d);
+    }
+  }
+
+  private static double[] readDoubles(DataInputStream in) throws IOException {
+    int n = in.readInt();
+    double[] doubles = new double[n];
+    for (int i = 0; i < n; i++) {
+      doubles[i] = in.readDouble();
+    }
+    return doubles;
+  }
+}
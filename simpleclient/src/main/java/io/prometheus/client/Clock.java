@@ -0,0 +1,71 @@
+package io.prometheus.client;
+
+/**
+ * Source of wall clock and monotonic time for metrics.
+ * <p>
+ * Timers, the sliding time window of {@link Summary} quantiles, and exemplar timestamps read the time through
+ * a Clock rather than calling {@link System#currentTimeMillis()} directly. By default this is the
+ * {@link #systemClock() system clock}. If reading the wall clock on every observation is too expensive,
+ * a {@link CoarseClock} can be installed:
+ * <pre>
+ * {@code
+ *   Clock.setDefaultClock(new CoarseClock(1));
+ * }
+ * </pre>
+ * Tests can provide their own implementation to drive time-dependent behaviour with virtual time.
+ */
+public abstract class Clock {
+
+  private static final Clock systemClock = new SystemClock();
+  private static volatile Clock defaultClock = systemClock;
+
+  /**
+   * @return the current time in milliseconds, as in {@link System#currentTimeMillis()}.
+   */
+  public abstract long currentTimeMillis();
+
+  /**
+   * Monotonic time for measuring durations, as in {@link System#nanoTime()}.
+   * <p>
+   * Durations need full resolution, so implementations that coarsen {@link #currentTimeMillis()}
+   * should not override this.
+   */
+  public long nanoTime() {
+    return System.nanoTime();
+  }
+
+  /**
+   * @return the Clock backed by {@link System#currentTimeMillis()} and {@link System#nanoTime()}.
+   */
+  public static Clock systemClock() {
+    return systemClock;
+  }
+
+  /**
+   * @return the Clock used by metrics, the {@link #systemClock() system clock} unless
+   * {@link #setDefaultClock(Clock)} was called.
+   */
+  public static Clock getDefaultClock() {
+    return defaultClock;
+  }
+
+  /**
+   * Set the Clock used by metrics.
+   * <p>
+   * This should be called during startup. Timers and exemplars pick up the new clock immediately,
+   * Summary children keep the clock that was the default when they were created.
+   */
+  public static void setDefaultClock(Clock clock) {
+    if (clock == null) {
+      throw new NullPointerException();
+    }
+    defaultClock = clock;
+  }
+
+  private static class SystemClock extends Clock {
+    @Override
+    public long currentTimeMillis() {
+      return System.currentTimeMillis();
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package io.prometheus.client;
+
+import java.io.Closeable;
+
+/**
+ * A {@link Clock} whose {@link #currentTimeMillis()} is a volatile read of a value that a background
+ * daemon thread refreshes every {@code resolutionMillis}.
+ * <p>
+ * This trades timestamp precision for a cheaper clock read on the hot path. Exemplar timestamps and
+ * Summary window rotation only need to be accurate to a few milliseconds, so a resolution of 1 to 10ms
+ * is usually a good choice. {@link #nanoTime()} is not affected, so measured durations stay precise.
+ * <p>
+ * Call {@link #close()} to stop the background thread.
+ */
+public class CoarseClock extends Clock implements Closeable {
+
+  private final long resolutionMillis;
+  private final Thread updater;
+  private volatile long currentTimeMillis;
+  private volatile boolean closed;
+
+  /**
+   * @param resolutionMillis how often the background thread refreshes the time, must be &gt; 0.
+   */
+  public CoarseClock(long resolutionMillis) {
+    if (resolutionMillis <= 0) {
+      throw new IllegalArgumentException("resolutionMillis cannot be " + resolutionMillis);
+    }
+    this.resolutionMillis = resolutionMillis;
+    this.currentTimeMillis = System.currentTimeMillis();
+    this.updater = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        update();
+      }
+    }, "prometheus-coarse-clock");
+    updater.setDaemon(true);
+    updater.start();
+  }
+
+  private void update() {
+    while (!closed) {
+      currentTimeMillis = System.currentTimeMillis();
+      try {
+        Thread.sleep(resolutionMillis);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  public long currentTimeMillis() {
+    return currentTimeMillis;
+  }
+
+  /**
+   * Stop the background thread. The clock keeps returning the last value it has seen.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    updater.interrupt();
+  }
+}
@@ -1,5 +1,7 @@
 package io.prometheus.client;
 
+import java.io.Closeable;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -11,6 +13,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 /**
  * A registry of Collectors.
@@ -41,6 +47,11 @@ public class CollectorRegistry {
 
   private   Map<String,String> globalTags;
   private final boolean autoDescribe;
+  private volatile boolean deferAutoDescribe;
+  // Collectors registered while deferAutoDescribe was set, whose names are not known yet.
+  private final Set<Collector> undescribedCollectors = new HashSet<Collector>();
+  private final ConcurrentMap<String, View> views = new ConcurrentHashMap<String, View>();
+  private volatile Checkpoints checkpoints;
 
   public CollectorRegistry() {
     this(false);
@@ -50,22 +61,116 @@ public class CollectorRegistry {
     this.autoDescribe = autoDescribe;
   }
 
+  /**
+   * Defer auto-describing Collectors that don't implement {@link Collector.Describable}.
+   * <p>
+   * With auto describe enabled (which is the case for the {@link #defaultRegistry}), registering a Collector
+   * that doesn't implement {@link Collector.Describable} calls {@link Collector#collect()} to find out
+   * which names it uses. This can be slow at startup. When deferred, such Collectors are registered without
+   * calling {@code collect()}, and their names are checked when the registry is scraped for the first time
+   * after they were registered. If a name is already in use at that point, the Collector is unregistered
+   * and the scrape fails once with an {@link IllegalArgumentException}.
+   */
+  public void setDeferAutoDescribe(boolean deferAutoDescribe) {
+    this.deferAutoDescribe = deferAutoDescribe;
+  }
+
+  /**
+   * Register a {@link View}, replacing any previous View for the same metric name.
+   * <p>
+   * The View is applied to metrics registered afterwards, see {@link View} for details.
+   */
+  public void registerView(View view) {
+    views.put(view.name, view);
+  }
+
+  /**
+   * Unregister the {@link View} for the given metric name. Metrics that are already registered are not affected.
+   */
+  public void unregisterView(String name) {
+    views.remove(name);
+  }
+
+  /**
+   * @return the View for the metric {@code fullname}, or {@code null} if there is none.
+   */
+  View getView(String fullname) {
+    if (views.isEmpty()) {
+      return null;
+    }
+    return views.get(fullname);
+  }
+
+  /**
+   * Periodically write the values of all registered {@link Counter Counters} and {@link Histogram Histograms}
+   * to {@code file}, and restore them from the last checkpoint when they are registered.
+   * <p>
+   * This keeps counters from resetting when the application restarts. It should be enabled during startup,
+   * before metrics are observed. Metrics that are already registered are restored immediately, the others when
+   * they are registered. A metric is only restored if its label names and buckets didn't change.
+   * Children set with {@link SimpleCollector#setChild} are not checkpointed, and neither are metrics kept in a
+   * {@link MultiprocessStorage}, whose values already survive restarts.
+   * <p>
+   * Checkpoints are written by a background thread, reading values like a scrape does, so observing is never
+   * blocked. Each checkpoint is synced to disk and atomically replaces the previous one, which is kept with
+   * the suffix {@code .1} in case the newer file is damaged.
+   *
+   * @return closing it stops the background thread and writes a final checkpoint.
+   * Checkpoints can then be enabled again.
+   */
+  public Closeable enableCheckpoints(File file, long interval, TimeUnit unit) {
+    Checkpoints c;
+    synchronized (this) {
+      if (checkpoints != null) {
+        throw new IllegalStateException("Checkpoints are already enabled.");
+      }
+      c = new Checkpoints(this, file, interval, unit);
+      checkpoints = c;
+    }
+    for (Collector collector : collectors()) {
+      c.restore(collector);
+    }
+    return c;
+  }
+
+  /**
+   * Called when {@code c} is closed, so that only the current Checkpoints are cleared.
+   */
+  synchronized void checkpointsClosed(Checkpoints c) {
+    if (checkpoints == c) {
+      checkpoints = null;
+    }
+  }
+
   /**
    * Register a Collector.
    * <p>
    * A collector can be registered to multiple CollectorRegistries.
    */
   public void register(Collector m) {
-    List<String> names = collectorNames(m);
-    assertNoDuplicateNames(m, names);
-    synchronized (namesCollectorsLock) {
-      for (String name : names) {
-        if (namesToCollectors.containsKey(name)) {
+    registerCollector(m);
+    Checkpoints checkpoints = this.checkpoints;
+    if (checkpoints != null) {
+      checkpoints.restore(m);
+    }
+  }
+
+  private void registerCollector(Collector m) {
+    if (autoDescribe && deferAutoDescribe && !(m instanceof Collector.Describable)) {
+      synchronized (namesCollectorsLock) {
+        if (collectorsToNames.containsKey(m)) {
           throw new IllegalArgumentException("Failed to register Collector of type " + m.getClass().getSimpleName()
-                  + ": " + name + " is already in use by another Collector of type "
-                  + namesToCollectors.get(name).getClass().getSimpleName());
+                  + ": The Collector is already registered");
         }
+        collectorsToNames.put(m, Collections.<String>emptyList());
+        undescribedCollectors.add(m);
       }
+      return;
+    }
+    List<String> names = collectorNames(m);
+    assertNoDuplicateNames(m, names);
+    synchronized (namesCollectorsLock) {
+      assertNamesNotInUse(m, names);
       for (String name : names) {
         namesToCollectors.put(name, m);
       }
@@ -73,6 +178,55 @@ public class CollectorRegistry {
     }
   }
 
+  private void assertNamesNotInUse(Collector m, List<String> names) {
+    for (String name : names) {
+      if (namesToCollectors.containsKey(name)) {
+        throw new IllegalArgumentException("Failed to register Collector of type " + m.getClass().getSimpleName()
+                + ": " + name + " is already in use by another Collector of type "
+                + namesToCollectors.get(name).getClass().getSimpleName());
+      }
+    }
+  }
+
+  /**
+   * Look up the names of Collectors that were registered with {@link #setDeferAutoDescribe(boolean)}.
+   */
+  private void describeDeferredCollectors() {
+    List<Collector> undescribed;
+    synchronized (namesCollectorsLock) {
+      if (undescribedCollectors.isEmpty()) {
+        return;
+      }
+      undescribed = new ArrayList<Collector>(undescribedCollectors);
+      undescribedCollectors.clear();
+    }
+    IllegalArgumentException failure = null;
+    for (Collector m : undescribed) {
+      // collect() may be slow, don't hold the lock while calling it.
+      List<String> names = collectorNames(m);
+      synchronized (namesCollectorsLock) {
+        if (!collectorsToNames.containsKey(m)) {
+          continue; // unregistered in the meantime
+        }
+        try {
+          assertNoDuplicateNames(m, names);
+          assertNamesNotInUse(m, names);
+        } catch (IllegalArgumentException e) {
+          collectorsToNames.remove(m);
+          failure = e;
+          continue;
+        }
+        for (String name : names) {
+          namesToCollectors.put(name, m);
+        }
+        collectorsToNames.put(m, names);
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
   private void assertNoDuplicateNames(Collector m, List<String> names) {
     Set<String> uniqueNames = new HashSet<String>();
     for (String name : names) {
@@ -89,12 +243,77 @@ public class CollectorRegistry {
   public void unregister(Collector m) {
     synchronized (namesCollectorsLock) {
       List<String> names = collectorsToNames.remove(m);
+      undescribedCollectors.remove(m);
       for (String name : names) {
         namesToCollectors.remove(name);
       }
     }
   }
 
+  /**
+   * Remove the children whose label {@code labelName} has the value {@code value} from all registered
+   * {@link SimpleCollector SimpleCollectors}.
+   * <p>
+   * See {@link SimpleCollector#removeMatching(String, String)}. Other Collectors are not affected.
+   *
+   * @return the total number of removed children.
+   */
+  public int removeMatching(String labelName, String value) {
+    int removed = 0;
+    for (Collector collector : collectors()) {
+      if (collector instanceof SimpleCollector) {
+        removed += ((SimpleCollector<?>) collector).removeMatching(labelName, value);
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Remove the children of all registered {@link SimpleCollector SimpleCollectors} for which {@code predicate}
+   * returns {@code true}.
+   * <p>
+   * The predicate is called with a map from label name to label value for every child, so this takes time
+   * proportional to the number of all children. Prefer {@link #removeMatching(String, String)} where possible.
+   * Other Collectors are not affected.
+   *
+   * @return the total number of removed children.
+   */
+  public int removeIf(final Predicate<Map<String, String>> predicate) {
+    int removed = 0;
+    for (Collector collector : collectors()) {
+      if (collector instanceof SimpleCollector) {
+        final List<String> labelNames = ((SimpleCollector<?>) collector).labelNames;
+        removed += ((SimpleCollector<?>) collector).removeIf(new Predicate<List<String>>() {
+          @Override
+          public boolean test(List<String> labelValues) {
+            Map<String, String> labels = new HashMap<String, String>();
+            for (int i = 0; i < labelNames.size(); i++) {
+              labels.put(labelNames.get(i), labelValues.get(i));
+            }
+            return predicate.test(labels);
+          }
+        });
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Collect the exemplar reservoirs of all registered {@link Histogram Histograms}.
+   * <p>
+   * See {@link Histogram#collectExemplarReservoir()}. This is meant for debugging, the result is not valid for
+   * Prometheus.
+   */
+  public List<Collector.MetricFamilySamples> exemplarReservoirSamples() {
+    List<Collector.MetricFamilySamples> result = new ArrayList<Collector.MetricFamilySamples>();
+    for (Collector collector : collectors()) {
+      if (collector instanceof Histogram) {
+        result.addAll(((Histogram) collector).collectExemplarReservoir());
+      }
+    }
+    return result;
+  }
+
   /**
    * Unregister all Collectors.
    */
@@ -102,13 +321,14 @@ public class CollectorRegistry {
     synchronized (namesCollectorsLock) {
       collectorsToNames.clear();
       namesToCollectors.clear();
+      undescribedCollectors.clear();
     }
   }
 
   /**
    * A snapshot of the current collectors.
    */
-  private Set<Collector> collectors() {
+  Set<Collector> collectors() {
     synchronized (namesCollectorsLock) {
       return new HashSet<Collector>(collectorsToNames.keySet());
     }
@@ -188,6 +408,7 @@ public class CollectorRegistry {
     private Set<String> includedNames;
 
     MetricFamilySamplesEnumeration(Set<String> includedNames) {
+      describeDeferredCollectors();
       this.includedNames = includedNames;
       collectorIter = includedCollectorIterator(includedNames);
       findNextElement();
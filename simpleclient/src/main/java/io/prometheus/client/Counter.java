@@ -3,12 +3,15 @@ package io.prometheus.client;
 import io.prometheus.client.exemplars.CounterExemplarSampler;
 import io.prometheus.client.exemplars.Exemplar;
 import io.prometheus.client.exemplars.ExemplarConfig;
+import io.prometheus.client.exemplars.ExemplarSamplingGate;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
@@ -83,11 +86,15 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
 
   private final Boolean exemplarsEnabled; // null means default from ExemplarConfig applies
   private final CounterExemplarSampler exemplarSampler;
+  private final MultiprocessStorage multiprocessStorage;
+  private final double sampleRate;
 
   Counter(Builder b) {
     super(b);
     this.exemplarsEnabled = b.exemplarsEnabled;
     this.exemplarSampler = b.exemplarSampler;
+    this.multiprocessStorage = b.multiprocessStorage;
+    this.sampleRate = b.sampleRate;
     initializeNoLabelsChild();
   }
 
@@ -95,6 +102,7 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
 
     private Boolean exemplarsEnabled = null;
     private CounterExemplarSampler exemplarSampler = null;
+    private double sampleRate = 1.0;
 
     @Override
     public Counter create() {
@@ -106,6 +114,12 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
       return new Counter(this);
     }
 
+    @Override
+    String createdFullname() {
+      // Views may be registered under the name without the _total suffix, which create() drops.
+      return name.endsWith("_total") ? buildFullname(name.substring(0, name.length() - 6)) : buildFullname();
+    }
+
     /**
      * Enable exemplars and provide a custom {@link CounterExemplarSampler}.
      */
@@ -139,6 +153,35 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
       this.exemplarsEnabled = FALSE;
       return this;
     }
+
+    /**
+     * Count only a random sample of the increments, and scale them so that the counter and its rate are
+     * unbiased estimates of the real values.
+     * <p>
+     * With a {@code sampleRate} of {@code 1.0 / 64}, on average one of 64 increments updates the counter, by 64
+     * times the amount. The others only pay for a thread-local random number. This is meant for counters in inner
+     * loops that are incremented millions of times per second, where the sampling error is negligible.
+     * Exemplars are only taken from sampled increments. A {@code <name>_sampling_info} metric with a {@code rate}
+     * label tells that the values are estimates.
+     *
+     * @param sampleRate probability that an increment is counted, between 0 (exclusive) and 1 (inclusive).
+     */
+    public Builder sampleRate(double sampleRate) {
+      this.sampleRate = checkSampleRate(sampleRate);
+      return this;
+    }
+
+    /**
+     * Store the values in {@code storage}, so that they can be exported together with the values of
+     * other processes by a {@link MultiprocessCollector}.
+     */
+    public Builder multiprocess(MultiprocessStorage storage) {
+      if (storage == null) {
+        throw new NullPointerException();
+      }
+      this.multiprocessStorage = storage;
+      return this;
+    }
   }
 
   /**
@@ -160,7 +203,23 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
 
   @Override
   protected Child newChild() {
-    return new Child(exemplarsEnabled, exemplarSampler);
+    return new Child(new DoubleAdder(), exemplarsEnabled, exemplarSampler, sampleRate);
+  }
+
+  /**
+   * @return true if the values are kept in a {@link MultiprocessStorage}, and so aren't checkpointed.
+   */
+  boolean isMultiprocess() {
+    return multiprocessStorage != null;
+  }
+
+  @Override
+  Child newChild(List<String> labelValues) {
+    if (multiprocessStorage == null) {
+      return newChild();
+    }
+    DoubleAdder value = multiprocessStorage.newValue("counter", fullname, help, fullname + "_total", labelNames, labelValues);
+    return new Child(value, exemplarsEnabled, exemplarSampler, sampleRate);
   }
 
   /**
@@ -170,19 +229,36 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
    * {@link SimpleCollector#remove} or {@link SimpleCollector#clear},
    */
   public static class Child {
-    private final DoubleAdder value = new DoubleAdder();
-    private final long created = System.currentTimeMillis();
+    private final DoubleAdder value;
+    private volatile long created = System.currentTimeMillis();
     private final Boolean exemplarsEnabled;
     private final CounterExemplarSampler exemplarSampler;
-    private final AtomicReference<Exemplar> exemplar = new AtomicReference<Exemplar>();
+    private volatile Exemplar exemplar;
+    // Probability that an increment is counted, and the factor that sampled increments are scaled by.
+    private final double sampleRate;
+    private final double sampleWeight;
+
+    private static final AtomicReferenceFieldUpdater<Child, Exemplar> exemplarUpdater =
+        AtomicReferenceFieldUpdater.newUpdater(Child.class, Exemplar.class, "exemplar");
 
     public Child() {
       this(null, null);
     }
 
     public Child(Boolean exemplarsEnabled, CounterExemplarSampler exemplarSampler) {
+      this(new DoubleAdder(), exemplarsEnabled, exemplarSampler);
+    }
+
+    Child(DoubleAdder value, Boolean exemplarsEnabled, CounterExemplarSampler exemplarSampler) {
+      this(value, exemplarsEnabled, exemplarSampler, 1.0);
+    }
+
+    Child(DoubleAdder value, Boolean exemplarsEnabled, CounterExemplarSampler exemplarSampler, double sampleRate) {
+      this.value = value;
       this.exemplarsEnabled = exemplarsEnabled;
       this.exemplarSampler = exemplarSampler;
+      this.sampleRate = sampleRate;
+      this.sampleWeight = 1.0 / sampleRate;
     }
 
     /**
@@ -221,7 +297,7 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
      * This exemplar takes precedence over any exemplar returned by the {@link CounterExemplarSampler} configured
      * in {@link ExemplarConfig}.
      * <p>
-     * The exemplar will have {@code amt} as the value, {@code System.currentTimeMillis()} as the timestamp,
+     * The exemplar will have {@code amt} as the value, the current time of the default {@link Clock} as the timestamp,
      * and the specified labels.
      *
      * @param amt            same as in {@link #inc(double)}
@@ -232,11 +308,14 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
      *                       to calling {@code inc(amt)}.
      */
     public void incWithExemplar(double amt, String... exemplarLabels) {
-      Exemplar exemplar = exemplarLabels == null ? null : new Exemplar(amt, System.currentTimeMillis(), exemplarLabels);
       if (amt < 0) {
         throw new IllegalArgumentException("Amount to increment must be non-negative.");
       }
-      value.add(amt);
+      if (sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+        return;
+      }
+      Exemplar exemplar = exemplarLabels == null ? null : new Exemplar(amt, Clock.getDefaultClock().currentTimeMillis(), exemplarLabels);
+      value.add(sampleRate < 1.0 ? amt * sampleWeight : amt);
       updateExemplar(amt, exemplar);
     }
 
@@ -248,32 +327,38 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
     }
 
     private void updateExemplar(double amt, Exemplar userProvidedExemplar) {
+      if (userProvidedExemplar != null) {
+        exemplar = userProvidedExemplar;
+        return;
+      }
+      CounterExemplarSampler exemplarSampler = getExemplarSampler();
+      if (exemplarSampler == null) {
+        return;
+      }
+      // See Histogram.Child: check whether a new exemplar is due before the sampler captures the span context.
+      ExemplarSamplingGate gate = exemplarSampler instanceof ExemplarSamplingGate ? (ExemplarSamplingGate) exemplarSampler : null;
       Exemplar prev, next;
       do {
-        prev = exemplar.get();
-        if (userProvidedExemplar == null) {
-          next = sampleNextExemplar(amt, prev);
-        } else {
-          next = userProvidedExemplar;
+        prev = exemplar;
+        if (gate != null && !gate.isSampleDue(prev)) {
+          return;
         }
+        next = exemplarSampler.sample(amt, prev);
         if (next == null || next == prev) {
           return;
         }
-      } while (!exemplar.compareAndSet(prev, next));
+      } while (!exemplarUpdater.compareAndSet(this, prev, next));
     }
 
-    private Exemplar sampleNextExemplar(double amt, Exemplar prev) {
+    private CounterExemplarSampler getExemplarSampler() {
       if (FALSE.equals(exemplarsEnabled)) {
         return null;
       }
       if (exemplarSampler != null) {
-        return exemplarSampler.sample(amt, prev);
+        return exemplarSampler;
       }
       if (TRUE.equals(exemplarsEnabled) || ExemplarConfig.isExemplarsEnabled()) {
-        CounterExemplarSampler exemplarSampler = ExemplarConfig.getCounterExemplarSampler();
-        if (exemplarSampler != null) {
-          return exemplarSampler.sample(amt, prev);
-        }
+        return ExemplarConfig.getCounterExemplarSampler();
       }
       return null;
     }
@@ -286,7 +371,7 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
     }
 
     private Exemplar getExemplar() {
-      return exemplar.get();
+      return exemplar;
     }
 
     /**
@@ -295,6 +380,14 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
     public long created() {
       return created;
     }
+
+    /**
+     * Add a value restored from a checkpoint, and take over its created time.
+     */
+    void restore(double value, long created) {
+      this.value.add(value);
+      this.created = created;
+    }
   }
 
   // Convenience methods.
@@ -357,11 +450,18 @@ public class Counter extends SimpleCollector<Counter.Child> implements Collector
       samples.add(new MetricFamilySamples.Sample(fullname + "_total", labelNames, c.getKey(), c.getValue().get(), c.getValue().getExemplar()));
       samples.add(new MetricFamilySamples.Sample(fullname + "_created", labelNames, c.getKey(), c.getValue().created() / 1000.0));
     }
-    return familySamplesList(Type.COUNTER, samples);
+    List<MetricFamilySamples> result = familySamplesList(Type.COUNTER, samples);
+    if (sampleRate < 1.0) {
+      result.add(samplingInfo(sampleRate));
+    }
+    return result;
   }
 
   @Override
   public List<MetricFamilySamples> describe() {
+    if (sampleRate < 1.0) {
+      return Arrays.<MetricFamilySamples>asList(new CounterMetricFamily(fullname, help, labelNames), samplingInfo(sampleRate));
+    }
     return Collections.<MetricFamilySamples>singletonList(new CounterMetricFamily(fullname, help, labelNames));
   }
 }
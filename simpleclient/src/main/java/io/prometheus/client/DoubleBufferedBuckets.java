@@ -0,0 +1,108 @@
+package io.prometheus.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Bucket counts and sum of a {@link Histogram.Child}, kept in a hot and a cold buffer so that
+ * {@link #snapshot(double[])} returns mutually consistent buckets, count and sum without blocking observers.
+ * <p>
+ * Observers always write to the hot buffer. A snapshot swaps hot and cold, waits until the observations that
+ * were in flight on the now cold buffer have completed, reads it, and then folds it into the new hot buffer.
+ * This is the same scheme the Go client uses for its histograms.
+ * <p>
+ * Both buffers live in a single {@code long} array. Each buffer is surrounded by a cache line of padding so
+ * that observers writing to the hot buffer don't contend with a snapshot reading the cold one, nor with
+ * neighbouring objects on the heap.
+ */
+class DoubleBufferedBuckets {
+
+  // 8 longs = 64 bytes, the cache line size on common hardware.
+  private static final int PADDING = 8;
+  // Offsets within a buffer.
+  private static final int COUNT = 0; // number of completed observations
+  private static final int SUM = 1; // Double.doubleToRawLongBits() of the sum
+  private static final int BUCKETS = 2; // non-cumulative bucket counts
+
+  private static final long HOT_INDEX_BIT = Long.MIN_VALUE;
+
+  private static final AtomicLongFieldUpdater<DoubleBufferedBuckets> countAndHotIndexUpdater =
+      AtomicLongFieldUpdater.newUpdater(DoubleBufferedBuckets.class, "countAndHotIndex");
+
+  // The highest bit selects the hot buffer, the remaining bits count the observations that were started.
+  private volatile long countAndHotIndex;
+  private final int bufferSize;
+  private final AtomicLongArray buffers;
+
+  DoubleBufferedBuckets(int numberOfBuckets) {
+    bufferSize = BUCKETS + numberOfBuckets;
+    buffers = new AtomicLongArray(PADDING + bufferSize + PADDING + bufferSize + PADDING);
+  }
+
+  private int offset(long countAndHotIndex) {
+    return countAndHotIndex >= 0 ? PADDING : PADDING + bufferSize + PADDING;
+  }
+
+  /**
+   * Record an observation of {@code amt} in bucket {@code bucket}.
+   */
+  void observe(int bucket, double amt) {
+    int offset = offset(countAndHotIndexUpdater.incrementAndGet(this));
+    buffers.incrementAndGet(offset + BUCKETS + bucket);
+    addToSum(offset + SUM, amt);
+    // Must be last, a snapshot waits for this to know that the observation is complete.
+    buffers.incrementAndGet(offset + COUNT);
+  }
+
+  /**
+   * Add {@code bucketCounts[i]} observations to bucket {@code i}, with a total of {@code amt}.
+   */
+  void add(long[] bucketCounts, double amt) {
+    long total = 0;
+    for (long bucketCount : bucketCounts) {
+      total += bucketCount;
+    }
+    int offset = offset(countAndHotIndexUpdater.addAndGet(this, total));
+    for (int i = 0; i < bucketCounts.length; i++) {
+      buffers.addAndGet(offset + BUCKETS + i, bucketCounts[i]);
+    }
+    addToSum(offset + SUM, amt);
+    buffers.addAndGet(offset + COUNT, total);
+  }
+
+  private void addToSum(int index, double amt) {
+    long prev, next;
+    do {
+      prev = buffers.get(index);
+      next = Double.doubleToRawLongBits(Double.longBitsToDouble(prev) + amt);
+    } while (!buffers.compareAndSet(index, prev, next));
+  }
+
+  /**
+   * Take a consistent snapshot.
+   *
+   * @param cumulativeCounts filled with the cumulative bucket counts, the last element is the total count.
+   * @return the sum of all observations included in {@code cumulativeCounts}.
+   */
+  synchronized double snapshot(double[] cumulativeCounts) {
+    long n = countAndHotIndexUpdater.getAndAdd(this, HOT_INDEX_BIT);
+    long count = n & ~HOT_INDEX_BIT;
+    int cold = offset(n);
+    int hot = offset(n ^ HOT_INDEX_BIT);
+    while (buffers.get(cold + COUNT) != count) {
+      // Observations that picked the cold buffer before the swap are still in flight.
+      Thread.yield();
+    }
+    long acc = 0;
+    for (int i = 0; i < cumulativeCounts.length; i++) {
+      long bucketCount = buffers.getAndSet(cold + BUCKETS + i, 0);
+      buffers.addAndGet(hot + BUCKETS + i, bucketCount);
+      acc += bucketCount;
+      cumulativeCounts[i] = acc;
+    }
+    double sum = Double.longBitsToDouble(buffers.getAndSet(cold + SUM, 0));
+    addToSum(hot + SUM, sum);
+    buffers.addAndGet(hot + COUNT, buffers.getAndSet(cold + COUNT, 0));
+    return sum;
+  }
+}
@@ -0,0 +1,113 @@
+package io.prometheus.client;
+
+import io.prometheus.client.exemplars.Exemplar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the exemplars with the largest values of each bucket of a {@link Histogram.Child}, see
+ * {@link Histogram.Builder#exemplarReservoir(int, long)}.
+ * <p>
+ * The exemplars are stored in the {@link AtomicReferenceArray} of the child, with {@link #size} consecutive slots
+ * per bucket. A new exemplar replaces the smallest or an expired one with a compare-and-set, so observers never
+ * block. Reservoirs are small, so scanning the slots of a bucket is cheaper than maintaining a heap.
+ */
+final class ExemplarReservoir {
+
+  private static final Comparator<Exemplar> LARGEST_FIRST = new Comparator<Exemplar>() {
+    @Override
+    public int compare(Exemplar a, Exemplar b) {
+      return Double.compare(b.getValue(), a.getValue());
+    }
+  };
+
+  final int size;
+  private final long windowMillis;
+
+  ExemplarReservoir(int size, long windowMillis) {
+    this.size = size;
+    this.windowMillis = windowMillis;
+  }
+
+  private boolean isExpired(Exemplar exemplar, long now) {
+    Long timestamp = exemplar.getTimestampMs();
+    return timestamp != null && now - timestamp >= windowMillis;
+  }
+
+  /**
+   * @return {@code true} if an exemplar with {@code value} would be kept in {@code bucket}. This is checked before
+   * an exemplar is sampled, so that observations that wouldn't be kept don't pay for it.
+   */
+  boolean isCandidate(AtomicReferenceArray<Exemplar> slots, int bucket, double value, long now) {
+    for (int i = bucket * size; i < (bucket + 1) * size; i++) {
+      Exemplar e = slots.get(i);
+      if (e == null || e.getValue() < value || isExpired(e, now)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Replace the smallest or an expired exemplar of {@code bucket} with {@code exemplar}, unless all exemplars
+   * of the bucket are current and at least as large.
+   */
+  void offer(AtomicReferenceArray<Exemplar> slots, int bucket, Exemplar exemplar, long now) {
+    while (true) {
+      int victim = -1;
+      Exemplar victimExemplar = null;
+      for (int i = bucket * size; i < (bucket + 1) * size; i++) {
+        Exemplar e = slots.get(i);
+        if (e == null || isExpired(e, now)) {
+          victim = i;
+          victimExemplar = e;
+          break;
+        }
+        if (victim == -1 || e.getValue() < victimExemplar.getValue()) {
+          victim = i;
+          victimExemplar = e;
+        }
+      }
+      if (victimExemplar != null && !isExpired(victimExemplar, now)
+          && victimExemplar.getValue() >= exemplar.getValue()) {
+        return;
+      }
+      if (slots.compareAndSet(victim, victimExemplar, exemplar)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return the current exemplars of {@code bucket}, largest first.
+   */
+  List<Exemplar> get(AtomicReferenceArray<Exemplar> slots, int bucket, long now) {
+    List<Exemplar> result = new ArrayList<Exemplar>(size);
+    for (int i = bucket * size; i < (bucket + 1) * size; i++) {
+      Exemplar e = slots.get(i);
+      if (e != null && !isExpired(e, now)) {
+        result.add(e);
+      }
+    }
+    Collections.sort(result, LARGEST_FIRST);
+    return result;
+  }
+
+  /**
+   * @return the current exemplar of {@code bucket} with the largest value, or {@code null}.
+   */
+  Exemplar max(AtomicReferenceArray<Exemplar> slots, int bucket, long now) {
+    Exemplar result = null;
+    for (int i = bucket * size; i < (bucket + 1) * size; i++) {
+      Exemplar e = slots.get(i);
+      if (e != null && !isExpired(e, now) && (result == null || e.getValue() > result.getValue())) {
+        result = e;
+      }
+    }
+    return result;
+  }
+}
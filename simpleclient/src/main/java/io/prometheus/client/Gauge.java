@@ -65,15 +65,60 @@ import java.util.concurrent.Callable;
  */
 public class Gauge extends SimpleCollector<Gauge.Child> implements Collector.Describable {
 
+  private final MultiprocessStorage multiprocessStorage;
+  private final MultiprocessStorage.GaugeMode multiprocessMode;
+
   Gauge(Builder b) {
     super(b);
+    this.multiprocessStorage = b.multiprocessStorage;
+    this.multiprocessMode = b.multiprocessMode;
+    initializeNoLabelsChild();
   }
 
   public static class Builder extends SimpleCollector.Builder<Builder, Gauge> {
+
+    private MultiprocessStorage.GaugeMode multiprocessMode;
+
     @Override
     public Gauge create() {
+      if (multiprocessMode == MultiprocessStorage.GaugeMode.ALL
+          || multiprocessMode == MultiprocessStorage.GaugeMode.LIVE_ALL) {
+        for (String label : labelNames) {
+          if (label.equals("pid")) {
+            throw new IllegalStateException("Gauge in multiprocess mode " + multiprocessMode
+                + " cannot have a label named 'pid'.");
+          }
+        }
+      }
+      dontInitializeNoLabelsChild = true;
       return new Gauge(this);
     }
+
+    /**
+     * Same as {@link #multiprocess(MultiprocessStorage, MultiprocessStorage.GaugeMode)
+     * multiprocess(storage, GaugeMode.ALL)}.
+     */
+    public Builder multiprocess(MultiprocessStorage storage) {
+      return multiprocess(storage, MultiprocessStorage.GaugeMode.ALL);
+    }
+
+    /**
+     * Store the values in {@code storage}, so that they can be exported together with the values of
+     * other processes by a {@link MultiprocessCollector}.
+     * <p>
+     * In mode {@link MultiprocessStorage.GaugeMode#ALL ALL} or {@link MultiprocessStorage.GaugeMode#LIVE_ALL LIVE_ALL}
+     * the {@code pid} label is added on export, so the Gauge cannot have a label of that name.
+     *
+     * @param mode how the values of different processes are merged.
+     */
+    public Builder multiprocess(MultiprocessStorage storage, MultiprocessStorage.GaugeMode mode) {
+      if (storage == null || mode == null) {
+        throw new NullPointerException();
+      }
+      this.multiprocessStorage = storage;
+      this.multiprocessMode = mode;
+      return this;
+    }
   }
 
   /**
@@ -98,6 +143,14 @@ public class Gauge extends SimpleCollector<Gauge.Child> implements Collector.Des
     return new Child();
   }
 
+  @Override
+  Child newChild(List<String> labelValues) {
+    if (multiprocessStorage == null) {
+      return newChild();
+    }
+    return new Child(multiprocessStorage.newValue(multiprocessMode.fileType(), fullname, help, fullname, labelNames, labelValues));
+  }
+
    /**
     * Represents an event being timed.
     */
@@ -135,10 +188,18 @@ public class Gauge extends SimpleCollector<Gauge.Child> implements Collector.Des
    */
   public static class Child {
 
-    private final DoubleAdder value = new DoubleAdder();
+    private final DoubleAdder value;
 
     static TimeProvider timeProvider = new TimeProvider();
 
+    public Child() {
+      this(new DoubleAdder());
+    }
+
+    Child(DoubleAdder value) {
+      this.value = value;
+    }
+
     /**
      * Increment the gauge by 1.
      */
@@ -2,15 +2,19 @@ package io.prometheus.client;
 
 import io.prometheus.client.exemplars.Exemplar;
 import io.prometheus.client.exemplars.ExemplarConfig;
+import io.prometheus.client.exemplars.ExemplarSamplingGate;
 import io.prometheus.client.exemplars.HistogramExemplarSampler;
 
 import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
@@ -67,17 +71,58 @@ import static java.lang.Boolean.TRUE;
  * {@link Histogram.Builder#linearBuckets(double, double, int) linearBuckets} and
  * {@link Histogram.Builder#exponentialBuckets(double, double, int) exponentialBuckets}
  * offer easy ways to set common bucket patterns.
+ * <p>
+ * If you don't know the distribution up front, the histogram can learn its buckets from the first observations:
+ * <pre>
+ * {@code
+ *     static final Histogram requestLatency = Histogram.build()
+ *         .adaptiveBuckets(12, 1000)
+ *         .name("requests_latency_seconds").help("Request latency in seconds.").register();
+ * }
+ * </pre>
  */
 public class Histogram extends SimpleCollector<Histogram.Child> implements Collector.Describable {
   private final double[] buckets;
   private final Boolean exemplarsEnabled; // null means default from ExemplarConfig applies
   private final HistogramExemplarSampler exemplarSampler;
+  private final ExemplarReservoir exemplarReservoir; // null means one exemplar per bucket is kept
+  private final boolean consistentSnapshots;
+  private final MultiprocessStorage multiprocessStorage;
+  private final double sampleRate;
+  // Non-null if the buckets are learned from the first observations. buckets and bucketLabels are null then.
+  private final AdaptiveBuckets adaptiveBuckets;
+  // Computed once, so that scrapes don't allocate them for every child.
+  private final String[] bucketLabels;
+  private final List<String> labelNamesWithLe;
+  private final String bucketName, countName, sumName, createdName;
 
   Histogram(Builder b) {
     super(b);
     this.exemplarsEnabled = b.exemplarsEnabled;
     this.exemplarSampler = b.exemplarSampler;
-    buckets = b.buckets;
+    this.exemplarReservoir = b.exemplarReservoir;
+    this.consistentSnapshots = b.consistentSnapshots;
+    this.multiprocessStorage = b.multiprocessStorage;
+    this.sampleRate = b.sampleRate;
+    if (b.adaptiveMaxBuckets > 0) {
+      adaptiveBuckets = new AdaptiveBuckets(b.adaptiveMaxBuckets, b.adaptiveWarmupObservations, b.buckets);
+      buckets = null;
+      bucketLabels = null;
+    } else {
+      adaptiveBuckets = null;
+      buckets = b.buckets;
+      bucketLabels = new String[buckets.length];
+      for (int i = 0; i < buckets.length; i++) {
+        bucketLabels[i] = doubleToGoString(buckets[i]);
+      }
+    }
+    List<String> names = new ArrayList<String>(labelNames);
+    names.add("le");
+    labelNamesWithLe = Collections.unmodifiableList(names);
+    bucketName = fullname + "_bucket";
+    countName = fullname + "_count";
+    sumName = fullname + "_sum";
+    createdName = fullname + "_created";
     initializeNoLabelsChild();
   }
 
@@ -85,6 +130,11 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
 
     private Boolean exemplarsEnabled = null;
     private HistogramExemplarSampler exemplarSampler = null;
+    private ExemplarReservoir exemplarReservoir = null;
+    private boolean consistentSnapshots = false;
+    private int adaptiveMaxBuckets = 0;
+    private int adaptiveWarmupObservations = 0;
+    private double sampleRate = 1.0;
     private double[] buckets = new double[] { .005, .01, .025, .05, .075, .1, .25, .5, .75, 1, 2.5, 5, 7.5, 10 };
 
     @Override
@@ -98,6 +148,15 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
       if (buckets.length == 0) {
         throw new IllegalStateException("Histogram must have at least one bucket.");
       }
+      if (consistentSnapshots && multiprocessStorage != null) {
+        throw new IllegalStateException("Histogram with consistent snapshots cannot use multiprocess storage.");
+      }
+      if (adaptiveMaxBuckets > 0 && (consistentSnapshots || multiprocessStorage != null)) {
+        throw new IllegalStateException("Histogram with adaptive buckets cannot use consistent snapshots or multiprocess storage.");
+      }
+      if (sampleRate < 1.0 && consistentSnapshots) {
+        throw new IllegalStateException("Histogram with consistent snapshots cannot be sampled.");
+      }
       for (String label : labelNames) {
         if (label.equals("le")) {
           throw new IllegalStateException("Histogram cannot have a label named 'le'.");
@@ -115,6 +174,14 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
       return new Histogram(this);
     }
 
+    @Override
+    void applyView(View view) {
+      super.applyView(view);
+      if (view.buckets != null) {
+        buckets = view.buckets;
+      }
+    }
+
     /**
      * Set the upper bounds of buckets for the histogram.
      */
@@ -145,6 +212,61 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
       return this;
     }
 
+    /**
+     * Learn the buckets from the first {@code warmupObservations} observations, instead of using fixed buckets.
+     * <p>
+     * Boundaries are chosen so that each of at most {@code maxBuckets} buckets (plus {@code +Inf}) holds about
+     * the same share of the warm-up observations, which keeps the error of quantiles computed with
+     * {@code histogram_quantile()} small, without adding time series. The buckets are frozen when
+     * {@code warmupObservations} observations were made. Until then, scrapes only see the {@code +Inf} bucket,
+     * {@code _count} and {@code _sum}, and observations during the warm-up are counted in the learned buckets
+     * once they are frozen. If none of the warm-up observations is finite, the buckets configured with
+     * {@link #buckets(double...)} (or the defaults) are used.
+     * <p>
+     * Exemplars of observations made during the warm-up are dropped. If checkpoints are enabled with
+     * {@link CollectorRegistry#enableCheckpoints}, the buckets of the previous run are restored, so that
+     * {@code le} values don't change on restart. Histograms that are still warming up are not checkpointed.
+     */
+    public Builder adaptiveBuckets(int maxBuckets, int warmupObservations) {
+      if (maxBuckets <= 0) {
+        throw new IllegalArgumentException("maxBuckets cannot be " + maxBuckets);
+      }
+      if (warmupObservations <= 0) {
+        throw new IllegalArgumentException("warmupObservations cannot be " + warmupObservations);
+      }
+      this.adaptiveMaxBuckets = maxBuckets;
+      this.adaptiveWarmupObservations = warmupObservations;
+      return this;
+    }
+
+    /**
+     * Record only a random sample of the observations, and scale bucket counts and sum so that they and their
+     * rates are unbiased estimates of the real values.
+     * <p>
+     * See {@link Counter.Builder#sampleRate(double)}. Sampled histograms cannot use {@link #consistentSnapshots()}.
+     *
+     * @param sampleRate probability that an observation is recorded, between 0 (exclusive) and 1 (inclusive).
+     */
+    public Builder sampleRate(double sampleRate) {
+      this.sampleRate = checkSampleRate(sampleRate);
+      return this;
+    }
+
+    /**
+     * Keep bucket counts and sum in a double-buffered store, so that each scrape sees a {@code _count},
+     * {@code _sum} and {@code _bucket} values that include exactly the same observations.
+     * <p>
+     * By default each bucket and the sum are separate striped adders that are read one after another,
+     * so a scrape racing with observations may see a {@code _sum} that doesn't match the {@code _count}.
+     * The double-buffered store also needs less memory per child. Observers never block, but all threads
+     * observing into the same child update the same counters, so children with very high concurrent update
+     * rates may scale better with the default.
+     */
+    public Builder consistentSnapshots() {
+      this.consistentSnapshots = true;
+      return this;
+    }
+
     /**
      * Enable exemplars and provide a custom {@link HistogramExemplarSampler}.
      */
@@ -178,6 +300,43 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
       this.exemplarsEnabled = FALSE;
       return this;
     }
+
+    /**
+     * Keep the {@code size} exemplars with the largest values per bucket that were observed in the last
+     * {@code windowSeconds}, instead of the most recently sampled one.
+     * <p>
+     * By default a bucket keeps one exemplar, which the {@link HistogramExemplarSampler} replaces every few seconds,
+     * so the exemplar of the slowest request is usually gone by the time someone looks for it. With a reservoir,
+     * the largest exemplar of each bucket is exposed in the OpenMetrics format, and all exemplars of the reservoir
+     * are available through {@link #collectExemplarReservoir()} and
+     * {@link CollectorRegistry#exemplarReservoirSamples()}, e.g. on the {@code /debug/exemplars} endpoint of the
+     * {@code HTTPServer}.
+     * <p>
+     * The sampler is asked for an exemplar only when the observation would be kept, regardless of its retention
+     * interval. This also enables exemplars, as {@link #withExemplars()} does.
+     */
+    public Builder exemplarReservoir(int size, long windowSeconds) {
+      if (size <= 0) {
+        throw new IllegalArgumentException("size cannot be " + size);
+      }
+      if (windowSeconds <= 0) {
+        throw new IllegalArgumentException("windowSeconds cannot be " + windowSeconds);
+      }
+      this.exemplarReservoir = new ExemplarReservoir(size, windowSeconds * 1000);
+      return withExemplars();
+    }
+
+    /**
+     * Store the bucket counts and sum in {@code storage}, so that they can be exported together with the values of
+     * other processes by a {@link MultiprocessCollector}.
+     */
+    public Builder multiprocess(MultiprocessStorage storage) {
+      if (storage == null) {
+        throw new NullPointerException();
+      }
+      this.multiprocessStorage = storage;
+      return this;
+    }
   }
 
   /**
@@ -199,7 +358,34 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
 
   @Override
   protected Child newChild() {
-    return new Child(buckets, exemplarsEnabled, exemplarSampler);
+    if (adaptiveBuckets != null) {
+      return new Child(adaptiveBuckets, exemplarsEnabled, exemplarSampler, exemplarReservoir, sampleRate);
+    }
+    return new Child(buckets, exemplarsEnabled, exemplarSampler, exemplarReservoir, sampleRate, consistentSnapshots);
+  }
+
+  /**
+   * @return true if the values are kept in a {@link MultiprocessStorage}, and so aren't checkpointed.
+   */
+  boolean isMultiprocess() {
+    return multiprocessStorage != null;
+  }
+
+  @Override
+  Child newChild(List<String> labelValues) {
+    if (multiprocessStorage == null) {
+      return newChild();
+    }
+    List<String> bucketLabelNames = new ArrayList<String>(labelNames);
+    bucketLabelNames.add("le");
+    DoubleAdder[] bucketCounts = new DoubleAdder[buckets.length];
+    for (int i = 0; i < buckets.length; i++) {
+      List<String> bucketLabelValues = new ArrayList<String>(labelValues);
+      bucketLabelValues.add(doubleToGoString(buckets[i]));
+      bucketCounts[i] = multiprocessStorage.newValue("histogram", fullname, help, fullname + "_bucket", bucketLabelNames, bucketLabelValues);
+    }
+    DoubleAdder sum = multiprocessStorage.newValue("histogram", fullname, help, fullname + "_sum", labelNames, labelValues);
+    return new Child(buckets, exemplarsEnabled, exemplarSampler, exemplarReservoir, sampleRate, bucketCounts, sum);
   }
 
   /**
@@ -338,25 +524,170 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
       }
     }
 
-    private Child(double[] buckets, Boolean exemplarsEnabled, HistogramExemplarSampler exemplarSampler) {
+    private Child(double[] buckets, Boolean exemplarsEnabled, HistogramExemplarSampler exemplarSampler, ExemplarReservoir exemplarReservoir, double sampleRate, boolean consistentSnapshots) {
+      upperBounds = buckets;
+      this.exemplarsEnabled = exemplarsEnabled;
+      this.exemplarSampler = exemplarSampler;
+      this.exemplarReservoir = exemplarReservoir;
+      this.sampleRate = sampleRate;
+      this.sampleWeight = 1.0 / sampleRate;
+      if (consistentSnapshots) {
+        doubleBufferedBuckets = new DoubleBufferedBuckets(buckets.length);
+        cumulativeCounts = null;
+        sum = null;
+      } else {
+        doubleBufferedBuckets = null;
+        cumulativeCounts = new DoubleAdder[buckets.length];
+        for (int i = 0; i < buckets.length; ++i) {
+          cumulativeCounts[i] = new DoubleAdder();
+        }
+        sum = new DoubleAdder();
+      }
+    }
+
+    private Child(AdaptiveBuckets adaptiveBuckets, Boolean exemplarsEnabled, HistogramExemplarSampler exemplarSampler, ExemplarReservoir exemplarReservoir, double sampleRate) {
+      this.exemplarsEnabled = exemplarsEnabled;
+      this.exemplarSampler = exemplarSampler;
+      this.exemplarReservoir = exemplarReservoir;
+      this.sampleRate = sampleRate;
+      this.sampleWeight = 1.0 / sampleRate;
+      doubleBufferedBuckets = null;
+      double[] frozen = adaptiveBuckets.getBuckets();
+      if (frozen == null) {
+        warmup = new Warmup(adaptiveBuckets);
+      } else {
+        initBuckets(frozen);
+      }
+    }
+
+    private Child(double[] buckets, Boolean exemplarsEnabled, HistogramExemplarSampler exemplarSampler, ExemplarReservoir exemplarReservoir, double sampleRate, DoubleAdder[] bucketCounts, DoubleAdder sum) {
       upperBounds = buckets;
       this.exemplarsEnabled = exemplarsEnabled;
       this.exemplarSampler = exemplarSampler;
-      exemplars = new ArrayList<AtomicReference<Exemplar>>(buckets.length);
+      this.exemplarReservoir = exemplarReservoir;
+      this.sampleRate = sampleRate;
+      this.sampleWeight = 1.0 / sampleRate;
+      doubleBufferedBuckets = null;
+      cumulativeCounts = bucketCounts;
+      this.sum = sum;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Child, AtomicReferenceArray> exemplarsUpdater =
+        AtomicReferenceFieldUpdater.newUpdater(Child.class, AtomicReferenceArray.class, "exemplars");
+
+    // One slot per bucket, or exemplarReservoir.size slots per bucket. Allocated when the first exemplar is stored,
+    // so children that never see an exemplar (e.g. with exemplars disabled) don't pay for it.
+    private volatile AtomicReferenceArray<Exemplar> exemplars;
+    private final Boolean exemplarsEnabled;
+    private final HistogramExemplarSampler exemplarSampler;
+    private final ExemplarReservoir exemplarReservoir;
+    // Probability that an observation is recorded, and the factor that recorded observations are scaled by.
+    private final double sampleRate;
+    private final double sampleWeight;
+    // Not final for adaptive buckets: they are set when the buckets are frozen, before warmup is cleared.
+    private double[] upperBounds;
+    // Either doubleBufferedBuckets, or cumulativeCounts and sum are used.
+    private final DoubleBufferedBuckets doubleBufferedBuckets;
+    private DoubleAdder[] cumulativeCounts;
+    private DoubleAdder sum;
+    private volatile long created = System.currentTimeMillis();
+    // Non-null while the buckets of an adaptive histogram are not frozen.
+    private volatile Warmup warmup;
+
+    /**
+     * The observations of a child made while the adaptive buckets are learned.
+     */
+    private static class Warmup {
+      final AdaptiveBuckets adaptiveBuckets;
+      double[] values = new double[16];
+      int size;
+
+      Warmup(AdaptiveBuckets adaptiveBuckets) {
+        this.adaptiveBuckets = adaptiveBuckets;
+      }
+    }
+
+    private void initBuckets(double[] buckets) {
+      upperBounds = buckets;
       cumulativeCounts = new DoubleAdder[buckets.length];
       for (int i = 0; i < buckets.length; ++i) {
         cumulativeCounts[i] = new DoubleAdder();
-        exemplars.add(new AtomicReference<Exemplar>());
       }
+      sum = new DoubleAdder();
     }
 
-    private final ArrayList<AtomicReference<Exemplar>> exemplars;
-    private final Boolean exemplarsEnabled;
-    private final HistogramExemplarSampler exemplarSampler;
-    private final double[] upperBounds;
-    private final DoubleAdder[] cumulativeCounts;
-    private final DoubleAdder sum = new DoubleAdder();
-    private final long created = System.currentTimeMillis();
+    /**
+     * @return {@code true} if {@code amt} was recorded in the warm-up, {@code false} if the buckets are frozen.
+     */
+    private boolean observeDuringWarmup(Warmup w, double amt) {
+      synchronized (w) {
+        if (warmup == null) {
+          return false;
+        }
+        if (w.adaptiveBuckets.add(amt)) {
+          if (w.size == w.values.length) {
+            w.values = Arrays.copyOf(w.values, w.size * 2);
+          }
+          w.values[w.size++] = amt;
+          return true;
+        }
+        freeze(w);
+        return false;
+      }
+    }
+
+    /**
+     * Count the observations of the warm-up in the learned buckets, if the buckets were frozen since.
+     *
+     * @return {@code true} if the buckets are still learned.
+     */
+    private boolean isWarmingUp() {
+      Warmup w = warmup;
+      if (w == null) {
+        return false;
+      }
+      synchronized (w) {
+        if (warmup == null) {
+          return false;
+        }
+        if (w.adaptiveBuckets.getBuckets() == null) {
+          return true;
+        }
+        freeze(w);
+        return false;
+      }
+    }
+
+    /**
+     * Freeze the buckets if they are still learned, and count the observations of the warm-up.
+     */
+    private void freeze() {
+      Warmup w = warmup;
+      if (w != null) {
+        synchronized (w) {
+          if (warmup != null) {
+            freeze(w);
+          }
+        }
+      }
+    }
+
+    private void freeze(Warmup w) {
+      initBuckets(w.adaptiveBuckets.freeze());
+      for (int i = 0; i < w.size; i++) {
+        double amt = w.values[i];
+        for (int j = 0; j < upperBounds.length; ++j) {
+          if (amt <= upperBounds[j]) {
+            cumulativeCounts[j].add(sampleWeight);
+            break;
+          }
+        }
+        sum.add(amt * sampleWeight);
+      }
+      // Publishes the buckets to observers that don't synchronize on w.
+      warmup = null;
+    }
 
     /**
      * Observe the given amount.
@@ -376,7 +707,7 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
      * This exemplar takes precedence over any exemplar returned by the {@link HistogramExemplarSampler} configured
      * in {@link ExemplarConfig}.
      * <p>
-     * The exemplar will have {@code amt} as the value, {@code System.currentTimeMillis()} as the timestamp,
+     * The exemplar will have {@code amt} as the value, the current time of the default {@link Clock} as the timestamp,
      * and the specified labels.
      *
      * @param amt            same as in {@link #observe(double)} (double)}
@@ -387,16 +718,29 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
      *                       to calling {@code observe(amt)}.
      */
     public void observeWithExemplar(double amt, String... exemplarLabels) {
-      Exemplar exemplar = exemplarLabels == null ? null : new Exemplar(amt, System.currentTimeMillis(), exemplarLabels);
+      if (sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+        return;
+      }
+      Warmup w = warmup;
+      if (w != null && observeDuringWarmup(w, amt)) {
+        return;
+      }
+      Exemplar exemplar = exemplarLabels == null ? null : new Exemplar(amt, Clock.getDefaultClock().currentTimeMillis(), exemplarLabels);
       for (int i = 0; i < upperBounds.length; ++i) {
         // The last bucket is +Inf, so we always increment.
         if (amt <= upperBounds[i]) {
-          cumulativeCounts[i].add(1);
+          if (doubleBufferedBuckets != null) {
+            doubleBufferedBuckets.observe(i, amt);
+          } else {
+            cumulativeCounts[i].add(sampleWeight);
+          }
           updateExemplar(amt, i, exemplar);
           break;
         }
       }
-      sum.add(amt);
+      if (doubleBufferedBuckets == null) {
+        sum.add(sampleRate < 1.0 ? amt * sampleWeight : amt);
+      }
     }
 
     /**
@@ -407,35 +751,81 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
     }
 
     private void updateExemplar(double amt, int i, Exemplar userProvidedExemplar) {
-      AtomicReference<Exemplar> exemplar = exemplars.get(i);
+      if (exemplarReservoir != null) {
+        updateExemplarReservoir(amt, i, userProvidedExemplar);
+        return;
+      }
+      if (userProvidedExemplar != null) {
+        getOrCreateExemplars().set(i, userProvidedExemplar);
+        return;
+      }
+      HistogramExemplarSampler exemplarSampler = getExemplarSampler();
+      if (exemplarSampler == null) {
+        return;
+      }
+      // Check whether a new exemplar is due before the sampler captures the span context and allocates,
+      // so that keeping the previous exemplar is as cheap as possible.
+      ExemplarSamplingGate gate = exemplarSampler instanceof ExemplarSamplingGate ? (ExemplarSamplingGate) exemplarSampler : null;
       double bucketFrom = i == 0 ? Double.NEGATIVE_INFINITY : upperBounds[i - 1];
       double bucketTo = upperBounds[i];
+      AtomicReferenceArray<Exemplar> exemplars = this.exemplars;
       Exemplar prev, next;
       do {
-        prev = exemplar.get();
-        if (userProvidedExemplar != null) {
-          next = userProvidedExemplar;
-        } else {
-          next = sampleNextExemplar(amt, bucketFrom, bucketTo, prev);
+        prev = exemplars == null ? null : exemplars.get(i);
+        if (gate != null && !gate.isSampleDue(prev)) {
+          return;
         }
+        next = exemplarSampler.sample(amt, bucketFrom, bucketTo, prev);
         if (next == null || next == prev) {
           return;
         }
-      } while (!exemplar.compareAndSet(prev, next));
+        if (exemplars == null) {
+          exemplars = getOrCreateExemplars();
+        }
+      } while (!exemplars.compareAndSet(i, prev, next));
+    }
+
+    private void updateExemplarReservoir(double amt, int i, Exemplar userProvidedExemplar) {
+      long now = Clock.getDefaultClock().currentTimeMillis();
+      AtomicReferenceArray<Exemplar> exemplars = this.exemplars;
+      if (exemplars != null && !exemplarReservoir.isCandidate(exemplars, i, amt, now)) {
+        return;
+      }
+      Exemplar exemplar = userProvidedExemplar;
+      if (exemplar == null) {
+        HistogramExemplarSampler exemplarSampler = getExemplarSampler();
+        if (exemplarSampler == null) {
+          return;
+        }
+        double bucketFrom = i == 0 ? Double.NEGATIVE_INFINITY : upperBounds[i - 1];
+        exemplar = exemplarSampler.sample(amt, bucketFrom, upperBounds[i], null);
+        if (exemplar == null) {
+          return;
+        }
+      }
+      exemplarReservoir.offer(getOrCreateExemplars(), i, exemplar, now);
+    }
+
+    @SuppressWarnings("unchecked")
+    private AtomicReferenceArray<Exemplar> getOrCreateExemplars() {
+      AtomicReferenceArray<Exemplar> result = exemplars;
+      if (result == null) {
+        int slots = exemplarReservoir == null ? upperBounds.length : upperBounds.length * exemplarReservoir.size;
+        exemplarsUpdater.compareAndSet(this, null, new AtomicReferenceArray<Exemplar>(slots));
+        result = exemplars;
+      }
+      return result;
     }
 
-    private Exemplar sampleNextExemplar(double amt, double bucketFrom, double bucketTo, Exemplar prev) {
+    private HistogramExemplarSampler getExemplarSampler() {
       if (FALSE.equals(exemplarsEnabled)) {
         return null;
       }
       if (exemplarSampler != null) {
-        return exemplarSampler.sample(amt, bucketFrom, bucketTo, prev);
+        return exemplarSampler;
       }
       if (TRUE.equals(exemplarsEnabled) || ExemplarConfig.isExemplarsEnabled()) {
-        HistogramExemplarSampler exemplarSampler = ExemplarConfig.getHistogramExemplarSampler();
-        if (exemplarSampler != null) {
-          return exemplarSampler.sample(amt, bucketFrom, bucketTo, prev);
-        }
+        return ExemplarConfig.getHistogramExemplarSampler();
       }
       return null;
     }
@@ -455,16 +845,89 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
      * <em>Warning:</em> The definition of {@link Value} is subject to change.
      */
     public Value get() {
-      double[] buckets = new double[cumulativeCounts.length];
-      Exemplar[] exemplars = new Exemplar[cumulativeCounts.length];
+      Warmup w = warmup;
+      if (w != null) {
+        synchronized (w) {
+          if (isWarmingUp()) {
+            // Only the +Inf bucket, as reading must not freeze buckets learned from an incomplete sample.
+            double sum = 0;
+            for (int i = 0; i < w.size; i++) {
+              sum += w.values[i];
+            }
+            return new Value(sum * sampleWeight, new double[]{w.size * sampleWeight}, new Exemplar[1], created);
+          }
+        }
+      }
+      double[] buckets = new double[upperBounds.length];
+      Exemplar[] exemplars = new Exemplar[upperBounds.length];
+      AtomicReferenceArray<Exemplar> exemplarSlots = this.exemplars;
+      if (exemplarSlots != null && exemplarReservoir != null) {
+        long now = Clock.getDefaultClock().currentTimeMillis();
+        for (int i = 0; i < upperBounds.length; ++i) {
+          exemplars[i] = exemplarReservoir.max(exemplarSlots, i, now);
+        }
+      } else if (exemplarSlots != null) {
+        for (int i = 0; i < upperBounds.length; ++i) {
+          exemplars[i] = exemplarSlots.get(i);
+        }
+      }
+      if (doubleBufferedBuckets != null) {
+        double sum = doubleBufferedBuckets.snapshot(buckets);
+        return new Value(sum, buckets, exemplars, created);
+      }
       double acc = 0;
       for (int i = 0; i < cumulativeCounts.length; ++i) {
         acc += cumulativeCounts[i].sum();
         buckets[i] = acc;
-        exemplars[i] = this.exemplars.get(i).get();
       }
       return new Value(sum.sum(), buckets, exemplars, created);
     }
+
+    /**
+     * Get the exemplars of the exemplar reservoir, largest first.
+     *
+     * @return one list per bucket, empty lists if no exemplar reservoir is configured.
+     * @see Builder#exemplarReservoir(int, long)
+     */
+    public List<List<Exemplar>> getReservoirExemplars() {
+      if (isWarmingUp()) {
+        return Collections.singletonList(Collections.<Exemplar>emptyList());
+      }
+      List<List<Exemplar>> result = new ArrayList<List<Exemplar>>(upperBounds.length);
+      AtomicReferenceArray<Exemplar> exemplarSlots = this.exemplars;
+      long now = Clock.getDefaultClock().currentTimeMillis();
+      for (int i = 0; i < upperBounds.length; ++i) {
+        if (exemplarSlots != null && exemplarReservoir != null) {
+          result.add(exemplarReservoir.get(exemplarSlots, i, now));
+        } else {
+          result.add(Collections.<Exemplar>emptyList());
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Add bucket counts and sum restored from a checkpoint, and take over its created time.
+     *
+     * @param buckets cumulative bucket counts, as in {@link Value#buckets}.
+     */
+    void restore(double[] buckets, double sum, long created) {
+      freeze();
+      if (doubleBufferedBuckets != null) {
+        long[] bucketCounts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+          bucketCounts[i] = (long) (buckets[i] - (i == 0 ? 0 : buckets[i - 1]));
+        }
+        doubleBufferedBuckets.add(bucketCounts, sum);
+      } else {
+        // Sampled histograms have fractional counts.
+        for (int i = 0; i < buckets.length; i++) {
+          cumulativeCounts[i].add(buckets[i] - (i == 0 ? 0 : buckets[i - 1]));
+        }
+        this.sum.add(sum);
+      }
+      this.created = created;
+    }
   }
 
   // Convenience methods.
@@ -565,28 +1028,92 @@ public class Histogram extends SimpleCollector<Histogram.Child> implements Colle
     List<MetricFamilySamples.Sample> samples = new ArrayList<MetricFamilySamples.Sample>();
     for (Map.Entry<List<String>, Child> c : children.entrySet()) {
       Child.Value v = c.getValue().get();
-      List<String> labelNamesWithLe = new ArrayList<String>(labelNames);
-      labelNamesWithLe.add("le");
+      String[] bucketLabels = getBucketLabels(v.buckets.length);
       for (int i = 0; i < v.buckets.length; ++i) {
-        List<String> labelValuesWithLe = new ArrayList<String>(c.getKey());
-        labelValuesWithLe.add(doubleToGoString(buckets[i]));
-        samples.add(new MetricFamilySamples.Sample(fullname + "_bucket", labelNamesWithLe, labelValuesWithLe, v.buckets[i], v.exemplars[i]));
+        List<String> labelValuesWithLe = LabelValues.append(c.getKey(), bucketLabels[i]);
+        samples.add(new MetricFamilySamples.Sample(bucketName, labelNamesWithLe, labelValuesWithLe, v.buckets[i], v.exemplars[i]));
       }
-      samples.add(new MetricFamilySamples.Sample(fullname + "_count", labelNames, c.getKey(), v.buckets[buckets.length-1]));
-      samples.add(new MetricFamilySamples.Sample(fullname + "_sum", labelNames, c.getKey(), v.sum));
-      samples.add(new MetricFamilySamples.Sample(fullname + "_created", labelNames, c.getKey(), v.created / 1000.0));
+      samples.add(new MetricFamilySamples.Sample(countName, labelNames, c.getKey(), v.buckets[v.buckets.length-1]));
+      samples.add(new MetricFamilySamples.Sample(sumName, labelNames, c.getKey(), v.sum));
+      samples.add(new MetricFamilySamples.Sample(createdName, labelNames, c.getKey(), v.created / 1000.0));
     }
 
+    List<MetricFamilySamples> result = familySamplesList(Type.HISTOGRAM, samples);
+    if (sampleRate < 1.0) {
+      result.add(samplingInfo(sampleRate));
+    }
+    return result;
+  }
+
+  /**
+   * Collect all exemplars of the exemplar reservoir, as one {@code _bucket} sample per exemplar, largest first.
+   * <p>
+   * The result is meant for debugging. It has several samples with the same labels, so it is not valid for
+   * Prometheus.
+   *
+   * @return an empty list if no exemplar reservoir is configured.
+   * @see Builder#exemplarReservoir(int, long)
+   */
+  public List<MetricFamilySamples> collectExemplarReservoir() {
+    if (exemplarReservoir == null) {
+      return Collections.emptyList();
+    }
+    List<MetricFamilySamples.Sample> samples = new ArrayList<MetricFamilySamples.Sample>();
+    for (Map.Entry<List<String>, Child> c : children.entrySet()) {
+      List<List<Exemplar>> exemplars = c.getValue().getReservoirExemplars();
+      String[] bucketLabels = getBucketLabels(exemplars.size());
+      for (int i = 0; i < exemplars.size(); ++i) {
+        List<String> labelValuesWithLe = LabelValues.append(c.getKey(), bucketLabels[i]);
+        for (Exemplar exemplar : exemplars.get(i)) {
+          samples.add(new MetricFamilySamples.Sample(bucketName, labelNamesWithLe, labelValuesWithLe, exemplar.getValue(), exemplar));
+        }
+      }
+    }
     return familySamplesList(Type.HISTOGRAM, samples);
   }
 
   @Override
   public List<MetricFamilySamples> describe() {
-    return Collections.singletonList(
-        new MetricFamilySamples(fullname, Type.HISTOGRAM, help, Collections.<MetricFamilySamples.Sample>emptyList()));
+    MetricFamilySamples histogram = new MetricFamilySamples(fullname, Type.HISTOGRAM, help, Collections.<MetricFamilySamples.Sample>emptyList());
+    if (sampleRate < 1.0) {
+      return Arrays.asList(histogram, samplingInfo(sampleRate));
+    }
+    return Collections.singletonList(histogram);
+  }
+
+  /**
+   * @param buckets the number of buckets of a child's value.
+   */
+  private String[] getBucketLabels(int buckets) {
+    if (adaptiveBuckets == null) {
+      return bucketLabels;
+    }
+    // The labels are set before the buckets of any child are frozen, so a child with another number of buckets
+    // is still warming up.
+    String[] labels = adaptiveBuckets.getBucketLabels();
+    return labels != null && labels.length == buckets ? labels : AdaptiveBuckets.WARMUP_BUCKET_LABELS;
   }
 
+  /**
+   * @return the buckets, or {@code null} while adaptive buckets are still learned.
+   */
   double[] getBuckets() {
-    return buckets;
+    return adaptiveBuckets != null ? adaptiveBuckets.getBuckets() : buckets;
+  }
+
+  /**
+   * @return {@code true} while adaptive buckets are still learned.
+   */
+  boolean isWarmingUp() {
+    return adaptiveBuckets != null && adaptiveBuckets.getBuckets() == null;
+  }
+
+  /**
+   * Use {@code buckets} if this histogram learns its buckets and they are not frozen yet.
+   */
+  void adoptBuckets(double[] buckets) {
+    if (adaptiveBuckets != null) {
+      adaptiveBuckets.adopt(buckets);
+    }
   }
 }
\ No newline at end of file
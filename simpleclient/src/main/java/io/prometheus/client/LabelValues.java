@@ -0,0 +1,124 @@
+package io.prometheus.client;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.WeakHashMap;
+
+/**
+ * An immutable list of label values with a cached hash code.
+ * <p>
+ * This is the key of {@link SimpleCollector#children}, and the label values of the samples of each child,
+ * so a scrape doesn't copy them. The values are interned in a global pool when a child is created, so that
+ * values like {@code GET} or {@code 200} are stored once, no matter how many children use them. The pool holds
+ * the values weakly, so values of removed children can be garbage collected.
+ * <p>
+ * Lookups don't need a LabelValues: any {@link List} with the same values is equal and has the same hash code.
+ */
+final class LabelValues extends AbstractList<String> implements RandomAccess {
+
+  private static final Map<String, WeakReference<String>> pool = new WeakHashMap<String, WeakReference<String>>();
+
+  private final String[] values;
+  private final int hash;
+
+  private LabelValues(String[] values) {
+    this.values = values;
+    int h = 1;
+    for (String value : values) {
+      h = 31 * h + value.hashCode();
+    }
+    this.hash = h;
+  }
+
+  /**
+   * @return an immutable copy of {@code values}, with each value interned.
+   */
+  static LabelValues of(List<String> values) {
+    if (values instanceof LabelValues) {
+      return (LabelValues) values;
+    }
+    String[] interned = new String[values.size()];
+    synchronized (pool) {
+      for (int i = 0; i < interned.length; i++) {
+        interned[i] = intern(values.get(i));
+      }
+    }
+    return new LabelValues(interned);
+  }
+
+  private static String intern(String value) {
+    WeakReference<String> ref = pool.get(value);
+    String result = ref == null ? null : ref.get();
+    if (result == null) {
+      pool.put(value, new WeakReference<String>(value));
+      result = value;
+    }
+    return result;
+  }
+
+  /**
+   * @return a view of {@code values} followed by {@code value}, for the {@code le} and {@code quantile} labels.
+   */
+  static List<String> append(List<String> values, String value) {
+    return new Appended(values, value);
+  }
+
+  @Override
+  public String get(int index) {
+    return values[index];
+  }
+
+  @Override
+  public int size() {
+    return values.length;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+    if (o instanceof LabelValues) {
+      LabelValues other = (LabelValues) o;
+      if (other.hash != hash || other.values.length != values.length) {
+        return false;
+      }
+      for (int i = 0; i < values.length; i++) {
+        // Interned values are usually identical, equals() checks that first.
+        if (!values[i].equals(other.values[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return super.equals(o);
+  }
+
+  private static class Appended extends AbstractList<String> implements RandomAccess {
+    private final List<String> values;
+    private final String last;
+
+    Appended(List<String> values, String last) {
+      this.values = values;
+      this.last = last;
+    }
+
+    @Override
+    public String get(int index) {
+      return index == values.size() ? last : values.get(index);
+    }
+
+    @Override
+    public int size() {
+      return values.size() + 1;
+    }
+  }
+}
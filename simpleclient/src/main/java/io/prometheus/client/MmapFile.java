@@ -0,0 +1,189 @@
+package io.prometheus.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A memory mapped file of metric values, written by a single process and read by {@link MultiprocessCollector}.
+ * <p>
+ * The file starts with an 8 byte header holding the number of bytes in use. It is followed by entries of
+ * <pre>
+ *   int key length | key | padding to 8 bytes | double value
+ * </pre>
+ * Each value has a fixed offset for the lifetime of the file, so updating it is a single 8 byte aligned write
+ * to the mapping. The header is written after an entry is complete, so readers never see partial entries.
+ * When the file is full its size is doubled and the new region is mapped. Values that were allocated earlier
+ * keep using the old mapping, which stays valid because the file only grows.
+ */
+class MmapFile {
+
+  private static final int INITIAL_SIZE = 64 * 1024;
+  private static final int HEADER_SIZE = 8;
+
+  private final FileChannel channel;
+  private final Map<ByteBuffer, MmapValue> values = new HashMap<ByteBuffer, MmapValue>();
+  private MappedByteBuffer buffer;
+  private int used;
+
+  MmapFile(File file) throws IOException {
+    channel = new RandomAccessFile(file, "rw").getChannel();
+    long size = Math.max(channel.size(), INITIAL_SIZE);
+    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    used = buffer.getInt(0);
+    if (used == 0) {
+      used = HEADER_SIZE;
+      buffer.putInt(0, used);
+    } else {
+      // Reuse the values of a previous process with the same id, so that counters continue where they left off.
+      for (Entry entry : read(buffer, used)) {
+        values.put(ByteBuffer.wrap(entry.key), new MmapValue(buffer, entry.valueOffset));
+      }
+    }
+  }
+
+  /**
+   * Return the value for {@code key}, allocating it if needed.
+   */
+  synchronized MmapValue value(byte[] key) throws IOException {
+    ByteBuffer mapKey = ByteBuffer.wrap(key);
+    MmapValue value = values.get(mapKey);
+    if (value != null) {
+      return value;
+    }
+    int valueOffset = align(used + 4 + key.length);
+    int end = valueOffset + 8;
+    if (end > buffer.capacity()) {
+      long size = buffer.capacity();
+      while (end > size) {
+        size *= 2;
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+    buffer.putInt(used, key.length);
+    for (int i = 0; i < key.length; i++) {
+      buffer.put(used + 4 + i, key[i]);
+    }
+    buffer.putDouble(valueOffset, 0);
+    used = end;
+    buffer.putInt(0, used);
+    value = new MmapValue(buffer, valueOffset);
+    values.put(mapKey, value);
+    return value;
+  }
+
+  private static int align(int offset) {
+    return (offset + 7) & ~7;
+  }
+
+  static class Entry {
+    final byte[] key;
+    final int valueOffset;
+    final double value;
+
+    Entry(byte[] key, int valueOffset, double value) {
+      this.key = key;
+      this.valueOffset = valueOffset;
+      this.value = value;
+    }
+  }
+
+  /**
+   * Read all entries of a file, which may be concurrently written by another process.
+   */
+  static List<Entry> read(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      byte[] bytes = new byte[(int) raf.length()];
+      raf.readFully(bytes);
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      return read(buffer, bytes.length < HEADER_SIZE ? 0 : buffer.getInt(0));
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static List<Entry> read(ByteBuffer buffer, int used) {
+    List<Entry> entries = new ArrayList<Entry>();
+    used = Math.min(used, buffer.capacity());
+    int pos = HEADER_SIZE;
+    while (pos + 4 <= used) {
+      int keyLength = buffer.getInt(pos);
+      int valueOffset = align(pos + 4 + keyLength);
+      if (keyLength <= 0 || valueOffset + 8 > used) {
+        break;
+      }
+      byte[] key = new byte[keyLength];
+      for (int i = 0; i < keyLength; i++) {
+        key[i] = buffer.get(pos + 4 + i);
+      }
+      entries.add(new Entry(key, valueOffset, buffer.getDouble(valueOffset)));
+      pos = valueOffset + 8;
+    }
+    return entries;
+  }
+
+  /**
+   * Encode the key of a sample.
+   */
+  static byte[] encodeKey(String metricName, String help, String sampleName, List<String> labelNames, List<String> labelValues) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeUTF(metricName);
+      out.writeUTF(help);
+      out.writeUTF(sampleName);
+      out.writeInt(labelNames.size());
+      for (int i = 0; i < labelNames.size(); i++) {
+        out.writeUTF(labelNames.get(i));
+        out.writeUTF(labelValues.get(i));
+      }
+      out.close();
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new RuntimeException(e);  // Unreachable.
+    }
+  }
+
+  static class Key {
+    final String metricName;
+    final String help;
+    final String sampleName;
+    final List<String> labelNames;
+    final List<String> labelValues;
+
+    Key(String metricName, String help, String sampleName, List<String> labelNames, List<String> labelValues) {
+      this.metricName = metricName;
+      this.help = help;
+      this.sampleName = sampleName;
+      this.labelNames = labelNames;
+      this.labelValues = labelValues;
+    }
+  }
+
+  static Key decodeKey(byte[] key) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(key));
+    String metricName = in.readUTF();
+    String help = in.readUTF();
+    String sampleName = in.readUTF();
+    int n = in.readInt();
+    List<String> labelNames = new ArrayList<String>(n);
+    List<String> labelValues = new ArrayList<String>(n);
+    for (int i = 0; i < n; i++) {
+      labelNames.add(in.readUTF());
+      labelValues.add(in.readUTF());
+    }
+    return new Key(metricName, help, sampleName, labelNames, labelValues);
+  }
+}
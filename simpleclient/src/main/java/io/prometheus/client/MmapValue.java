@@ -0,0 +1,49 @@
+package io.prometheus.client;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link DoubleAdder} backed by a fixed slot in a {@link MmapFile}.
+ * <p>
+ * Only the owning process writes the file, so updates only need to be atomic with respect to other threads
+ * of this process. They are serialized on this value, so threads updating different children don't contend.
+ */
+class MmapValue extends DoubleAdder {
+
+  private static final long serialVersionUID = 1L;
+
+  private final ByteBuffer buffer;
+  private final int offset;
+
+  MmapValue(ByteBuffer buffer, int offset) {
+    this.buffer = buffer;
+    this.offset = offset;
+  }
+
+  @Override
+  public synchronized void add(double x) {
+    buffer.putDouble(offset, buffer.getDouble(offset) + x);
+  }
+
+  @Override
+  public synchronized double sum() {
+    return buffer.getDouble(offset);
+  }
+
+  @Override
+  public synchronized void reset() {
+    buffer.putDouble(offset, 0);
+  }
+
+  @Override
+  public synchronized void set(double x) {
+    buffer.putDouble(offset, x);
+  }
+
+  @Override
+  public synchronized double sumThenReset() {
+    double sum = buffer.getDouble(offset);
+    buffer.putDouble(offset, 0);
+    return sum;
+  }
+}
@@ -0,0 +1,209 @@
+package io.prometheus.client;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the metrics that all processes wrote with a {@link MultiprocessStorage} to a directory.
+ * <p>
+ * Counters and Histograms are summed over all processes. Gauges are merged as configured by their
+ * {@link MultiprocessStorage.GaugeMode}.
+ * <p>
+ * Register this collector with a registry that doesn't also contain the metrics of this process, otherwise they
+ * are exported twice.
+ */
+public class MultiprocessCollector extends Collector {
+
+  private final File directory;
+
+  public MultiprocessCollector(File directory) {
+    this.directory = directory;
+  }
+
+  private static class Family {
+    final String name;
+    final Type type;
+    final String help;
+    // Key is the sample name followed by the label names and values.
+    final Map<List<String>, Double> values = new LinkedHashMap<List<String>, Double>();
+
+    Family(String name, Type type, String help) {
+      this.name = name;
+      this.type = type;
+      this.help = help;
+    }
+  }
+
+  @Override
+  public List<MetricFamilySamples> collect() {
+    File[] files = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(".db");
+      }
+    });
+    if (files == null) {
+      return Collections.emptyList();
+    }
+    Arrays.sort(files);
+    Map<String, Family> families = new TreeMap<String, Family>();
+    for (File file : files) {
+      try {
+        collectFile(file, families);
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to read " + file, e);
+      }
+    }
+    List<MetricFamilySamples> result = new ArrayList<MetricFamilySamples>(families.size());
+    for (Family family : families.values()) {
+      List<MetricFamilySamples.Sample> samples = family.type == Type.HISTOGRAM
+          ? histogramSamples(family)
+          : samples(family);
+      result.add(new MetricFamilySamples(family.name, family.type, family.help, samples));
+    }
+    return result;
+  }
+
+  private void collectFile(File file, Map<String, Family> families) throws IOException {
+    // File names are <type>_<processId>.db, where the type of a gauge contains its mode.
+    String fileName = file.getName();
+    String fileType = fileName.substring(0, fileName.lastIndexOf('_'));
+    String processId = fileName.substring(fileType.length() + 1, fileName.length() - 3);
+    Type type;
+    MultiprocessStorage.GaugeMode mode = null;
+    if (fileType.equals("counter")) {
+      type = Type.COUNTER;
+    } else if (fileType.equals("histogram")) {
+      type = Type.HISTOGRAM;
+    } else {
+      type = Type.GAUGE;
+      for (MultiprocessStorage.GaugeMode m : MultiprocessStorage.GaugeMode.values()) {
+        if (m.fileType().equals(fileType)) {
+          mode = m;
+        }
+      }
+      if (mode == null) {
+        return; // Not written by MultiprocessStorage.
+      }
+    }
+    for (MmapFile.Entry entry : MmapFile.read(file)) {
+      MmapFile.Key key = MmapFile.decodeKey(entry.key);
+      Family family = families.get(key.metricName);
+      if (family == null) {
+        family = new Family(key.metricName, type, key.help);
+        families.put(key.metricName, family);
+      }
+      List<String> sampleKey = new ArrayList<String>();
+      sampleKey.add(key.sampleName);
+      for (int i = 0; i < key.labelNames.size(); i++) {
+        sampleKey.add(key.labelNames.get(i));
+        sampleKey.add(key.labelValues.get(i));
+      }
+      if (mode == MultiprocessStorage.GaugeMode.ALL || mode == MultiprocessStorage.GaugeMode.LIVE_ALL) {
+        sampleKey.add("pid");
+        sampleKey.add(processId);
+      }
+      Double prev = family.values.get(sampleKey);
+      double value = entry.value;
+      if (prev != null) {
+        if (mode == MultiprocessStorage.GaugeMode.MAX) {
+          value = Math.max(prev, value);
+        } else if (mode == MultiprocessStorage.GaugeMode.MIN) {
+          value = Math.min(prev, value);
+        } else {
+          value += prev;
+        }
+      }
+      family.values.put(sampleKey, value);
+    }
+  }
+
+  private static MetricFamilySamples.Sample sample(List<String> sampleKey, double value) {
+    List<String> labelNames = new ArrayList<String>();
+    List<String> labelValues = new ArrayList<String>();
+    for (int i = 1; i < sampleKey.size(); i += 2) {
+      labelNames.add(sampleKey.get(i));
+      labelValues.add(sampleKey.get(i + 1));
+    }
+    return new MetricFamilySamples.Sample(sampleKey.get(0), labelNames, labelValues, value);
+  }
+
+  private static List<MetricFamilySamples.Sample> samples(Family family) {
+    List<MetricFamilySamples.Sample> samples = new ArrayList<MetricFamilySamples.Sample>(family.values.size());
+    for (Map.Entry<List<String>, Double> e : family.values.entrySet()) {
+      samples.add(sample(e.getKey(), e.getValue()));
+    }
+    return samples;
+  }
+
+  /**
+   * The files contain the count of each bucket and the sum. Accumulate the buckets and add the {@code _count}.
+   */
+  private static List<MetricFamilySamples.Sample> histogramSamples(Family family) {
+    String bucketName = family.name + "_bucket";
+    // Key is the labels without le, value maps le to the count of the bucket.
+    Map<List<String>, Map<Double, Double>> buckets = new LinkedHashMap<List<String>, Map<Double, Double>>();
+    Map<List<String>, Double> sums = new LinkedHashMap<List<String>, Double>();
+    for (Map.Entry<List<String>, Double> e : family.values.entrySet()) {
+      List<String> sampleKey = e.getKey();
+      List<String> labels = new ArrayList<String>();
+      String le = null;
+      for (int i = 1; i < sampleKey.size(); i += 2) {
+        if (sampleKey.get(0).equals(bucketName) && sampleKey.get(i).equals("le")) {
+          le = sampleKey.get(i + 1);
+        } else {
+          labels.add(sampleKey.get(i));
+          labels.add(sampleKey.get(i + 1));
+        }
+      }
+      if (le != null) {
+        Map<Double, Double> bucketCounts = buckets.get(labels);
+        if (bucketCounts == null) {
+          bucketCounts = new TreeMap<Double, Double>();
+          buckets.put(labels, bucketCounts);
+        }
+        bucketCounts.put(parseLe(le), e.getValue());
+      } else {
+        sums.put(labels, e.getValue());
+      }
+    }
+    List<MetricFamilySamples.Sample> samples = new ArrayList<MetricFamilySamples.Sample>();
+    for (Map.Entry<List<String>, Map<Double, Double>> e : buckets.entrySet()) {
+      double acc = 0;
+      for (Map.Entry<Double, Double> bucket : e.getValue().entrySet()) {
+        acc += bucket.getValue();
+        List<String> sampleKey = new ArrayList<String>();
+        sampleKey.add(bucketName);
+        sampleKey.addAll(e.getKey());
+        sampleKey.add("le");
+        sampleKey.add(doubleToGoString(bucket.getKey()));
+        samples.add(sample(sampleKey, acc));
+      }
+      List<String> countKey = new ArrayList<String>();
+      countKey.add(family.name + "_count");
+      countKey.addAll(e.getKey());
+      samples.add(sample(countKey, acc));
+      Double sum = sums.get(e.getKey());
+      List<String> sumKey = new ArrayList<String>();
+      sumKey.add(family.name + "_sum");
+      sumKey.addAll(e.getKey());
+      samples.add(sample(sumKey, sum == null ? 0 : sum));
+    }
+    return samples;
+  }
+
+  private static double parseLe(String le) {
+    if (le.equals("+Inf")) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return Double.parseDouble(le);
+  }
+}
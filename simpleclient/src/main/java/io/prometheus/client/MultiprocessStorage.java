@@ -0,0 +1,147 @@
+package io.prometheus.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Stores the values of {@link Counter}, {@link Gauge} and {@link Histogram} children in memory mapped files,
+ * so that metrics of several processes can be exported together.
+ * <p>
+ * This is for applications that run several worker processes behind one endpoint, where each process only
+ * sees part of the traffic. Each process writes its own files in a shared directory, and the exporting process
+ * reads all of them with a {@link MultiprocessCollector}:
+ * <pre>
+ * {@code
+ *   // In every worker process.
+ *   MultiprocessStorage storage = new MultiprocessStorage(new File("/run/metrics"));
+ *   Counter requests = Counter.build()
+ *       .name("requests_total").help("Total requests.")
+ *       .multiprocess(storage)
+ *       .register();
+ *
+ *   // In the process that serves /metrics.
+ *   CollectorRegistry registry = new CollectorRegistry();
+ *   new MultiprocessCollector(new File("/run/metrics")).register(registry);
+ * }
+ * </pre>
+ * Each value occupies a fixed slot of its file, so an update is a write to memory without a syscall. Updates
+ * of a value are synchronized, so they are slower than those of a Counter or Gauge kept only in memory, in
+ * particular under contention. The directory should be emptied when the application starts. Values of children that are
+ * removed with {@link SimpleCollector#remove} or {@link SimpleCollector#clear} stay in the files.
+ * <p>
+ * Summaries, exemplars and {@code _created} timestamps are not supported. Histograms with
+ * {@link Histogram.Builder#consistentSnapshots() consistent snapshots} are not supported.
+ */
+public class MultiprocessStorage {
+
+  /**
+   * How the values of a Gauge from different processes are merged.
+   */
+  public enum GaugeMode {
+    /** Export the value of each process, with a {@code pid} label. */
+    ALL,
+    /** Like {@link #ALL}, but only for processes that are alive. */
+    LIVE_ALL,
+    /** Export the sum of all processes. */
+    SUM,
+    /** Export the sum of the processes that are alive. */
+    LIVE_SUM,
+    /** Export the maximum of all processes. */
+    MAX,
+    /** Export the minimum of all processes. */
+    MIN;
+
+    String fileType() {
+      return "gauge_" + name().toLowerCase(Locale.ROOT).replace("_", "");
+    }
+
+    boolean isLive() {
+      return this == LIVE_ALL || this == LIVE_SUM;
+    }
+  }
+
+  private final File directory;
+  private final String processId;
+  private final Map<String, MmapFile> files = new HashMap<String, MmapFile>();
+
+  /**
+   * Store values in {@code directory}, identifying this process by its pid.
+   */
+  public MultiprocessStorage(File directory) {
+    this(directory, currentProcessId());
+  }
+
+  /**
+   * Store values in {@code directory}, identifying this process by {@code processId}.
+   * <p>
+   * The process id is exported as the {@code pid} label of Gauges in mode {@link GaugeMode#ALL} or
+   * {@link GaugeMode#LIVE_ALL}. It must be unique among the processes writing to {@code directory}.
+   */
+  public MultiprocessStorage(File directory, String processId) {
+    if (!directory.isDirectory()) {
+      throw new IllegalArgumentException(directory + " is not a directory.");
+    }
+    if (processId.isEmpty() || processId.contains("_") || processId.contains(File.separator)) {
+      throw new IllegalArgumentException("Invalid process id: " + processId);
+    }
+    this.directory = directory;
+    this.processId = processId;
+  }
+
+  private static String currentProcessId() {
+    // The name is "pid@hostname" on all common JVMs.
+    String name = ManagementFactory.getRuntimeMXBean().getName();
+    int at = name.indexOf('@');
+    return at > 0 ? name.substring(0, at) : name;
+  }
+
+  /**
+   * Remove the files of Gauges in mode {@link GaugeMode#LIVE_ALL} or {@link GaugeMode#LIVE_SUM} of a process
+   * that has exited.
+   * <p>
+   * This should be called by whatever supervises the worker processes.
+   */
+  public static void markProcessDead(File directory, String processId) {
+    for (GaugeMode mode : GaugeMode.values()) {
+      if (mode.isLive()) {
+        File file = new File(directory, fileName(mode.fileType(), processId));
+        if (file.exists() && !file.delete()) {
+          throw new RuntimeException("Failed to delete " + file);
+        }
+      }
+    }
+  }
+
+  static String fileName(String fileType, String processId) {
+    return fileType + "_" + processId + ".db";
+  }
+
+  /**
+   * Allocate the value of a sample.
+   *
+   * @param fileType {@code counter}, {@code histogram} or {@link GaugeMode#fileType()}
+   */
+  DoubleAdder newValue(String fileType, String metricName, String help, String sampleName,
+                       List<String> labelNames, List<String> labelValues) {
+    byte[] key = MmapFile.encodeKey(metricName, help, sampleName, labelNames, labelValues);
+    try {
+      return getFile(fileType).value(key);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private synchronized MmapFile getFile(String fileType) throws IOException {
+    MmapFile file = files.get(fileType);
+    if (file == null) {
+      file = new MmapFile(new File(directory, fileName(fileType, processId)));
+      files.put(fileType, file);
+    }
+    return file;
+  }
+}
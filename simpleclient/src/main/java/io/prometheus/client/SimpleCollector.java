@@ -1,10 +1,17 @@
 package io.prometheus.client;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Predicate;
 
 /**
  * Common functionality for {@link Gauge}, {@link Counter}, {@link Summary} and {@link Histogram}.
@@ -30,7 +37,8 @@ import java.util.List;
  * {@link Gauge}, {@link Counter} and {@link Summary} all offer convenience methods to avoid needing to call
  * {@link #labels} for metrics with no labels.
  * <p>
- * {@link #remove} and {@link #clear} can be used to remove children.
+ * {@link #remove}, {@link #removeMatching}, {@link #removeIf} and {@link #clear} can be used to remove children.
+ * Code that caches children can be notified of that with {@link #addRemovalListener}.
  * <p>
  * <em>Warning #1:</em> Metrics that don't always export something are difficult to monitor, if you know in advance
  * what labels will be in use you should initialise them be calling {@link #labels}.
@@ -51,9 +59,49 @@ public abstract class SimpleCollector<Child> extends Collector {
   protected final String help;
   protected final String unit;
   protected final List<String> labelNames;
+  // Number of label values passed to labels(), remove() and setChild(). This is more than
+  // labelNames.size() if a View dropped labels.
+  private final int labelValuesCount;
+  // Indexes of the label values that are kept, or null if a View didn't drop any labels.
+  private final int[] keptLabelValueIndexes;
 
   protected final ConcurrentMap<List<String>, Child> children = new ConcurrentHashMap<List<String>, Child>();
   protected Child noLabelsChild;
+  // Inverted indexes for removeMatching(), or null if no labels are indexed.
+  // Children are added to and removed from children while holding the lock on labelIndexes.
+  private final List<LabelIndex> labelIndexes;
+  // Run after children were removed or replaced.
+  private final List<Runnable> removalListeners = new CopyOnWriteArrayList<Runnable>();
+
+  /**
+   * The keys of the children by the value of one label.
+   */
+  private static class LabelIndex {
+    final int position;
+    final Map<String, Set<List<String>>> keysByValue = new HashMap<String, Set<List<String>>>();
+
+    LabelIndex(int position) {
+      this.position = position;
+    }
+
+    void add(List<String> key) {
+      String value = key.get(position);
+      Set<List<String>> keys = keysByValue.get(value);
+      if (keys == null) {
+        keys = new HashSet<List<String>>();
+        keysByValue.put(value, keys);
+      }
+      keys.add(key);
+    }
+
+    void remove(List<String> key) {
+      String value = key.get(position);
+      Set<List<String>> keys = keysByValue.get(value);
+      if (keys != null && keys.remove(key) && keys.isEmpty()) {
+        keysByValue.remove(value);
+      }
+    }
+  }
 
   /**
    * Return the Child with the given labels, creating it if needed.
@@ -61,7 +109,7 @@ public abstract class SimpleCollector<Child> extends Collector {
    * Must be passed the same number of labels are were passed to {@link #labelNames}.
    */
   public Child labels(String... labelValues) {
-    if (labelValues.length != labelNames.size()) {
+    if (labelValues.length != labelValuesCount) {
       throw new IllegalArgumentException("Incorrect number of labels.");
     }
     for (String label: labelValues) {
@@ -69,13 +117,29 @@ public abstract class SimpleCollector<Child> extends Collector {
         throw new IllegalArgumentException("Label cannot be null.");
       }
     }
-    List<String> key = Arrays.asList(labelValues);
+    return getOrCreateChild(childKey(labelValues));
+  }
+
+  Child getOrCreateChild(List<String> key) {
     Child c = children.get(key);
     if (c != null) {
       return c;
     }
-    Child c2 = newChild();
-    Child tmp = children.putIfAbsent(key, c2);
+    LabelValues labelValues = LabelValues.of(key);
+    Child c2 = newChild(labelValues);
+    Child tmp;
+    if (labelIndexes == null) {
+      tmp = children.putIfAbsent(labelValues, c2);
+    } else {
+      synchronized (labelIndexes) {
+        tmp = children.putIfAbsent(labelValues, c2);
+        if (tmp == null) {
+          for (LabelIndex index : labelIndexes) {
+            index.add(labelValues);
+          }
+        }
+      }
+    }
     return tmp == null ? c2 : tmp;
   }
 
@@ -85,17 +149,130 @@ public abstract class SimpleCollector<Child> extends Collector {
    * Any references to the Child are invalidated.
    */
   public void remove(String... labelValues) {
-    children.remove(Arrays.asList(labelValues));
+    if (removeChild(childKey(labelValues))) {
+      childrenRemoved();
+    }
     initializeNoLabelsChild();
   }
-  
+
+  /**
+   * Run {@code listener} after children were removed by {@link #remove}, {@link #removeMatching},
+   * {@link #removeIf} or {@link #clear}, or replaced by {@link #setChild}.
+   * <p>
+   * This is intended for code that caches children, so it can drop its references to them.
+   * The listener is not told which children were removed.
+   */
+  public void addRemovalListener(Runnable listener) {
+    removalListeners.add(listener);
+  }
+
+  private void childrenRemoved() {
+    for (Runnable listener : removalListeners) {
+      listener.run();
+    }
+  }
+
+  private boolean removeChild(List<String> key) {
+    if (labelIndexes == null) {
+      return children.remove(key) != null;
+    }
+    synchronized (labelIndexes) {
+      if (children.remove(key) == null) {
+        return false;
+      }
+      for (LabelIndex index : labelIndexes) {
+        index.remove(key);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Remove all children whose label {@code labelName} has the value {@code value}.
+   * <p>
+   * If the label is {@link Builder#indexLabels(String...) indexed}, this takes time proportional to the number of
+   * removed children. Otherwise all children are checked. Any references to the removed children are invalidated.
+   *
+   * @return the number of removed children. 0 if the metric has no label {@code labelName}.
+   */
+  public int removeMatching(String labelName, String value) {
+    int position = labelNames.indexOf(labelName);
+    if (position < 0) {
+      return 0;
+    }
+    int removed = removeMatching(position, value);
+    if (removed > 0) {
+      childrenRemoved();
+    }
+    return removed;
+  }
+
+  private int removeMatching(int position, String value) {
+    int removed = 0;
+    if (labelIndexes != null) {
+      synchronized (labelIndexes) {
+        for (LabelIndex index : labelIndexes) {
+          if (index.position == position) {
+            Set<List<String>> keys = index.keysByValue.get(value);
+            if (keys != null) {
+              for (List<String> key : new ArrayList<List<String>>(keys)) {
+                if (removeChild(key)) {
+                  removed++;
+                }
+              }
+            }
+            return removed;
+          }
+        }
+      }
+    }
+    for (List<String> key : children.keySet()) {
+      if (key.get(position).equals(value) && removeChild(key)) {
+        removed++;
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Remove all children for which {@code predicate} returns {@code true}.
+   * <p>
+   * The predicate is called with the label values of each child, in the order of the label names.
+   * Any references to the removed children are invalidated.
+   *
+   * @return the number of removed children.
+   */
+  public int removeIf(Predicate<List<String>> predicate) {
+    int removed = 0;
+    for (List<String> key : children.keySet()) {
+      if (predicate.test(key) && removeChild(key)) {
+        removed++;
+      }
+    }
+    if (removed > 0) {
+      childrenRemoved();
+    }
+    initializeNoLabelsChild();
+    return removed;
+  }
+
   /**
    * Remove all children.
    * <p>
    * Any references to any children are invalidated.
    */
   public void clear() {
-    children.clear();
+    if (labelIndexes == null) {
+      children.clear();
+    } else {
+      synchronized (labelIndexes) {
+        children.clear();
+        for (LabelIndex index : labelIndexes) {
+          index.keysByValue.clear();
+        }
+      }
+    }
+    childrenRemoved();
     initializeNoLabelsChild();
   }
   
@@ -105,7 +282,7 @@ public abstract class SimpleCollector<Child> extends Collector {
   protected void initializeNoLabelsChild() {
     // Initialize metric if it has no labels.
     if (labelNames.size() == 0) {
-      noLabelsChild = labels();
+      noLabelsChild = getOrCreateChild(Collections.<String>emptyList());
     }
   }
 
@@ -133,18 +310,55 @@ public abstract class SimpleCollector<Child> extends Collector {
    * A metric should be either all callbacks, or none.
    */
   public <T extends Collector> T setChild(Child child, String... labelValues) {
-    if (labelValues.length != labelNames.size()) {
+    if (labelValues.length != labelValuesCount) {
       throw new IllegalArgumentException("Incorrect number of labels.");
     }
-    children.put(Arrays.asList(labelValues), child);
+    LabelValues key = LabelValues.of(childKey(labelValues));
+    Child previous;
+    if (labelIndexes == null) {
+      previous = children.put(key, child);
+    } else {
+      synchronized (labelIndexes) {
+        previous = children.put(key, child);
+        if (previous == null) {
+          for (LabelIndex index : labelIndexes) {
+            index.add(key);
+          }
+        }
+      }
+    }
+    if (previous != null) {
+      childrenRemoved();
+    }
     return (T)this;
   }
 
+  /**
+   * The key in {@link #children} for the given label values, without the labels dropped by a {@link View}.
+   */
+  private List<String> childKey(String... labelValues) {
+    if (keptLabelValueIndexes == null) {
+      return Arrays.asList(labelValues);
+    }
+    String[] kept = new String[keptLabelValueIndexes.length];
+    for (int i = 0; i < kept.length; i++) {
+      kept[i] = labelValues[keptLabelValueIndexes[i]];
+    }
+    return Arrays.asList(kept);
+  }
+
   /**
    * Return a new child, workaround for Java generics limitations.
    */
   protected abstract Child newChild();
 
+  /**
+   * Return a new child for the given label values, for metrics whose children need to know their labels.
+   */
+  Child newChild(List<String> labelValues) {
+    return newChild();
+  }
+
   protected List<MetricFamilySamples> familySamplesList(Collector.Type type, List<MetricFamilySamples.Sample> samples) {
     MetricFamilySamples mfs = new MetricFamilySamples(fullname, unit, type, help, samples);
     List<MetricFamilySamples> mfsList = new ArrayList<MetricFamilySamples>(1);
@@ -152,29 +366,68 @@ public abstract class SimpleCollector<Child> extends Collector {
     return mfsList;
   }
 
+  /**
+   * The info metric of collectors whose values are scaled from a random sample, see
+   * {@link Counter.Builder#sampleRate(double)}.
+   */
+  MetricFamilySamples samplingInfo(double sampleRate) {
+    String name = fullname + "_sampling";
+    MetricFamilySamples.Sample sample = new MetricFamilySamples.Sample(name + "_info",
+        Collections.singletonList("rate"), Collections.singletonList(doubleToGoString(sampleRate)), 1.0);
+    return new MetricFamilySamples(name, Type.INFO, "Probability that an observation of " + fullname + " is sampled.",
+        Collections.singletonList(sample));
+  }
+
+  static double checkSampleRate(double sampleRate) {
+    if (!(sampleRate > 0 && sampleRate <= 1)) {
+      throw new IllegalArgumentException("sampleRate must be > 0 and <= 1, got " + sampleRate);
+    }
+    return sampleRate;
+  }
+
   protected SimpleCollector(Builder b) {
     if (b.name.isEmpty()) throw new IllegalStateException("Name hasn't been set.");
-    String name = b.name;
-    if (!b.subsystem.isEmpty()) {
-      name = b.subsystem + '_' + name;
-    }
-    if (!b.namespace.isEmpty()) {
-      name = b.namespace + '_' + name;
-    }
     unit = b.unit;
-    if (!unit.isEmpty() && !name.endsWith("_" + unit)) {
-      name += "_" + unit;
-    }
-    fullname = name;
+    fullname = b.buildFullname();
     checkMetricName(fullname);
     if (b.help != null && b.help.isEmpty()) throw new IllegalStateException("Help hasn't been set.");
     help = b.help;
-    labelNames = Arrays.asList(b.labelNames);
+    labelValuesCount = b.labelNames.length;
+    if (b.droppedLabelNames.isEmpty()) {
+      labelNames = Arrays.asList(b.labelNames);
+      keptLabelValueIndexes = null;
+    } else {
+      List<String> kept = new ArrayList<String>();
+      List<Integer> keptIndexes = new ArrayList<Integer>();
+      for (int i = 0; i < b.labelNames.length; i++) {
+        if (!b.droppedLabelNames.contains(b.labelNames[i])) {
+          kept.add(b.labelNames[i]);
+          keptIndexes.add(i);
+        }
+      }
+      labelNames = kept;
+      keptLabelValueIndexes = new int[keptIndexes.size()];
+      for (int i = 0; i < keptLabelValueIndexes.length; i++) {
+        keptLabelValueIndexes[i] = keptIndexes.get(i);
+      }
+    }
 
     for (String n: labelNames) {
       checkMetricLabelName(n);
     }
 
+    List<LabelIndex> indexes = new ArrayList<LabelIndex>();
+    for (String n : b.indexedLabelNames) {
+      if (!Arrays.asList(b.labelNames).contains(n)) {
+        throw new IllegalStateException("Indexed label " + n + " is not a label of " + fullname + ".");
+      }
+      int position = labelNames.indexOf(n);
+      if (position >= 0) { // else dropped by a View
+        indexes.add(new LabelIndex(position));
+      }
+    }
+    labelIndexes = indexes.isEmpty() ? null : indexes;
+
     if (!b.dontInitializeNoLabelsChild) {
       initializeNoLabelsChild();
     }
@@ -191,9 +444,49 @@ public abstract class SimpleCollector<Child> extends Collector {
     String unit = "";
     String help = "";
     String[] labelNames = new String[]{};
+    // Labels dropped by a View.
+    Set<String> droppedLabelNames = Collections.emptySet();
+    // Set by metrics that support it, null means in-memory storage.
+    MultiprocessStorage multiprocessStorage;
+    String[] indexedLabelNames = new String[]{};
     // Some metrics require additional setup before the initialization can be done.
     boolean dontInitializeNoLabelsChild;
 
+    String buildFullname() {
+      return buildFullname(this.name);
+    }
+
+    String buildFullname(String name) {
+      if (!subsystem.isEmpty()) {
+        name = subsystem + '_' + name;
+      }
+      if (!namespace.isEmpty()) {
+        name = namespace + '_' + name;
+      }
+      if (!unit.isEmpty() && !name.endsWith("_" + unit)) {
+        name += "_" + unit;
+      }
+      return name;
+    }
+
+    /**
+     * The fullname of the created collector, if {@link #create()} changes the name.
+     */
+    String createdFullname() {
+      return buildFullname();
+    }
+
+    /**
+     * Apply a View before the Collector is created. Subclasses with additional View options must call super.
+     */
+    void applyView(View view) {
+      if (view.disabled) {
+        droppedLabelNames = new HashSet<String>(Arrays.asList(labelNames));
+      } else {
+        droppedLabelNames = view.droppedLabelNames;
+      }
+    }
+
     /**
      * Set the name of the metric. Required.
      */
@@ -239,6 +532,20 @@ public abstract class SimpleCollector<Child> extends Collector {
       return (B)this;
     }
 
+    /**
+     * Maintain an inverted index of the children by the values of these labels, so that
+     * {@link SimpleCollector#removeMatching(String, String) removeMatching()} for them takes time proportional
+     * to the number of removed children rather than to the number of all children. Optional.
+     * <p>
+     * This is useful for labels like a tenant id, when children of individual values are removed often.
+     * Creating and removing children of a metric with indexed labels is serialized, looking up existing children
+     * is not affected.
+     */
+    public B indexLabels(String... labelNames) {
+      this.indexedLabelNames = labelNames;
+      return (B)this;
+    }
+
     /**
      * Return the constructed collector.
      * <p>
@@ -255,10 +562,23 @@ public abstract class SimpleCollector<Child> extends Collector {
 
     /**
      * Create and register the Collector with the given registry.
+     * <p>
+     * If a {@link View} for this metric is registered with {@code registry}, it is applied first.
      */
     public C register(CollectorRegistry registry) {
+      String fullname = buildFullname();
+      View view = registry.getView(fullname);
+      String createdFullname = createdFullname();
+      if (view == null && !createdFullname.equals(fullname)) {
+        view = registry.getView(createdFullname);
+      }
+      if (view != null) {
+        applyView(view);
+      }
       C sc = create();
-      registry.register(sc);
+      if (view == null || !view.disabled) {
+        registry.register(sc);
+      }
       return sc;
     }
   }
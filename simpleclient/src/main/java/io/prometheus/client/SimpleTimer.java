@@ -42,7 +42,7 @@ public class SimpleTimer {
 
   static class TimeProvider {
     long nanoTime() {
-      return System.nanoTime();
+      return Clock.getDefaultClock().nanoTime();
     }
   }
 
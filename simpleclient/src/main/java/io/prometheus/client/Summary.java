@@ -360,13 +360,11 @@ public class Summary extends SimpleCollector<Summary.Child> implements Counter.D
   @Override
   public List<MetricFamilySamples> collect() {
     List<MetricFamilySamples.Sample> samples = new ArrayList<MetricFamilySamples.Sample>();
+    List<String> labelNamesWithQuantile = LabelValues.append(labelNames, "quantile");
     for(Map.Entry<List<String>, Child> c: children.entrySet()) {
       Child.Value v = c.getValue().get();
-      List<String> labelNamesWithQuantile = new ArrayList<String>(labelNames);
-      labelNamesWithQuantile.add("quantile");
       for(Map.Entry<Double, Double> q : v.quantiles.entrySet()) {
-        List<String> labelValuesWithQuantile = new ArrayList<String>(c.getKey());
-        labelValuesWithQuantile.add(doubleToGoString(q.getKey()));
+        List<String> labelValuesWithQuantile = LabelValues.append(c.getKey(), doubleToGoString(q.getKey()));
         samples.add(new MetricFamilySamples.Sample(fullname, labelNamesWithQuantile, labelValuesWithQuantile, q.getValue()));
       }
       samples.add(new MetricFamilySamples.Sample(fullname + "_count", labelNames, c.getKey(), v.count));
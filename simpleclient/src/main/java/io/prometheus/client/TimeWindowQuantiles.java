@@ -15,15 +15,22 @@ class TimeWindowQuantiles {
   private int currentBucket;
   private long lastRotateTimestampMillis;
   private final long durationBetweenRotatesMillis;
+  private final Clock clock;
 
   public TimeWindowQuantiles(Quantile[] quantiles, long maxAgeSeconds, int ageBuckets) {
+    this(quantiles, maxAgeSeconds, ageBuckets, Clock.getDefaultClock());
+  }
+
+  // Visible for testing.
+  TimeWindowQuantiles(Quantile[] quantiles, long maxAgeSeconds, int ageBuckets, Clock clock) {
     this.quantiles = quantiles;
+    this.clock = clock;
     this.ringBuffer = new CKMSQuantiles[ageBuckets];
     for (int i = 0; i < ageBuckets; i++) {
       this.ringBuffer[i] = new CKMSQuantiles(quantiles);
     }
     this.currentBucket = 0;
-    this.lastRotateTimestampMillis = System.currentTimeMillis();
+    this.lastRotateTimestampMillis = clock.currentTimeMillis();
     this.durationBetweenRotatesMillis = TimeUnit.SECONDS.toMillis(maxAgeSeconds) / ageBuckets;
   }
 
@@ -40,7 +47,7 @@ class TimeWindowQuantiles {
   }
 
   private CKMSQuantiles rotate() {
-    long timeSinceLastRotateMillis = System.currentTimeMillis() - lastRotateTimestampMillis;
+    long timeSinceLastRotateMillis = clock.currentTimeMillis() - lastRotateTimestampMillis;
     while (timeSinceLastRotateMillis > durationBetweenRotatesMillis) {
       ringBuffer[currentBucket] = new CKMSQuantiles(quantiles);
       if (++currentBucket >= ringBuffer.length) {
@@ -0,0 +1,105 @@
+package io.prometheus.client;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A View changes how a metric is recorded, without changing the code that instruments it.
+ * <p>
+ * This is useful for third-party instrumentation that creates more time series than you need.
+ * Views are registered with a {@link CollectorRegistry} and applied when a {@link Counter}, {@link Gauge},
+ * {@link Summary}, {@link Histogram}, {@link Info} or {@link Enumeration} is registered through its
+ * builder's {@link SimpleCollector.Builder#register(CollectorRegistry) register()} method:
+ * <pre>
+ * {@code
+ *   CollectorRegistry.defaultRegistry.registerView(View.build("http_request_duration_seconds")
+ *       .dropLabels("path")
+ *       .buckets(0.01, 0.1, 1, 10)
+ *       .create());
+ *   CollectorRegistry.defaultRegistry.registerView(View.build("method_timing").disable().create());
+ * }
+ * </pre>
+ * A View can
+ * <ul>
+ *   <li>drop label dimensions: observations that only differ in dropped labels are recorded in the same child.
+ *       For Counters, Summaries and Histograms this aggregates the values. For Gauges the last update wins.</li>
+ *   <li>override the buckets of a Histogram.</li>
+ *   <li>disable a metric: all labels are dropped, and the metric is not registered.</li>
+ * </ul>
+ * Views are applied to the label values before children are looked up, so dropped dimensions never create
+ * children. Collectors created with {@link SimpleCollector.Builder#create() create()} and registered afterwards
+ * are not affected, and neither are Views registered after the metric.
+ */
+public class View {
+
+  final String name;
+  final Set<String> droppedLabelNames;
+  final double[] buckets; // null means no override
+  final boolean disabled;
+
+  private View(Builder b) {
+    this.name = b.name;
+    this.droppedLabelNames = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(b.droppedLabelNames)));
+    this.buckets = b.buckets;
+    this.disabled = b.disabled;
+  }
+
+  /**
+   * Return a Builder for a View of the metric {@code name}.
+   *
+   * @param name the full name of the metric, including namespace and subsystem.
+   *             For Counters this is the name without the {@code _total} suffix.
+   */
+  public static Builder build(String name) {
+    return new Builder(name);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public static class Builder {
+
+    private final String name;
+    private String[] droppedLabelNames = new String[]{};
+    private double[] buckets = null;
+    private boolean disabled = false;
+
+    private Builder(String name) {
+      if (name == null) {
+        throw new NullPointerException();
+      }
+      this.name = name;
+    }
+
+    /**
+     * Labels to drop. Label names the metric doesn't have are ignored.
+     */
+    public Builder dropLabels(String... labelNames) {
+      this.droppedLabelNames = labelNames;
+      return this;
+    }
+
+    /**
+     * Override the buckets of a Histogram. Ignored for other metric types.
+     */
+    public Builder buckets(double... buckets) {
+      this.buckets = buckets;
+      return this;
+    }
+
+    /**
+     * Don't register the metric at all. All labels are dropped so that it uses as little memory as possible.
+     */
+    public Builder disable() {
+      this.disabled = true;
+      return this;
+    }
+
+    public View create() {
+      return new View(this);
+    }
+  }
+}
@@ -0,0 +1,357 @@
+package io.prometheus.client;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Histogram of the observations of the last few minutes, exposed as a gauge histogram.
+ * <p>
+ * A {@link Histogram} counts all observations since the process started, so the Prometheus server computes
+ * recent distributions with {@code rate()}. Backends that only receive pushed values and can't compute rates
+ * can use a WindowedHistogram instead: its {@code _bucket}, {@code _gcount} and {@code _gsum} values only include
+ * observations of the sliding time window.
+ * <pre>
+ * {@code
+ *   class YourClass {
+ *     static final WindowedHistogram requestLatency = WindowedHistogram.build()
+ *         .name("recent_requests_latency_seconds").help("Request latency of the last minute in seconds.")
+ *         .maxAgeSeconds(60).ageBuckets(6)
+ *         .register();
+ *
+ *     void processRequest(Request req) {
+ *        WindowedHistogram.Timer requestTimer = requestLatency.startTimer();
+ *        try {
+ *          // Your code here.
+ *        } finally {
+ *          requestTimer.observeDuration();
+ *        }
+ *     }
+ *   }
+ * }
+ * </pre>
+ * Like the quantiles of a {@link Summary}, the window is a ring of {@code ageBuckets} bucket arrays, each covering
+ * {@code maxAgeSeconds / ageBuckets}. The oldest one is replaced when time moves on, so the window covers between
+ * {@code maxAgeSeconds - maxAgeSeconds / ageBuckets} and {@code maxAgeSeconds}. Rotation is lock-free: the first
+ * observation of a new period swaps in a fresh bucket array with a compare-and-set.
+ */
+public class WindowedHistogram extends SimpleCollector<WindowedHistogram.Child> implements Collector.Describable {
+
+  private final double[] buckets;
+  private final long periodMillis;
+  private final int ageBuckets;
+  private final Clock clock;
+
+  WindowedHistogram(Builder b) {
+    super(b);
+    buckets = b.buckets;
+    ageBuckets = b.ageBuckets;
+    periodMillis = Math.max(1, TimeUnit.SECONDS.toMillis(b.maxAgeSeconds) / b.ageBuckets);
+    clock = Clock.getDefaultClock();
+    initializeNoLabelsChild();
+  }
+
+  public static class Builder extends SimpleCollector.Builder<Builder, WindowedHistogram> {
+
+    private double[] buckets = new double[] { .005, .01, .025, .05, .075, .1, .25, .5, .75, 1, 2.5, 5, 7.5, 10 };
+    private long maxAgeSeconds = 60;
+    private int ageBuckets = 6;
+
+    @Override
+    public WindowedHistogram create() {
+      for (int i = 0; i < buckets.length - 1; i++) {
+        if (buckets[i] >= buckets[i + 1]) {
+          throw new IllegalStateException("Histogram buckets must be in increasing order: "
+              + buckets[i] + " >= " + buckets[i + 1]);
+        }
+      }
+      if (buckets.length == 0) {
+        throw new IllegalStateException("Histogram must have at least one bucket.");
+      }
+      for (String label : labelNames) {
+        if (label.equals("le")) {
+          throw new IllegalStateException("Histogram cannot have a label named 'le'.");
+        }
+      }
+
+      // Append infinity bucket if it's not already there.
+      if (buckets[buckets.length - 1] != Double.POSITIVE_INFINITY) {
+        double[] tmp = new double[buckets.length + 1];
+        System.arraycopy(buckets, 0, tmp, 0, buckets.length);
+        tmp[buckets.length] = Double.POSITIVE_INFINITY;
+        buckets = tmp;
+      }
+      dontInitializeNoLabelsChild = true;
+      return new WindowedHistogram(this);
+    }
+
+    /**
+     * Set the upper bounds of buckets for the histogram.
+     */
+    public Builder buckets(double... buckets) {
+      this.buckets = buckets;
+      return this;
+    }
+
+    /**
+     * Set the upper bounds of buckets for the histogram with a linear sequence.
+     */
+    public Builder linearBuckets(double start, double width, int count) {
+      buckets = new double[count];
+      for (int i = 0; i < count; i++) {
+        buckets[i] = start + i * width;
+      }
+      return this;
+    }
+
+    /**
+     * Set the upper bounds of buckets for the histogram with an exponential sequence.
+     */
+    public Builder exponentialBuckets(double start, double factor, int count) {
+      buckets = new double[count];
+      for (int i = 0; i < count; i++) {
+        buckets[i] = start * Math.pow(factor, i);
+      }
+      return this;
+    }
+
+    /**
+     * Set the duration of the time window, i.e. how long observations are kept. Default is 60 seconds.
+     */
+    public Builder maxAgeSeconds(long maxAgeSeconds) {
+      if (maxAgeSeconds <= 0) {
+        throw new IllegalArgumentException("maxAgeSeconds cannot be " + maxAgeSeconds);
+      }
+      this.maxAgeSeconds = maxAgeSeconds;
+      return this;
+    }
+
+    /**
+     * Set the number of buckets used to implement the sliding time window. Default is 6.
+     * <p>
+     * More age buckets make the window slide more smoothly, but need more memory.
+     */
+    public Builder ageBuckets(int ageBuckets) {
+      if (ageBuckets <= 0) {
+        throw new IllegalArgumentException("ageBuckets cannot be " + ageBuckets);
+      }
+      this.ageBuckets = ageBuckets;
+      return this;
+    }
+  }
+
+  /**
+   * Return a Builder to allow configuration of a new WindowedHistogram. Ensures required fields are provided.
+   *
+   * @param name The name of the metric
+   * @param help The help string of the metric
+   */
+  public static Builder build(String name, String help) {
+    return new Builder().name(name).help(help);
+  }
+
+  /**
+   * Return a Builder to allow configuration of a new WindowedHistogram.
+   */
+  public static Builder build() {
+    return new Builder();
+  }
+
+  @Override
+  protected Child newChild() {
+    return new Child(buckets, periodMillis, ageBuckets, clock);
+  }
+
+  /**
+   * Represents an event being timed.
+   */
+  public static class Timer implements Closeable {
+    private final Child child;
+    private final long start;
+
+    private Timer(Child child, long start) {
+      this.child = child;
+      this.start = start;
+    }
+
+    /**
+     * Observe the amount of time in seconds since {@link Child#startTimer} was called.
+     *
+     * @return Measured duration in seconds since {@link Child#startTimer} was called.
+     */
+    public double observeDuration() {
+      double elapsed = SimpleTimer.elapsedSecondsFromNanos(start, SimpleTimer.defaultTimeProvider.nanoTime());
+      child.observe(elapsed);
+      return elapsed;
+    }
+
+    /**
+     * Equivalent to calling {@link #observeDuration()}.
+     */
+    @Override
+    public void close() {
+      observeDuration();
+    }
+  }
+
+  /**
+   * The value of a single WindowedHistogram.
+   * <p>
+   * <em>Warning:</em> References to a Child become invalid after using
+   * {@link SimpleCollector#remove} or {@link SimpleCollector#clear}.
+   */
+  public static class Child {
+
+    public static class Value {
+      public final double sum;
+      public final double[] buckets;
+
+      public Value(double sum, double[] buckets) {
+        this.sum = sum;
+        this.buckets = buckets;
+      }
+    }
+
+    /**
+     * The observations of one period. The last element of {@code counts} holds the raw bits of the sum.
+     */
+    private static class Period {
+      final long number;
+      final AtomicLongArray counts;
+
+      Period(long number, int buckets) {
+        this.number = number;
+        this.counts = new AtomicLongArray(buckets + 1);
+      }
+    }
+
+    private final double[] upperBounds;
+    private final long periodMillis;
+    private final Clock clock;
+    private final AtomicReferenceArray<Period> ring;
+
+    private Child(double[] buckets, long periodMillis, int ageBuckets, Clock clock) {
+      this.upperBounds = buckets;
+      this.periodMillis = periodMillis;
+      this.clock = clock;
+      this.ring = new AtomicReferenceArray<Period>(ageBuckets);
+    }
+
+    private Period currentPeriod() {
+      long number = clock.currentTimeMillis() / periodMillis;
+      int index = (int) (number % ring.length());
+      Period period = ring.get(index);
+      while (period == null || period.number < number) {
+        Period next = new Period(number, upperBounds.length);
+        if (ring.compareAndSet(index, period, next)) {
+          return next;
+        }
+        period = ring.get(index);
+      }
+      // If the clock went backwards period.number > number. Keep counting in the newer period.
+      return period;
+    }
+
+    /**
+     * Observe the given amount.
+     */
+    public void observe(double amt) {
+      Period period = currentPeriod();
+      for (int i = 0; i < upperBounds.length; ++i) {
+        // The last bucket is +Inf, so we always increment.
+        if (amt <= upperBounds[i]) {
+          period.counts.incrementAndGet(i);
+          break;
+        }
+      }
+      int sumIndex = upperBounds.length;
+      long prev, next;
+      do {
+        prev = period.counts.get(sumIndex);
+        next = Double.doubleToRawLongBits(Double.longBitsToDouble(prev) + amt);
+      } while (!period.counts.compareAndSet(sumIndex, prev, next));
+    }
+
+    /**
+     * Start a timer to track a duration.
+     * <p>
+     * Call {@link Timer#observeDuration} at the end of what you want to measure the duration of.
+     */
+    public Timer startTimer() {
+      return new Timer(this, SimpleTimer.defaultTimeProvider.nanoTime());
+    }
+
+    /**
+     * Get the value of the WindowedHistogram.
+     * <p>
+     * <em>Warning:</em> The definition of {@link Value} is subject to change.
+     */
+    public Value get() {
+      long current = clock.currentTimeMillis() / periodMillis;
+      long[] counts = new long[upperBounds.length];
+      double sum = 0;
+      for (int i = 0; i < ring.length(); i++) {
+        Period period = ring.get(i);
+        if (period == null || period.number <= current - ring.length() || period.number > current) {
+          continue; // Outside of the window.
+        }
+        for (int j = 0; j < counts.length; j++) {
+          counts[j] += period.counts.get(j);
+        }
+        sum += Double.longBitsToDouble(period.counts.get(upperBounds.length));
+      }
+      double[] buckets = new double[upperBounds.length];
+      double acc = 0;
+      for (int i = 0; i < counts.length; i++) {
+        acc += counts[i];
+        buckets[i] = acc;
+      }
+      return new Value(sum, buckets);
+    }
+  }
+
+  // Convenience methods.
+
+  /**
+   * Observe the given amount on the histogram with no labels.
+   */
+  public void observe(double amt) {
+    noLabelsChild.observe(amt);
+  }
+
+  /**
+   * Start a timer to track a duration on the histogram with no labels.
+   * <p>
+   * Call {@link Timer#observeDuration} at the end of what you want to measure the duration of.
+   */
+  public Timer startTimer() {
+    return noLabelsChild.startTimer();
+  }
+
+  @Override
+  public List<MetricFamilySamples> collect() {
+    List<MetricFamilySamples.Sample> samples = new ArrayList<MetricFamilySamples.Sample>();
+    List<String> labelNamesWithLe = LabelValues.append(labelNames, "le");
+    for (Map.Entry<List<String>, Child> c : children.entrySet()) {
+      Child.Value v = c.getValue().get();
+      for (int i = 0; i < v.buckets.length; ++i) {
+        List<String> labelValuesWithLe = LabelValues.append(c.getKey(), doubleToGoString(buckets[i]));
+        samples.add(new MetricFamilySamples.Sample(fullname + "_bucket", labelNamesWithLe, labelValuesWithLe, v.buckets[i]));
+      }
+      samples.add(new MetricFamilySamples.Sample(fullname + "_gcount", labelNames, c.getKey(), v.buckets[buckets.length - 1]));
+      samples.add(new MetricFamilySamples.Sample(fullname + "_gsum", labelNames, c.getKey(), v.sum));
+    }
+    return familySamplesList(Type.GAUGE_HISTOGRAM, samples);
+  }
+
+  @Override
+  public List<MetricFamilySamples> describe() {
+    return Collections.singletonList(
+        new MetricFamilySamples(fullname, Type.GAUGE_HISTOGRAM, help, Collections.<MetricFamilySamples.Sample>emptyList()));
+  }
+}
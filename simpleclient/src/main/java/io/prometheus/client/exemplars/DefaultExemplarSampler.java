@@ -1,5 +1,6 @@
 package io.prometheus.client.exemplars;
 
+import io.prometheus.client.Clock;
 import io.prometheus.client.exemplars.tracer.common.SpanContextSupplier;
 
 /**
@@ -7,7 +8,7 @@ import io.prometheus.client.exemplars.tracer.common.SpanContextSupplier;
  * <p>
  * Keeps each Exemplar for a minimum of ~7 seconds, then samples a new one.
  */
-public class DefaultExemplarSampler implements ExemplarSampler {
+public class DefaultExemplarSampler implements ExemplarSampler, ExemplarSamplingGate {
 
   private static final String SPAN_ID = "span_id";
   private static final String TRACE_ID = "trace_id";
@@ -16,19 +17,26 @@ public class DefaultExemplarSampler implements ExemplarSampler {
   // Choosing a prime number for the retention interval makes behavior more predictable,
   // because it is unlikely that retention happens at the exact same time as a Prometheus scrape.
   private final long minRetentionIntervalMs = 7109;
-  private final Clock clock;
+  private final Clock clock; // null means the current default from Clock.getDefaultClock() applies
 
   public DefaultExemplarSampler(SpanContextSupplier spanContextSupplier) {
-    this.spanContextSupplier = spanContextSupplier;
-    this.clock = new SystemClock();
+    this(spanContextSupplier, null);
   }
 
-  // for unit tests only
-  DefaultExemplarSampler(SpanContextSupplier spanContextSupplier, Clock clock) {
+  /**
+   * Like {@link #DefaultExemplarSampler(SpanContextSupplier)}, but timestamps are taken from {@code clock}
+   * instead of {@link Clock#getDefaultClock()}.
+   */
+  public DefaultExemplarSampler(SpanContextSupplier spanContextSupplier, Clock clock) {
     this.spanContextSupplier = spanContextSupplier;
     this.clock = clock;
   }
 
+  @Override
+  public boolean isSampleDue(Exemplar previous) {
+    return isSampleDue(previous, currentTimeMillis());
+  }
+
   @Override
   public Exemplar sample(double increment, Exemplar previous) {
     return doSample(increment, previous);
@@ -39,27 +47,28 @@ public class DefaultExemplarSampler implements ExemplarSampler {
     return doSample(value, previous);
   }
 
+  private boolean isSampleDue(Exemplar previous, long timestampMs) {
+    return previous == null || previous.getTimestampMs() == null
+        || timestampMs - previous.getTimestampMs() > minRetentionIntervalMs;
+  }
+
   private Exemplar doSample(double value, Exemplar previous) {
-    long timestampMs = clock.currentTimeMillis();
-    if (previous == null || previous.getTimestampMs() == null
-        || timestampMs - previous.getTimestampMs() > minRetentionIntervalMs) {
-      String spanId = spanContextSupplier.getSpanId();
+    long timestampMs = currentTimeMillis();
+    if (isSampleDue(previous, timestampMs)) {
+      // Without an active span there is no need to look up the span id.
       String traceId = spanContextSupplier.getTraceId();
-      if (traceId != null && spanId != null) {
+      if (traceId == null) {
+        return null;
+      }
+      String spanId = spanContextSupplier.getSpanId();
+      if (spanId != null) {
         return new Exemplar(value, timestampMs, SPAN_ID, spanId, TRACE_ID, traceId);
       }
     }
     return null;
   }
 
-  interface Clock {
-    long currentTimeMillis();
-  }
-
-  static class SystemClock implements Clock {
-    @Override
-    public long currentTimeMillis() {
-      return System.currentTimeMillis();
-    }
+  private long currentTimeMillis() {
+    return clock != null ? clock.currentTimeMillis() : Clock.getDefaultClock().currentTimeMillis();
   }
-}
\ No newline at end of file
+}
@@ -9,24 +9,42 @@ public class ExemplarConfig {
   private static volatile HistogramExemplarSampler histogramExemplarSampler;
   private static volatile CounterExemplarSampler counterExemplarSampler;
 
-  static {
-    ExemplarSampler defaultExemplarSampler = new Tracer().initExemplarSampler();
-    counterExemplarSampler = defaultExemplarSampler;
-    histogramExemplarSampler = defaultExemplarSampler;
-  }
+  // Looking for a tracer loads a number of classes, so this is deferred until a sampler is needed.
+  // Samplers that were set explicitly are not overwritten by the discovered default.
+  private static volatile boolean defaultSamplersInitialized = false;
+  private static boolean histogramExemplarSamplerSet = false; // guarded by ExemplarConfig.class
+  private static boolean counterExemplarSamplerSet = false; // guarded by ExemplarConfig.class
 
   /**
    * Set the default exemplar sampler for Counters.
    */
-  public static void setCounterExemplarSampler(CounterExemplarSampler counterExemplarSampler) {
+  public static synchronized void setCounterExemplarSampler(CounterExemplarSampler counterExemplarSampler) {
     ExemplarConfig.counterExemplarSampler = counterExemplarSampler;
+    counterExemplarSamplerSet = true;
   }
 
   /**
    * Set the default exemplar sampler for Histograms.
    */
-  public static void setHistogramExemplarSampler(HistogramExemplarSampler histogramExemplarSampler) {
+  public static synchronized void setHistogramExemplarSampler(HistogramExemplarSampler histogramExemplarSampler) {
     ExemplarConfig.histogramExemplarSampler = histogramExemplarSampler;
+    histogramExemplarSamplerSet = true;
+  }
+
+  private static synchronized void initDefaultSamplers() {
+    if (defaultSamplersInitialized) {
+      return;
+    }
+    if (!counterExemplarSamplerSet || !histogramExemplarSamplerSet) {
+      ExemplarSampler defaultExemplarSampler = new Tracer().initExemplarSampler();
+      if (!counterExemplarSamplerSet) {
+        counterExemplarSampler = defaultExemplarSampler;
+      }
+      if (!histogramExemplarSamplerSet) {
+        histogramExemplarSampler = defaultExemplarSampler;
+      }
+    }
+    defaultSamplersInitialized = true;
   }
 
   /**
@@ -57,6 +75,9 @@ public class ExemplarConfig {
    * @return the {@link CounterExemplarSampler} that is used by default in {@code Counter} metrics.
    */
   public static CounterExemplarSampler getCounterExemplarSampler() {
+    if (!defaultSamplersInitialized) {
+      initDefaultSamplers();
+    }
     return counterExemplarSampler;
   }
 
@@ -64,6 +85,9 @@ public class ExemplarConfig {
    * @return the {@link HistogramExemplarSampler} that is used by default in {@code Histogram} metrics.
    */
   public static HistogramExemplarSampler getHistogramExemplarSampler() {
+    if (!defaultSamplersInitialized) {
+      initDefaultSamplers();
+    }
     return histogramExemplarSampler;
   }
 
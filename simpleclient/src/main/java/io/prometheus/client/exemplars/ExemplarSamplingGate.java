@@ -0,0 +1,18 @@
+package io.prometheus.client.exemplars;
+
+/**
+ * Optional interface for {@link CounterExemplarSampler} and {@link HistogramExemplarSampler} implementations
+ * that can cheaply decide whether a new exemplar is due.
+ * <p>
+ * Counters and Histograms call {@link #isSampleDue(Exemplar)} for every observation before calling
+ * {@code sample()}. If it returns {@code false} the previous exemplar is kept and {@code sample()} is not called,
+ * so no span context is captured and nothing is allocated.
+ */
+public interface ExemplarSamplingGate {
+
+  /**
+   * @param previous the previously sampled exemplar, or {@code null} if there is none.
+   * @return {@code false} if {@code previous} should be kept without calling {@code sample()}.
+   */
+  boolean isSampleDue(Exemplar previous);
+}
@@ -0,0 +1,192 @@
+package io.prometheus.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CheckpointsTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = new File(tmp.newFolder(), "metrics.checkpoint");
+  }
+
+  private Closeable firstRun() throws IOException {
+    CollectorRegistry registry = new CollectorRegistry();
+    Closeable checkpoints = registry.enableCheckpoints(file, 1, TimeUnit.HOURS);
+    Counter c = Counter.build("requests", "help").labelNames("l").register(registry);
+    c.labels("a").inc(3);
+    Histogram h = Histogram.build("latency", "help").buckets(1, 2).register(registry);
+    h.observe(0.5);
+    h.observe(1.5);
+    Histogram.build("consistent", "help").buckets(1).consistentSnapshots().register(registry).observe(3);
+    return checkpoints;
+  }
+
+  @Test
+  public void testRestore() throws IOException {
+    firstRun().close();
+
+    CollectorRegistry registry = new CollectorRegistry();
+    // Registered before checkpoints are enabled.
+    Counter c = Counter.build("requests", "help").labelNames("l").register(registry);
+    registry.enableCheckpoints(file, 1, TimeUnit.HOURS);
+    Histogram h = Histogram.build("latency", "help").buckets(1, 2).register(registry);
+    Histogram.build("consistent", "help").buckets(1).consistentSnapshots().register(registry);
+
+    c.labels("a").inc();
+    assertEquals(4.0, c.labels("a").get(), .001);
+    h.observe(0.5);
+    assertEquals(2.0, registry.getSampleValue("latency_bucket", new String[]{"le"}, new String[]{"1.0"}), .001);
+    assertEquals(3.0, registry.getSampleValue("latency_bucket", new String[]{"le"}, new String[]{"2.0"}), .001);
+    assertEquals(3.0, registry.getSampleValue("latency_count"), .001);
+    assertEquals(2.5, registry.getSampleValue("latency_sum"), .001);
+    assertEquals(1.0, registry.getSampleValue("consistent_count"), .001);
+    assertEquals(3.0, registry.getSampleValue("consistent_sum"), .001);
+  }
+
+  @Test
+  public void testCreatedIsRestored() throws IOException {
+    CollectorRegistry registry = new CollectorRegistry();
+    Closeable checkpoints = registry.enableCheckpoints(file, 1, TimeUnit.HOURS);
+    Counter.Child child = Counter.build("requests", "help").register(registry).labels();
+    long created = child.created();
+    checkpoints.close();
+
+    registry = new CollectorRegistry();
+    registry.enableCheckpoints(file, 1, TimeUnit.HOURS);
+    Counter.build("requests", "help").register(registry);
+    assertEquals(created / 1000.0, registry.getSampleValue("requests_created"), .001);
+  }
+
+  @Test
+  public void testChangedMetricIsNotRestored() throws IOException {
+    firstRun().close();
+
+    CollectorRegistry registry = new CollectorRegistry();
+    registry.enableCheckpoints(file, 1, TimeUnit.HOURS);
+    Counter.build("requests", "help").labelNames("other").register(registry);
+    Histogram.build("latency", "help").buckets(1, 5).register(registry);
+    assertEquals(null, registry.getSampleValue("requests_total", new String[]{"other"}, new String[]{"a"}));
+    assertEquals(0.0, registry.getSampleValue("latency_count"), .001);
+  }
+
+  @Test
+  public void testUnregisteredMetricsAreKept() throws IOException {
+    firstRun().close();
+
+    // A run that doesn't register the counter must not lose it.
+    CollectorRegistry registry = new CollectorRegistry();
+    registry.enableCheckpoints(file, 1, TimeUnit.HOURS).close();
+
+    registry = new CollectorRegistry();
+    registry.enableCheckpoints(file, 1, TimeUnit.HOURS);
+    Counter c = Counter.build("requests", "help").labelNames("l").register(registry);
+    assertEquals(3.0, c.labels("a").get(), .001);
+  }
+
+  @Test
+  public void testCorruptCheckpointFallsBackToPrevious() throws IOException {
+    Closeable checkpoints = firstRun();
+    checkpoints.close();
+    // Write a second checkpoint, so that the first one is kept as the fallback.
+    new CollectorRegistry().enableCheckpoints(file, 1, TimeUnit.HOURS).close();
+    assertTrue(new File(file.getPath() + ".1").exists());
+    FileOutputStream out = new FileOutputStream(file, true);
+    out.write(42);
+    out.close();
+
+    CollectorRegistry registry = new CollectorRegistry();
+    registry.enableCheckpoints(file, 1, TimeUnit.HOURS);
+    Counter c = Counter.build("requests", "help").labelNames("l").register(registry);
+    assertEquals(3.0, c.labels("a").get(), .001);
+  }
+
+  @Test
+  public void testAdaptiveBucketsAreRestored() throws IOException {
+    CollectorRegistry registry = new CollectorRegistry();
+    Closeable checkpoints = registry.enableCheckpoints(file, 1, TimeUnit.HOURS);
+    Histogram first = Histogram.build("latency", "help").adaptiveBuckets(2, 2).register(registry);
+    first.observe(3);
+    first.observe(4);
+    checkpoints.close();
+
+    registry = new CollectorRegistry();
+    registry.enableCheckpoints(file, 1, TimeUnit.HOURS);
+    Histogram h = Histogram.build("latency", "help").adaptiveBuckets(2, 2).register(registry);
+    h.observe(50);
+    h.observe(60);
+    assertEquals(1.0, registry.getSampleValue("latency_bucket", new String[]{"le"}, new String[]{"3.0"}), .001);
+    assertEquals(4.0, registry.getSampleValue("latency_count"), .001);
+  }
+
+  @Test
+  public void testWarmingUpHistogramsAreNotCheckpointed() throws IOException {
+    CollectorRegistry registry = new CollectorRegistry();
+    Closeable checkpoints = registry.enableCheckpoints(file, 1, TimeUnit.HOURS);
+    Histogram h = Histogram.build("latency", "help").adaptiveBuckets(2, 3).register(registry);
+    h.observe(3);
+    checkpoints.close();
+    assertTrue(Checkpoints.read(file).isEmpty());
+    // Checkpointing did not freeze the buckets.
+    h.observe(4);
+    h.observe(5);
+    assertArrayEquals(new double[]{4, 5, Double.POSITIVE_INFINITY}, h.getBuckets(), 1e-9);
+  }
+
+  @Test
+  public void testMultiprocessMetricsAreNotCheckpointed() throws IOException {
+    File dir = tmp.newFolder();
+    CollectorRegistry registry = new CollectorRegistry();
+    Closeable checkpoints = registry.enableCheckpoints(file, 1, TimeUnit.HOURS);
+    Counter.build("requests", "help").multiprocess(new MultiprocessStorage(dir, "1")).register(registry).inc(3);
+    Histogram.build("latency", "help").buckets(1).multiprocess(new MultiprocessStorage(dir, "2")).register(registry).observe(0.5);
+    checkpoints.close();
+    assertTrue(Checkpoints.read(file).isEmpty());
+
+    // The restarted worker gets its value back from the storage only, not from the checkpoint as well.
+    registry = new CollectorRegistry();
+    new MultiprocessCollector(dir).register(registry);
+    registry.enableCheckpoints(file, 1, TimeUnit.HOURS);
+    Counter c = Counter.build("requests", "help").multiprocess(new MultiprocessStorage(dir, "1")).create();
+    registry.register(c);
+    assertEquals(3.0, c.get(), .001);
+    assertEquals(3.0, registry.getSampleValue("requests_total"), .001);
+  }
+
+  @Test
+  public void testEnableAgainAfterClose() throws IOException {
+    firstRun().close();
+
+    CollectorRegistry registry = new CollectorRegistry();
+    registry.enableCheckpoints(file, 1, TimeUnit.HOURS).close();
+    // Closed checkpoints no longer restore metrics when they are registered.
+    Counter c = Counter.build("requests", "help").labelNames("l").register(registry);
+    assertEquals(0.0, c.labels("a").get(), .001);
+
+    registry.enableCheckpoints(file, 1, TimeUnit.HOURS).close();
+    assertEquals(3.0, c.labels("a").get(), .001);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testEnableTwiceFails() {
+    CollectorRegistry registry = new CollectorRegistry();
+    registry.enableCheckpoints(file, 1, TimeUnit.HOURS);
+    registry.enableCheckpoints(file, 1, TimeUnit.HOURS);
+  }
+}
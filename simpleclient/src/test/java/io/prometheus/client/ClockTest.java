@@ -0,0 +1,59 @@
+package io.prometheus.client;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ClockTest {
+
+  @After
+  public void tearDown() {
+    Clock.setDefaultClock(Clock.systemClock());
+  }
+
+  @Test
+  public void testSystemClockIsDefault() {
+    assertSame(Clock.systemClock(), Clock.getDefaultClock());
+  }
+
+  @Test
+  public void testCoarseClockAdvances() throws InterruptedException {
+    CoarseClock clock = new CoarseClock(1);
+    try {
+      long start = clock.currentTimeMillis();
+      assertTrue(Math.abs(System.currentTimeMillis() - start) < 1000);
+      Thread.sleep(50);
+      assertTrue(clock.currentTimeMillis() > start);
+    } finally {
+      clock.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCoarseClockRejectsZeroResolution() {
+    new CoarseClock(0);
+  }
+
+  @Test
+  public void testDefaultClockIsUsedForExemplarTimestamps() {
+    Clock.setDefaultClock(new Clock() {
+      @Override
+      public long currentTimeMillis() {
+        return 42;
+      }
+    });
+    Histogram histogram = Histogram.build().name("test").help("help").withoutExemplars().create();
+    histogram.observeWithExemplar(1.5, "trace_id", "abc");
+    Histogram.Child.Value value = histogram.labels().get();
+    long timestamp = 0;
+    for (int i = 0; i < value.exemplars.length; i++) {
+      if (value.exemplars[i] != null) {
+        timestamp = value.exemplars[i].getTimestampMs();
+      }
+    }
+    assertEquals(42, timestamp);
+  }
+}
@@ -11,6 +11,7 @@ import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
 
 
 public class CollectorRegistryTest {
@@ -162,6 +163,44 @@ public class CollectorRegistryTest {
     new MyCollector().register(r);
   }
 
+  class CountingCollector extends MyCollector {
+    int collectCallCount = 0;
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+      collectCallCount++;
+      return super.collect();
+    }
+  }
+
+  @Test
+  public void testDeferAutoDescribe() {
+    CollectorRegistry r = new CollectorRegistry(true);
+    r.setDeferAutoDescribe(true);
+    CountingCollector collector = new CountingCollector().register(r);
+    assertEquals(0, collector.collectCallCount);
+    assertEquals(42.0, r.getSampleValue("g"), .001);
+    // One collect() to learn the names, one for the scrape.
+    assertEquals(2, collector.collectCallCount);
+    assertEquals(42.0, r.getSampleValue("g"), .001);
+    assertEquals(3, collector.collectCallCount);
+  }
+
+  @Test
+  public void testDeferAutoDescribeFailsFirstScrapeOnConflict() {
+    CollectorRegistry r = new CollectorRegistry(true);
+    r.setDeferAutoDescribe(true);
+    new MyCollector().register(r);
+    new MyCollector().register(r);
+    try {
+      r.metricFamilySamples();
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException expected) {
+    }
+    // The conflicting collector was dropped.
+    assertEquals(1, Collections.list(r.metricFamilySamples()).size());
+  }
+
   private static class SkippedCollector extends Collector implements Collector.Describable {
     public int collectCallCount = 0;
 
@@ -89,6 +89,25 @@ public class CounterTest {
     assertEquals("foo_total", c.fullname);
   }
 
+  @Test
+  public void testSampleRate() {
+    Counter sampled = Counter.build().name("sampled").help("help").sampleRate(1.0 / 4).register(registry);
+    for (int i = 0; i < 100000; i++) {
+      sampled.inc();
+    }
+    // Every sampled increment counts 4, the estimate is within a few standard deviations (~550).
+    assertEquals(100000.0, registry.getSampleValue("sampled_total"), 3000);
+    assertEquals(0.0, registry.getSampleValue("sampled_total") % 4, .001);
+    assertEquals(1.0, registry.getSampleValue("sampled_sampling_info", new String[]{"rate"}, new String[]{"0.25"}), .001);
+    assertEquals(null, registry.getSampleValue("nolabels_sampling_info", new String[]{"rate"}, new String[]{"1.0"}));
+  }
+
+  @Test
+  public void testSampleRateOutOfRangeThrows() {
+    thrown.expect(IllegalArgumentException.class);
+    Counter.build().sampleRate(0);
+  }
+
   @Test
   public void testCollect() {
     labels.labels("a").inc();
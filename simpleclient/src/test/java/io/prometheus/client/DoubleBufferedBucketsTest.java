@@ -0,0 +1,60 @@
+package io.prometheus.client;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class DoubleBufferedBucketsTest {
+
+  @Test
+  public void testSnapshot() {
+    DoubleBufferedBuckets buckets = new DoubleBufferedBuckets(3);
+    buckets.observe(0, 0.5);
+    buckets.observe(2, 7.0);
+    double[] cumulativeCounts = new double[3];
+    assertEquals(7.5, buckets.snapshot(cumulativeCounts), 0.0);
+    assertArrayEquals(new double[]{1, 1, 2}, cumulativeCounts, 0.0);
+
+    // Values are kept across snapshots.
+    buckets.observe(1, 2.0);
+    assertEquals(9.5, buckets.snapshot(cumulativeCounts), 0.0);
+    assertArrayEquals(new double[]{1, 2, 3}, cumulativeCounts, 0.0);
+    assertEquals(9.5, buckets.snapshot(cumulativeCounts), 0.0);
+    assertArrayEquals(new double[]{1, 2, 3}, cumulativeCounts, 0.0);
+  }
+
+  @Test
+  public void testSnapshotsAreConsistentWithConcurrentObservers() throws InterruptedException {
+    final DoubleBufferedBuckets buckets = new DoubleBufferedBuckets(2);
+    final int nThreads = 4;
+    final int nObservations = 100000;
+    final AtomicBoolean inconsistent = new AtomicBoolean();
+    final CountDownLatch done = new CountDownLatch(nThreads);
+    for (int t = 0; t < nThreads; t++) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < nObservations; i++) {
+            buckets.observe(i % 2, 1.0);
+          }
+          done.countDown();
+        }
+      }).start();
+    }
+    double[] cumulativeCounts = new double[2];
+    while (done.getCount() > 0) {
+      double sum = buckets.snapshot(cumulativeCounts);
+      // Each observation adds 1.0, so the sum must always equal the count.
+      if (sum != cumulativeCounts[1]) {
+        inconsistent.set(true);
+      }
+    }
+    assertEquals(nThreads * nObservations, buckets.snapshot(cumulativeCounts), 0.0);
+    assertEquals(nThreads * nObservations, cumulativeCounts[1], 0.0);
+    assertEquals(false, inconsistent.get());
+  }
+}
@@ -1,6 +1,7 @@
 package io.prometheus.client;
 
 import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import io.prometheus.client.exemplars.Exemplar;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -18,6 +19,7 @@ import java.util.concurrent.Callable;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.rules.ExpectedException.none;
 
@@ -26,6 +28,7 @@ public class HistogramTest {
 
   CollectorRegistry registry;
   Histogram noLabels, labels;
+  long now;
 
   @Rule
   public final ExpectedException thrown = none();
@@ -151,6 +154,123 @@ public class HistogramTest {
     assertArrayEquals(new double[]{2, 5, 12.5, Double.POSITIVE_INFINITY}, h.getBuckets(), .001);
   }
 
+  @Test
+  public void testAdaptiveBuckets() {
+    Histogram h = Histogram.build().name("adaptive").help("help").adaptiveBuckets(4, 100).register(registry);
+    for (int i = 1; i <= 100; i++) {
+      h.observe(i / 10000.0);
+    }
+    assertArrayEquals(new double[]{.0025, .005, .0075, .01, Double.POSITIVE_INFINITY}, h.getBuckets(), 1e-9);
+    // Observations during the warm-up are counted in the learned buckets.
+    h.observe(.006);
+    assertEquals(25.0, registry.getSampleValue("adaptive_bucket", new String[]{"le"}, new String[]{"0.0025"}), .001);
+    assertEquals(76.0, registry.getSampleValue("adaptive_bucket", new String[]{"le"}, new String[]{"0.0075"}), .001);
+    assertEquals(101.0, getCount("adaptive"), .001);
+    assertEquals(.511, getSum("adaptive"), 1e-9);
+  }
+
+  @Test
+  public void testAdaptiveBucketsNotFrozenByRead() {
+    Histogram h = Histogram.build().name("adaptive").help("help").labelNames("l").adaptiveBuckets(2, 4).register(registry);
+    h.labels("a").observe(1.5);
+    h.labels("b").observe(12);
+    // A scrape during the warm-up only sees the +Inf bucket, count and sum.
+    assertEquals(1.0, registry.getSampleValue("adaptive_bucket", new String[]{"l", "le"}, new String[]{"a", "+Inf"}), .001);
+    assertEquals(1.0, registry.getSampleValue("adaptive_count", new String[]{"l"}, new String[]{"b"}), .001);
+    assertEquals(12.0, registry.getSampleValue("adaptive_sum", new String[]{"l"}, new String[]{"b"}), .001);
+    assertNull(registry.getSampleValue("adaptive_bucket", new String[]{"l", "le"}, new String[]{"a", "12.0"}));
+    assertNull(h.getBuckets());
+    h.labels("b").observe(13);
+    h.labels("a").observe(14);
+    // The buckets are learned from all four observations.
+    assertArrayEquals(new double[]{12, 14, Double.POSITIVE_INFINITY}, h.getBuckets(), 1e-9);
+    assertEquals(1.0, registry.getSampleValue("adaptive_bucket", new String[]{"l", "le"}, new String[]{"a", "12.0"}), .001);
+    assertEquals(2.0, registry.getSampleValue("adaptive_bucket", new String[]{"l", "le"}, new String[]{"a", "14.0"}), .001);
+    assertEquals(1.0, registry.getSampleValue("adaptive_bucket", new String[]{"l", "le"}, new String[]{"b", "12.0"}), .001);
+    assertEquals(2.0, registry.getSampleValue("adaptive_count", new String[]{"l"}, new String[]{"b"}), .001);
+  }
+
+  @Test
+  public void testAdaptiveBucketsWithoutFiniteObservationsFallBack() {
+    Histogram h = Histogram.build().name("adaptive").help("help").buckets(1, 2).adaptiveBuckets(4, 2).create();
+    h.observe(Double.NaN);
+    h.observe(Double.POSITIVE_INFINITY);
+    assertArrayEquals(new double[]{1, 2, Double.POSITIVE_INFINITY}, h.getBuckets(), .001);
+  }
+
+  @Test
+  public void testAdaptiveBucketsNarrowDistribution() {
+    double[] sample = new double[]{.000101, .000102, .000103, .000104};
+    assertArrayEquals(new double[]{.000102, .000104, Double.POSITIVE_INFINITY},
+        AdaptiveBuckets.compute(sample, sample.length, 2, null), 1e-12);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testAdaptiveBucketsWithConsistentSnapshotsThrows() {
+    Histogram.build().name("h").help("help").adaptiveBuckets(4, 100).consistentSnapshots().create();
+  }
+
+  @Test
+  public void testExemplarReservoir() {
+    Histogram h = Histogram.build().name("reservoir").help("help").buckets(1).exemplarReservoir(2, 60).create();
+    h.observeWithExemplar(3, "trace_id", "a");
+    h.observeWithExemplar(5, "trace_id", "b");
+    h.observeWithExemplar(4, "trace_id", "c");
+    h.observeWithExemplar(2, "trace_id", "d");
+    h.observeWithExemplar(0.5, "trace_id", "e");
+    Histogram.Child.Value value = h.labels().get();
+    assertEquals("e", value.exemplars[0].getLabelValue(0));
+    assertEquals(5.0, value.exemplars[1].getValue(), .001);
+
+    List<List<Exemplar>> reservoir = h.labels().getReservoirExemplars();
+    assertEquals(1, reservoir.get(0).size());
+    assertEquals(2, reservoir.get(1).size());
+    assertEquals("b", reservoir.get(1).get(0).getLabelValue(0));
+    assertEquals("c", reservoir.get(1).get(1).getLabelValue(0));
+    assertEquals(3, h.collectExemplarReservoir().get(0).samples.size());
+  }
+
+  @Test
+  public void testExemplarReservoirExpires() {
+    Clock.setDefaultClock(new Clock() {
+      @Override
+      public long currentTimeMillis() {
+        return now;
+      }
+    });
+    try {
+      Histogram h = Histogram.build().name("reservoir").help("help").buckets(1).exemplarReservoir(1, 10).create();
+      now = 1000000;
+      h.observeWithExemplar(5, "trace_id", "a");
+      now += 9000;
+      h.observeWithExemplar(2, "trace_id", "b");
+      assertEquals("a", h.labels().get().exemplars[1].getLabelValue(0));
+      now += 2000;
+      assertEquals(null, h.labels().get().exemplars[1]);
+      h.observeWithExemplar(2, "trace_id", "c");
+      assertEquals("c", h.labels().get().exemplars[1].getLabelValue(0));
+    } finally {
+      Clock.setDefaultClock(Clock.systemClock());
+    }
+  }
+
+  @Test
+  public void testSampleRate() {
+    Histogram sampled = Histogram.build().name("sampled").help("help").buckets(1).sampleRate(1.0 / 8).register(registry);
+    for (int i = 0; i < 80000; i++) {
+      sampled.observe(i % 2 == 0 ? 0.5 : 2);
+    }
+    assertEquals(80000.0, getCount("sampled"), 4000);
+    assertEquals(40000.0, getBucket(1, "sampled"), 3000);
+    assertEquals(100000.0, getSum("sampled"), 6000);
+    assertEquals(1.0, registry.getSampleValue("sampled_sampling_info", new String[]{"rate"}, new String[]{"0.125"}), .001);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testSampleRateWithConsistentSnapshotsThrows() {
+    Histogram.build().name("h").help("help").sampleRate(0.5).consistentSnapshots().create();
+  }
+
   @Test
   public void testTimer() {
     SimpleTimer.defaultTimeProvider = new SimpleTimer.TimeProvider() {
@@ -254,6 +374,34 @@ public class HistogramTest {
     assertExemplar(noLabels, 2.0, "key1", "value1", "key2", "value2");
   }
 
+  @Test
+  public void testConsistentSnapshots() {
+    Histogram histogram = Histogram.build().name("consistent").help("help").consistentSnapshots().register(registry);
+    histogram.observe(2);
+    histogram.observe(0.02);
+    histogram.observeWithExemplar(12, "trace_id", "abc");
+    assertEquals(3.0, getCount("consistent"), .001);
+    assertEquals(14.02, getSum("consistent"), .001);
+    assertEquals(0.0, getBucket(0.01, "consistent"), .001);
+    assertEquals(1.0, getBucket(0.025, "consistent"), .001);
+    assertEquals(2.0, getBucket(10, "consistent"), .001);
+    assertEquals(3.0, getBucket(Double.POSITIVE_INFINITY, "consistent"), .001);
+    assertExemplar(histogram, 12, "trace_id", "abc");
+  }
+
+  @Test
+  public void testExemplarsWithoutSampling() {
+    Histogram histogram = Histogram.build().name("test").help("help").withoutExemplars().create();
+    histogram.observe(0.5);
+    Histogram.Child.Value value = histogram.labels().get();
+    assertEquals(value.buckets.length, value.exemplars.length);
+    for (int i = 0; i < value.exemplars.length; i++) {
+      Assert.assertNull(value.exemplars[i]);
+    }
+    histogram.observeWithExemplar(0.5, "trace_id", "abc");
+    assertExemplar(histogram, 0.5, "trace_id", "abc");
+  }
+
   @Test
   public void testTimeWithExemplar() {
     Map<String, String> labels = new HashMap<String, String>();
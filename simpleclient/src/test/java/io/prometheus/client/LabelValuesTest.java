@@ -0,0 +1,56 @@
+package io.prometheus.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class LabelValuesTest {
+
+  @Test
+  public void testEqualsAndHashCodeMatchOtherLists() {
+    List<String> list = new ArrayList<String>(Arrays.asList("a", "b"));
+    LabelValues labelValues = LabelValues.of(list);
+    assertEquals(list, labelValues);
+    assertEquals(labelValues, list);
+    assertEquals(list.hashCode(), labelValues.hashCode());
+    assertEquals(LabelValues.of(Arrays.asList("a", "b")), labelValues);
+    assertTrue(!labelValues.equals(LabelValues.of(Arrays.asList("a", "c"))));
+  }
+
+  @Test
+  public void testValuesAreInterned() {
+    String get1 = new String("GET");
+    String get2 = new String("GET");
+    assertNotSame(get1, get2);
+    assertSame(LabelValues.of(Arrays.asList(get1, "x")).get(0), LabelValues.of(Arrays.asList(get2, "y")).get(0));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testImmutable() {
+    LabelValues.of(Arrays.asList("a")).set(0, "b");
+  }
+
+  @Test
+  public void testAppend() {
+    List<String> appended = LabelValues.append(LabelValues.of(Arrays.asList("a", "b")), "c");
+    assertEquals(Arrays.asList("a", "b", "c"), appended);
+    assertEquals(3, appended.size());
+  }
+
+  @Test
+  public void testChildKeyIsNotAffectedByCallerArray() {
+    CollectorRegistry registry = new CollectorRegistry();
+    Counter counter = Counter.build("c", "help").labelNames("l").register(registry);
+    String[] labelValues = {"a"};
+    counter.labels(labelValues).inc();
+    labelValues[0] = "b";
+    assertEquals(1.0, registry.getSampleValue("c_total", new String[]{"l"}, new String[]{"a"}), .001);
+    assertSame(counter.labels("a"), counter.labels("a"));
+  }
+}
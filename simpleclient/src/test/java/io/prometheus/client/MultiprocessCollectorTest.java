@@ -0,0 +1,120 @@
+package io.prometheus.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MultiprocessCollectorTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  File dir;
+  MultiprocessStorage storage1, storage2;
+  CollectorRegistry registry;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = tmp.newFolder();
+    storage1 = new MultiprocessStorage(dir, "1");
+    storage2 = new MultiprocessStorage(dir, "2");
+    registry = new CollectorRegistry();
+    new MultiprocessCollector(dir).register(registry);
+  }
+
+  @Test
+  public void testCounterIsSummed() {
+    Counter c1 = Counter.build("requests_total", "help").labelNames("l").multiprocess(storage1).create();
+    Counter c2 = Counter.build("requests_total", "help").labelNames("l").multiprocess(storage2).create();
+    c1.labels("a").inc(2);
+    c2.labels("a").inc(3);
+    c2.labels("b").inc();
+    assertEquals(2.0, c1.labels("a").get(), .001);
+    assertEquals(5.0, registry.getSampleValue("requests_total", new String[]{"l"}, new String[]{"a"}), .001);
+    assertEquals(1.0, registry.getSampleValue("requests_total", new String[]{"l"}, new String[]{"b"}), .001);
+  }
+
+  @Test
+  public void testGaugeModes() {
+    Gauge.build("all", "help").multiprocess(storage1).create().set(1);
+    Gauge.build("all", "help").multiprocess(storage2).create().set(2);
+    Gauge.build("max", "help").multiprocess(storage1, MultiprocessStorage.GaugeMode.MAX).create().set(1);
+    Gauge.build("max", "help").multiprocess(storage2, MultiprocessStorage.GaugeMode.MAX).create().set(2);
+    Gauge.build("min", "help").multiprocess(storage1, MultiprocessStorage.GaugeMode.MIN).create().set(1);
+    Gauge.build("min", "help").multiprocess(storage2, MultiprocessStorage.GaugeMode.MIN).create().set(2);
+    Gauge.build("live", "help").multiprocess(storage1, MultiprocessStorage.GaugeMode.LIVE_SUM).create().set(1);
+    Gauge.build("live", "help").multiprocess(storage2, MultiprocessStorage.GaugeMode.LIVE_SUM).create().inc(2);
+
+    assertEquals(1.0, registry.getSampleValue("all", new String[]{"pid"}, new String[]{"1"}), .001);
+    assertEquals(2.0, registry.getSampleValue("all", new String[]{"pid"}, new String[]{"2"}), .001);
+    assertEquals(2.0, registry.getSampleValue("max"), .001);
+    assertEquals(1.0, registry.getSampleValue("min"), .001);
+    assertEquals(3.0, registry.getSampleValue("live"), .001);
+
+    MultiprocessStorage.markProcessDead(dir, "2");
+    assertEquals(1.0, registry.getSampleValue("live"), .001);
+    assertEquals(2.0, registry.getSampleValue("all", new String[]{"pid"}, new String[]{"2"}), .001);
+  }
+
+  @Test
+  public void testHistogramIsSummed() {
+    Histogram h1 = Histogram.build("latency", "help").buckets(1, 2).multiprocess(storage1).create();
+    Histogram h2 = Histogram.build("latency", "help").buckets(1, 2).multiprocess(storage2).create();
+    h1.observe(0.5);
+    h2.observe(1.5);
+    h2.observe(3);
+    assertEquals(1.0, registry.getSampleValue("latency_bucket", new String[]{"le"}, new String[]{"1.0"}), .001);
+    assertEquals(2.0, registry.getSampleValue("latency_bucket", new String[]{"le"}, new String[]{"2.0"}), .001);
+    assertEquals(3.0, registry.getSampleValue("latency_bucket", new String[]{"le"}, new String[]{"+Inf"}), .001);
+    assertEquals(3.0, registry.getSampleValue("latency_count"), .001);
+    assertEquals(5.0, registry.getSampleValue("latency_sum"), .001);
+  }
+
+  @Test
+  public void testValuesSurviveRestart() {
+    Counter.build("restarts_total", "help").multiprocess(storage1).create().inc(2);
+    Counter c = Counter.build("restarts_total", "help").multiprocess(new MultiprocessStorage(dir, "1")).create();
+    assertEquals(2.0, c.get(), .001);
+    c.inc();
+    assertEquals(3.0, registry.getSampleValue("restarts_total"), .001);
+  }
+
+  @Test
+  public void testManyChildrenGrowTheFile() {
+    Counter c = Counter.build("many_total", "help").labelNames("l").multiprocess(storage1).create();
+    for (int i = 0; i < 5000; i++) {
+      c.labels(Integer.toString(i)).inc(i);
+    }
+    assertEquals(4999.0, registry.getSampleValue("many_total", new String[]{"l"}, new String[]{"4999"}), .001);
+    assertEquals(1.0, c.labels("1").get(), .001);
+    assertNull(registry.getSampleValue("many_total", new String[]{"l"}, new String[]{"5000"}));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testPidLabelIsRejectedForModeAll() {
+    Gauge.build("g", "help").labelNames("pid").multiprocess(storage1).create();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testPidLabelIsRejectedForModeLiveAll() {
+    Gauge.build("g", "help").labelNames("pid").multiprocess(storage1, MultiprocessStorage.GaugeMode.LIVE_ALL).create();
+  }
+
+  @Test
+  public void testPidLabelIsAllowedForModeSum() {
+    Gauge.build("g", "help").labelNames("pid").multiprocess(storage1, MultiprocessStorage.GaugeMode.SUM).create()
+        .labels("a").set(1);
+    assertEquals(1.0, registry.getSampleValue("g", new String[]{"pid"}, new String[]{"a"}), .001);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testConsistentSnapshotsAreNotSupported() {
+    Histogram.build("h", "help").consistentSnapshots().multiprocess(storage1).create();
+  }
+}
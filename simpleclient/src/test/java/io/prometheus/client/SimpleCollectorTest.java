@@ -5,6 +5,9 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.rules.ExpectedException.none;
 
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.Before;
@@ -177,4 +180,95 @@ public class SimpleCollectorTest {
   public void testCreateReturnsGauge() {
     Gauge g = Gauge.build().name("labels").help("help").labelNames("l").create();
   }
+
+  @Test
+  public void testRemoveMatching() {
+    for (Gauge g : new Gauge[]{
+        Gauge.build().name("plain").help("help").labelNames("tenant", "path").register(registry),
+        Gauge.build().name("indexed").help("help").labelNames("tenant", "path").indexLabels("tenant").register(registry)}) {
+      g.labels("a", "/1").set(1);
+      g.labels("a", "/2").set(2);
+      g.labels("b", "/1").set(3);
+      assertEquals(2, g.removeMatching("tenant", "a"));
+      assertEquals(0, g.removeMatching("tenant", "a"));
+      assertEquals(0, g.removeMatching("other", "a"));
+      assertEquals(1, g.children.size());
+      // Children removed by label can be created again.
+      g.labels("a", "/1").set(4);
+      assertEquals(1, g.removeMatching("tenant", "a"));
+      g.remove("b", "/1");
+      assertEquals(0, g.removeMatching("tenant", "b"));
+      assertEquals(0, g.children.size());
+    }
+  }
+
+  @Test
+  public void testRemoveMatchingOnRegistry() {
+    Counter c = Counter.build().name("c").help("help").labelNames("tenant").indexLabels("tenant").register(registry);
+    metric.labels("a").set(1);
+    c.labels("a").inc();
+    c.labels("b").inc();
+    assertEquals(1, registry.removeMatching("l", "a"));
+    assertEquals(1, registry.removeMatching("tenant", "a"));
+    assertNull(getValue("a"));
+    assertNull(registry.getSampleValue("c_total", new String[]{"tenant"}, new String[]{"a"}));
+    assertEquals(1.0, registry.getSampleValue("c_total", new String[]{"tenant"}, new String[]{"b"}), .001);
+  }
+
+  @Test
+  public void testRemoveIf() {
+    metric.labels("keep").set(1);
+    metric.labels("drop1").set(1);
+    metric.labels("drop2").set(1);
+    assertEquals(2, metric.removeIf(new Predicate<List<String>>() {
+      @Override
+      public boolean test(List<String> labelValues) {
+        return labelValues.get(0).startsWith("drop");
+      }
+    }));
+    assertEquals(1.0, getValue("keep"), .001);
+    assertNull(getValue("drop1"));
+
+    assertEquals(1, registry.removeIf(new Predicate<Map<String, String>>() {
+      @Override
+      public boolean test(Map<String, String> labels) {
+        return "keep".equals(labels.get("l"));
+      }
+    }));
+    assertNull(getValue("keep"));
+    // The child without labels is recreated.
+    assertEquals(0.0, getValueNoLabels(), .001);
+  }
+
+  @Test
+  public void testRemovalListener() {
+    final int[] calls = new int[1];
+    metric.addRemovalListener(new Runnable() {
+      @Override
+      public void run() {
+        calls[0]++;
+      }
+    });
+    metric.labels("a").set(1);
+    metric.labels("b").set(1);
+    metric.remove("c");
+    assertEquals(0, metric.removeMatching("l", "c"));
+    assertEquals(0, calls[0]);
+    metric.remove("a");
+    assertEquals(1, calls[0]);
+    assertEquals(1, registry.removeMatching("l", "b"));
+    assertEquals(2, calls[0]);
+    metric.setChild(new Gauge.Child(), "c");
+    assertEquals(2, calls[0]);
+    metric.setChild(new Gauge.Child(), "c");
+    assertEquals(3, calls[0]);
+    metric.clear();
+    assertEquals(4, calls[0]);
+  }
+
+  @Test
+  public void testIndexedLabelMustExist() {
+    thrown.expect(IllegalStateException.class);
+    Gauge.build().name("g").help("help").labelNames("l").indexLabels("other").create();
+  }
 }
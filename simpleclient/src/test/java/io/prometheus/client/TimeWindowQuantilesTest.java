@@ -0,0 +1,51 @@
+package io.prometheus.client;
+
+import io.prometheus.client.CKMSQuantiles.Quantile;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeWindowQuantilesTest {
+
+  private long now;
+  private TimeWindowQuantiles quantiles;
+
+  private final Clock virtualClock = new Clock() {
+    @Override
+    public long currentTimeMillis() {
+      return now;
+    }
+  };
+
+  @Before
+  public void setUp() {
+    now = 1000000;
+    // 10 second window in 5 buckets, so the buckets are rotated every 2 seconds.
+    quantiles = new TimeWindowQuantiles(new Quantile[]{new Quantile(0.5, 0.01)}, 10, 5, virtualClock);
+  }
+
+  @Test
+  public void testObservationsWithinWindow() {
+    quantiles.insert(3);
+    now += 9000;
+    assertEquals(3, quantiles.get(0.5), 0.001);
+  }
+
+  @Test
+  public void testObservationsExpire() {
+    quantiles.insert(3);
+    now += 11000;
+    assertTrue(Double.isNaN(quantiles.get(0.5)));
+  }
+
+  @Test
+  public void testRotationFollowsVirtualTime() {
+    quantiles.insert(1);
+    now += 4500;
+    quantiles.insert(5);
+    now += 6000; // the first observation is 10.5s old, the second one 6s.
+    assertEquals(5, quantiles.get(0.5), 0.001);
+  }
+}
@@ -0,0 +1,90 @@
+package io.prometheus.client;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ViewTest {
+
+  CollectorRegistry registry;
+
+  @Before
+  public void setUp() {
+    registry = new CollectorRegistry();
+  }
+
+  @Test
+  public void testDropLabels() {
+    registry.registerView(View.build("requests").dropLabels("path").create());
+    Counter counter = Counter.build().name("requests_total").help("help").labelNames("path", "method").register(registry);
+    counter.labels("/a", "GET").inc();
+    counter.labels("/b", "GET").inc(2);
+    counter.labels("/b", "POST").inc();
+    assertEquals(2, counter.children.size());
+    assertEquals(3.0, registry.getSampleValue("requests_total", new String[]{"method"}, new String[]{"GET"}), .001);
+    assertEquals(1.0, registry.getSampleValue("requests_total", new String[]{"method"}, new String[]{"POST"}), .001);
+    assertEquals(3.0, counter.labels("/c", "GET").get(), .001);
+    counter.remove("/x", "GET");
+    assertNull(registry.getSampleValue("requests_total", new String[]{"method"}, new String[]{"GET"}));
+  }
+
+  @Test
+  public void testCounterWithTotalSuffixAndUnit() {
+    registry.registerView(View.build("transferred_bytes").dropLabels("path").create());
+    Counter counter = Counter.build().name("transferred_total").unit("bytes").help("help")
+        .labelNames("path", "method").register(registry);
+    counter.labels("/a", "GET").inc(2);
+    counter.labels("/b", "GET").inc(3);
+    assertEquals(1, counter.children.size());
+    assertEquals(5.0, registry.getSampleValue("transferred_bytes_total", new String[]{"method"}, new String[]{"GET"}), .001);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDropLabelsStillRequiresAllLabelValues() {
+    registry.registerView(View.build("requests").dropLabels("path").create());
+    Counter counter = Counter.build().name("requests").help("help").labelNames("path", "method").register(registry);
+    counter.labels("GET");
+  }
+
+  @Test
+  public void testDropAllLabels() {
+    registry.registerView(View.build("latency_seconds").dropLabels("path").create());
+    Summary summary = Summary.build().name("latency_seconds").help("help").labelNames("path").register(registry);
+    summary.labels("/a").observe(1);
+    summary.labels("/b").observe(2);
+    assertEquals(2.0, registry.getSampleValue("latency_seconds_count"), .001);
+    assertEquals(3.0, registry.getSampleValue("latency_seconds_sum"), .001);
+  }
+
+  @Test
+  public void testHistogramBuckets() {
+    registry.registerView(View.build("latency_seconds").buckets(1, 2).create());
+    Histogram histogram = Histogram.build().name("latency_seconds").help("help").register(registry);
+    histogram.observe(1.5);
+    assertEquals(1.0, registry.getSampleValue("latency_seconds_bucket", new String[]{"le"}, new String[]{"2.0"}), .001);
+    assertNull(registry.getSampleValue("latency_seconds_bucket", new String[]{"le"}, new String[]{"2.5"}));
+  }
+
+  @Test
+  public void testDisable() {
+    registry.registerView(View.build("method_timing").disable().create());
+    Summary summary = Summary.build().name("method_timing").help("help").labelNames("method").register(registry);
+    summary.labels("a").observe(1);
+    summary.labels("b").observe(1);
+    assertEquals(1, summary.children.size());
+    assertEquals(0, Collections.list(registry.metricFamilySamples()).size());
+  }
+
+  @Test
+  public void testViewsDontAffectOtherMetricsAndRegistries() {
+    registry.registerView(View.build("other").disable().create());
+    Gauge gauge = Gauge.build().name("gauge").help("help").labelNames("l").register(registry);
+    gauge.labels("a").set(1);
+    Gauge.build().name("other").help("help").register(new CollectorRegistry());
+    assertEquals(1.0, registry.getSampleValue("gauge", new String[]{"l"}, new String[]{"a"}), .001);
+  }
+}
@@ -0,0 +1,128 @@
+package io.prometheus.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class WindowedHistogramTest {
+
+  private long now;
+  private CollectorRegistry registry;
+  private WindowedHistogram histogram;
+
+  private final Clock virtualClock = new Clock() {
+    @Override
+    public long currentTimeMillis() {
+      return now;
+    }
+  };
+
+  @Before
+  public void setUp() {
+    now = 1000000;
+    Clock.setDefaultClock(virtualClock);
+    registry = new CollectorRegistry();
+    // 10 second window in 5 periods, so the periods are rotated every 2 seconds.
+    histogram = WindowedHistogram.build("latency", "help").buckets(1, 2)
+        .maxAgeSeconds(10).ageBuckets(5).register(registry);
+  }
+
+  @After
+  public void tearDown() {
+    Clock.setDefaultClock(Clock.systemClock());
+  }
+
+  private double bucket(String le) {
+    return registry.getSampleValue("latency_bucket", new String[]{"le"}, new String[]{le});
+  }
+
+  @Test
+  public void testObserve() {
+    histogram.observe(0.5);
+    histogram.observe(1.5);
+    histogram.observe(5);
+    assertEquals(1.0, bucket("1.0"), .001);
+    assertEquals(2.0, bucket("2.0"), .001);
+    assertEquals(3.0, bucket("+Inf"), .001);
+    assertEquals(3.0, registry.getSampleValue("latency_gcount"), .001);
+    assertEquals(7.0, registry.getSampleValue("latency_gsum"), .001);
+  }
+
+  @Test
+  public void testObservationsExpire() {
+    histogram.observe(0.5);
+    now += 5000;
+    histogram.observe(1.5);
+    now += 4000;
+    assertEquals(2.0, registry.getSampleValue("latency_gcount"), .001);
+    now += 2000;
+    assertEquals(1.0, registry.getSampleValue("latency_gcount"), .001);
+    assertEquals(0.0, bucket("1.0"), .001);
+    assertEquals(1.5, registry.getSampleValue("latency_gsum"), .001);
+    now += 10000;
+    assertEquals(0.0, registry.getSampleValue("latency_gcount"), .001);
+    assertEquals(0.0, registry.getSampleValue("latency_gsum"), .001);
+  }
+
+  @Test
+  public void testRotationReplacesOldPeriod() {
+    histogram.observe(0.5);
+    // Same slot in the ring, one full window later.
+    now += 10000;
+    histogram.observe(1.5);
+    assertEquals(0.0, bucket("1.0"), .001);
+    assertEquals(1.0, registry.getSampleValue("latency_gcount"), .001);
+  }
+
+  @Test
+  public void testConcurrentObservations() throws InterruptedException {
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            histogram.observe(1);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertEquals(40000.0, registry.getSampleValue("latency_gcount"), .001);
+    assertEquals(40000.0, registry.getSampleValue("latency_gsum"), .001);
+  }
+
+  @Test
+  public void testLabels() {
+    WindowedHistogram labelled = WindowedHistogram.build("labelled", "help").labelNames("l").register(registry);
+    labelled.labels("a").observe(2);
+    assertEquals(1.0, registry.getSampleValue("labelled_gcount", new String[]{"l"}, new String[]{"a"}), .001);
+    assertEquals(null, registry.getSampleValue("labelled_gcount", new String[]{"l"}, new String[]{"b"}));
+  }
+
+  @Test
+  public void testCollect() {
+    List<Collector.MetricFamilySamples> mfs = histogram.collect();
+    assertEquals(1, mfs.size());
+    assertEquals(Collector.Type.GAUGE_HISTOGRAM, mfs.get(0).type);
+    assertEquals(5, mfs.get(0).samples.size());
+    assertEquals(Collector.Type.GAUGE_HISTOGRAM, histogram.describe().get(0).type);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testLeLabelThrows() {
+    WindowedHistogram.build().name("h").help("h").labelNames("le").create();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testZeroAgeBucketsThrows() {
+    WindowedHistogram.build().ageBuckets(0);
+  }
+}
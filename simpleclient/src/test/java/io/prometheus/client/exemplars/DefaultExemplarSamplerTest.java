@@ -1,10 +1,14 @@
 package io.prometheus.client.exemplars;
 
+import io.prometheus.client.Clock;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
 import io.prometheus.client.exemplars.tracer.common.SpanContextSupplier;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -19,11 +23,13 @@ public class DefaultExemplarSamplerTest {
   final AtomicReference<String> traceId = new AtomicReference<String>();
   final AtomicReference<String> spanId = new AtomicReference<String>();
   final AtomicLong timestamp = new AtomicLong();
+  final AtomicInteger spanContextLookups = new AtomicInteger();
   DefaultExemplarSampler defaultSampler;
 
   final SpanContextSupplier testContext = new SpanContextSupplier() {
     @Override
     public String getTraceId() {
+      spanContextLookups.incrementAndGet();
       return traceId.get();
     }
 
@@ -33,7 +39,7 @@ public class DefaultExemplarSamplerTest {
     }
   };
 
-  final DefaultExemplarSampler.Clock testClock = new DefaultExemplarSampler.Clock() {
+  final Clock testClock = new Clock() {
     @Override
     public long currentTimeMillis() {
       return timestamp.get();
@@ -88,4 +94,47 @@ public class DefaultExemplarSamplerTest {
     traceId.set(null);
     Assert.assertNull(sampler.sample(4.0, NEGATIVE_INFINITY, POSITIVE_INFINITY, null));
   }
+
+  @Test
+  public void testIsSampleDue() {
+    Exemplar previous = new Exemplar(2.0, timestamp.get(), TRACE_ID, traceId.get(), SPAN_ID, spanId.get());
+    Assert.assertTrue(defaultSampler.isSampleDue(null));
+    Assert.assertTrue(defaultSampler.isSampleDue(new Exemplar(2.0)));
+    Assert.assertFalse(defaultSampler.isSampleDue(previous));
+    timestamp.getAndAdd(10 * 1000); // 10s later
+    Assert.assertTrue(defaultSampler.isSampleDue(previous));
+  }
+
+  @Test
+  public void testHistogramSkipsSpanContextWhileRetained() {
+    Histogram histogram = Histogram.build()
+        .name("test")
+        .help("help")
+        .withExemplarSampler(defaultSampler)
+        .create();
+    histogram.observe(0.3);
+    Assert.assertEquals(1, spanContextLookups.get());
+    for (int i = 0; i < 100; i++) {
+      histogram.observe(0.3);
+    }
+    Assert.assertEquals(1, spanContextLookups.get());
+    timestamp.getAndAdd(10 * 1000); // 10s later
+    histogram.observe(0.3);
+    Assert.assertEquals(2, spanContextLookups.get());
+  }
+
+  @Test
+  public void testCounterSkipsSpanContextWhileRetained() {
+    Counter counter = Counter.build()
+        .name("test")
+        .help("help")
+        .withExemplarSampler(defaultSampler)
+        .create();
+    counter.inc();
+    Assert.assertEquals(1, spanContextLookups.get());
+    for (int i = 0; i < 100; i++) {
+      counter.inc();
+    }
+    Assert.assertEquals(1, spanContextLookups.get());
+  }
 }
@@ -0,0 +1,61 @@
+package io.prometheus.client.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Generate a typed label lookup for a metric.
+ * <p>
+ * Annotate an interface with a single method that takes the label values and returns a
+ * {@code Counter.Child}, {@code Gauge.Child}, {@code Histogram.Child} or {@code Summary.Child}:
+ * <pre>
+ * {@code
+ *   @Metric(name = "http_requests_total", help = "Total HTTP requests.")
+ *   interface HttpRequests {
+ *     Counter.Child labels(Method method, @Range(min = 100, max = 599) int status);
+ *   }
+ *
+ *   static final HttpRequests httpRequests = Metric_HttpRequests.register();
+ *
+ *   httpRequests.labels(Method.GET, 200).inc();
+ * }
+ * </pre>
+ * The {@link MetricProcessor} generates the class {@code Metric_<InterfaceName>} in the same package.
+ * Label names default to the parameter names.
+ * <p>
+ * If all parameters are enums, {@code boolean}s or {@link Range ranged} integers, children are kept in a dense
+ * array indexed by the parameter values, so a lookup neither hashes nor allocates. Otherwise, or for integers
+ * outside their range, the lookup falls back to {@code labels(String...)}.
+ * <p>
+ * The generated class drops its cached children whenever children are removed from or replaced in its collector,
+ * e.g. by {@code remove()}, {@code clear()} or {@code CollectorRegistry.removeMatching()}, so it never hands out
+ * a removed child.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface Metric {
+
+  /**
+   * The name of the metric.
+   */
+  String name();
+
+  /**
+   * The help string of the metric.
+   */
+  String help();
+
+  /**
+   * The label names, in parameter order. Defaults to the parameter names.
+   */
+  String[] labelNames() default {};
+
+  /**
+   * The buckets of a Histogram. Defaults to the Histogram's default buckets.
+   */
+  double[] buckets() default {};
+}
@@ -0,0 +1,376 @@
+package io.prometheus.client.annotations;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates the implementations of interfaces annotated with {@link Metric}.
+ * <p>
+ * The processor is registered as a service, so it runs automatically when this module is on the compile classpath.
+ */
+public class MetricProcessor extends AbstractProcessor {
+
+  // Upper limit for the number of children in the dense array, not counting enum dimensions.
+  private static final long MAX_DENSE_SIZE = 1 << 20;
+
+  private static final String[] METRIC_TYPES = {"Counter", "Gauge", "Histogram", "Summary"};
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    return Collections.singleton(Metric.class.getName());
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    for (Element element : roundEnv.getElementsAnnotatedWith(Metric.class)) {
+      try {
+        generate(element);
+      } catch (IOException e) {
+        error(element, "Failed to generate metric: " + e);
+      }
+    }
+    return true;
+  }
+
+  private void error(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+
+  /**
+   * A label parameter of the annotated method.
+   */
+  private static class Label {
+    final String parameter;
+    final String type;
+    final boolean isEnum;
+    final boolean isBoolean;
+    final boolean isRange;
+    final int min;
+    final int max;
+
+    Label(VariableElement p) {
+      parameter = p.getSimpleName().toString();
+      TypeMirror t = p.asType();
+      type = t.toString();
+      isEnum = t.getKind() == TypeKind.DECLARED && ((DeclaredType) t).asElement().getKind() == ElementKind.ENUM;
+      isBoolean = t.getKind() == TypeKind.BOOLEAN;
+      Range range = p.getAnnotation(Range.class);
+      isRange = t.getKind() == TypeKind.INT && range != null;
+      min = isRange ? range.min() : 0;
+      max = isRange ? range.max() : 0;
+    }
+
+    boolean isBounded() {
+      return isEnum || isBoolean || isRange;
+    }
+
+    String size() {
+      if (isEnum) {
+        return type + ".values().length";
+      }
+      return isBoolean ? "2" : Long.toString((long) max - min + 1);
+    }
+
+    String index() {
+      if (isEnum) {
+        return parameter + ".ordinal()";
+      }
+      return isBoolean ? "(" + parameter + " ? 1 : 0)" : "(" + parameter + " - " + min + ")";
+    }
+
+    String value() {
+      if (isEnum) {
+        return parameter + ".name()";
+      }
+      if (isBoolean) {
+        return "Boolean.toString(" + parameter + ")";
+      }
+      if (isRange) {
+        return "Integer.toString(" + parameter + ")";
+      }
+      return "String.valueOf(" + parameter + ")";
+    }
+  }
+
+  private void generate(Element element) throws IOException {
+    if (element.getKind() != ElementKind.INTERFACE) {
+      error(element, "@Metric can only be used on interfaces.");
+      return;
+    }
+    TypeElement iface = (TypeElement) element;
+    if (!iface.getTypeParameters().isEmpty()) {
+      error(element, "@Metric interfaces cannot be generic.");
+      return;
+    }
+    ExecutableElement method = null;
+    for (Element e : iface.getEnclosedElements()) {
+      if (e.getKind() == ElementKind.METHOD && e.getModifiers().contains(Modifier.ABSTRACT)) {
+        if (method != null) {
+          error(element, "@Metric interfaces must have exactly one abstract method.");
+          return;
+        }
+        method = (ExecutableElement) e;
+      }
+    }
+    if (method == null) {
+      error(element, "@Metric interfaces must have exactly one abstract method.");
+      return;
+    }
+    String metricType = null;
+    for (String t : METRIC_TYPES) {
+      if (method.getReturnType().toString().equals("io.prometheus.client." + t + ".Child")) {
+        metricType = t;
+      }
+    }
+    if (metricType == null) {
+      error(method, "@Metric methods must return a Counter.Child, Gauge.Child, Histogram.Child or Summary.Child.");
+      return;
+    }
+
+    Metric metric = iface.getAnnotation(Metric.class);
+    List<Label> labels = new ArrayList<Label>();
+    boolean dense = true;
+    long denseSize = 1;
+    for (VariableElement p : method.getParameters()) {
+      Label label = new Label(p);
+      if (p.getAnnotation(Range.class) != null && !label.isRange) {
+        error(p, "@Range can only be used on int parameters.");
+        return;
+      }
+      if (label.isRange && label.min > label.max) {
+        error(p, "@Range min must not be greater than max.");
+        return;
+      }
+      if (!label.isEnum) {
+        denseSize *= Long.parseLong(label.isBounded() ? label.size() : "1");
+      }
+      dense &= label.isBounded();
+      labels.add(label);
+    }
+    if (dense && denseSize > MAX_DENSE_SIZE) {
+      error(method, "The ranges of the label parameters allow more than " + MAX_DENSE_SIZE + " children.");
+      return;
+    }
+    String[] labelNames = metric.labelNames();
+    if (labelNames.length == 0) {
+      labelNames = new String[labels.size()];
+      for (int i = 0; i < labelNames.length; i++) {
+        labelNames[i] = labels.get(i).parameter;
+      }
+    } else if (labelNames.length != labels.size()) {
+      error(element, "@Metric labelNames must have one name per parameter of " + method.getSimpleName() + "().");
+      return;
+    }
+    if (metric.buckets().length > 0 && !metricType.equals("Histogram")) {
+      error(element, "@Metric buckets can only be used for Histograms.");
+      return;
+    }
+
+    String packageName = ((PackageElement) packageOf(iface)).getQualifiedName().toString();
+    String className = "Metric_" + iface.getQualifiedName().toString()
+        .substring(packageName.isEmpty() ? 0 : packageName.length() + 1).replace('.', '_');
+    String childType = metricType + ".Child";
+
+    StringBuilder b = new StringBuilder();
+    if (!packageName.isEmpty()) {
+      b.append("package ").append(packageName).append(";\n\n");
+    }
+    b.append("import io.prometheus.client.CollectorRegistry;\n");
+    b.append("import io.prometheus.client.").append(metricType).append(";\n");
+    if (dense) {
+      b.append("import java.util.concurrent.atomic.AtomicInteger;\n");
+      b.append("import java.util.concurrent.atomic.AtomicReferenceArray;\n");
+    }
+    b.append("\n");
+    b.append("/**\n");
+    b.append(" * Generated by {@link io.prometheus.client.annotations.MetricProcessor} from {@link ")
+        .append(iface.getQualifiedName()).append("}.\n");
+    b.append(" */\n");
+    b.append("public final class ").append(className).append(" implements ").append(iface.getQualifiedName()).append(" {\n\n");
+
+    if (dense) {
+      for (int i = 0; i < labels.size(); i++) {
+        b.append("  private static final int SIZE_").append(i).append(" = ").append(labels.get(i).size()).append(";\n");
+      }
+      b.append("\n");
+    }
+    b.append("  private final ").append(metricType).append(" collector;\n");
+    if (dense) {
+      b.append("  private final AtomicReferenceArray<").append(childType).append("> children = new AtomicReferenceArray<")
+          .append(childType).append(">(1");
+      for (int i = 0; i < labels.size(); i++) {
+        b.append(" * SIZE_").append(i);
+      }
+      b.append(");\n");
+      b.append("  // Incremented before the children are dropped because the collector removed some.\n");
+      b.append("  private final AtomicInteger removals = new AtomicInteger();\n");
+    }
+    b.append("\n");
+
+    b.append("  /**\n");
+    b.append("   * Wrap an existing collector, which must have been built from {@link #builder()}.\n");
+    b.append("   */\n");
+    b.append("  public ").append(className).append("(").append(metricType).append(" collector) {\n");
+    b.append("    this.collector = collector;\n");
+    if (dense) {
+      b.append("    collector.addRemovalListener(new Runnable() {\n");
+      b.append("      @Override\n");
+      b.append("      public void run() {\n");
+      b.append("        removals.incrementAndGet();\n");
+      b.append("        for (int i = 0; i < children.length(); i++) {\n");
+      b.append("          children.set(i, null);\n");
+      b.append("        }\n");
+      b.append("      }\n");
+      b.append("    });\n");
+    }
+    b.append("  }\n\n");
+
+    b.append("  /**\n");
+    b.append("   * A builder configured with the name, help, label names and buckets of the {@code @Metric} annotation.\n");
+    b.append("   */\n");
+    b.append("  public static ").append(metricType).append(".Builder builder() {\n");
+    b.append("    return ").append(metricType).append(".build()\n");
+    b.append("        .name(").append(literal(metric.name())).append(")\n");
+    b.append("        .help(").append(literal(metric.help())).append(")\n");
+    b.append("        .labelNames(");
+    for (int i = 0; i < labelNames.length; i++) {
+      b.append(i == 0 ? "" : ", ").append(literal(labelNames[i]));
+    }
+    b.append(")");
+    if (metric.buckets().length > 0) {
+      b.append("\n        .buckets(");
+      for (int i = 0; i < metric.buckets().length; i++) {
+        b.append(i == 0 ? "" : ", ").append(literal(metric.buckets()[i]));
+      }
+      b.append(")");
+    }
+    b.append(";\n");
+    b.append("  }\n\n");
+
+    b.append("  public static ").append(className).append(" register() {\n");
+    b.append("    return register(CollectorRegistry.defaultRegistry);\n");
+    b.append("  }\n\n");
+    b.append("  public static ").append(className).append(" register(CollectorRegistry registry) {\n");
+    b.append("    return new ").append(className).append("(builder().register(registry));\n");
+    b.append("  }\n\n");
+    b.append("  public ").append(metricType).append(" getCollector() {\n");
+    b.append("    return collector;\n");
+    b.append("  }\n\n");
+
+    StringBuilder labelValues = new StringBuilder();
+    for (int i = 0; i < labels.size(); i++) {
+      labelValues.append(i == 0 ? "" : ", ").append(labels.get(i).value());
+    }
+    b.append("  @Override\n");
+    b.append("  public ").append(childType).append(" ").append(method.getSimpleName()).append("(");
+    for (int i = 0; i < labels.size(); i++) {
+      b.append(i == 0 ? "" : ", ").append(labels.get(i).type).append(" ").append(labels.get(i).parameter);
+    }
+    b.append(") {\n");
+    if (dense) {
+      for (Label label : labels) {
+        if (label.isRange) {
+          b.append("    if (").append(label.parameter).append(" < ").append(label.min).append(" || ")
+              .append(label.parameter).append(" > ").append(label.max).append(") {\n");
+          b.append("      return collector.labels(").append(labelValues).append(");\n");
+          b.append("    }\n");
+        }
+      }
+      b.append("    int index = 0;\n");
+      for (int i = 0; i < labels.size(); i++) {
+        b.append("    index = index * SIZE_").append(i).append(" + ").append(labels.get(i).index()).append(";\n");
+      }
+      b.append("    ").append(childType).append(" child = children.get(index);\n");
+      b.append("    if (child == null) {\n");
+      b.append("      int removalsBefore = removals.get();\n");
+      b.append("      child = collector.labels(").append(labelValues).append(");\n");
+      b.append("      children.set(index, child);\n");
+      b.append("      if (removals.get() != removalsBefore) {\n");
+      b.append("        // The child may have been removed before it was cached.\n");
+      b.append("        children.compareAndSet(index, child, null);\n");
+      b.append("      }\n");
+      b.append("    }\n");
+      b.append("    return child;\n");
+    } else {
+      b.append("    return collector.labels(").append(labelValues).append(");\n");
+    }
+    b.append("  }\n");
+    b.append("}\n");
+
+    String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+    Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, iface).openWriter();
+    try {
+      writer.write(b.toString());
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static Element packageOf(Element element) {
+    while (element.getKind() != ElementKind.PACKAGE) {
+      element = element.getEnclosingElement();
+    }
+    return element;
+  }
+
+  private static String literal(String s) {
+    StringBuilder b = new StringBuilder("\"");
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"':
+          b.append("\\\"");
+          break;
+        case '\\':
+          b.append("\\\\");
+          break;
+        case '\n':
+          b.append("\\n");
+          break;
+        case '\r':
+          b.append("\\r");
+          break;
+        case '\t':
+          b.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            b.append(String.format("\\u%04x", (int) c));
+          } else {
+            b.append(c);
+          }
+      }
+    }
+    return b.append('"').toString();
+  }
+
+  private static String literal(double d) {
+    if (d == Double.POSITIVE_INFINITY) {
+      return "Double.POSITIVE_INFINITY";
+    }
+    return Double.toString(d);
+  }
+}
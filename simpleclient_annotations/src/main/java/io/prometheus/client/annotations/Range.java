@@ -0,0 +1,21 @@
+package io.prometheus.client.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The expected values of an {@code int} label parameter of a {@link Metric} method, both inclusive.
+ * <p>
+ * Values in the range are looked up in a dense array. Values outside of it are still recorded, but are looked up
+ * by their string value.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.PARAMETER)
+public @interface Range {
+  int min();
+  int max();
+}
@@ -0,0 +1,97 @@
+package io.prometheus.client.annotations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricProcessorTest {
+
+  enum Method {
+    GET, POST
+  }
+
+  @Metric(name = "http_requests_total", help = "Total \"HTTP\" requests.")
+  interface HttpRequests {
+    Counter.Child labels(Method method, @Range(min = 100, max = 599) int status);
+  }
+
+  @Metric(name = "cache_size", help = "Cache size.", labelNames = {"warm"})
+  interface CacheSize {
+    Gauge.Child forCache(boolean isWarm);
+  }
+
+  @Metric(name = "latency_seconds", help = "Latency.", buckets = {0.1, 1})
+  interface Latency {
+    Histogram.Child labels(String path);
+  }
+
+  CollectorRegistry registry;
+
+  @Before
+  public void setUp() {
+    registry = new CollectorRegistry();
+  }
+
+  @Test
+  public void testDenseLookup() {
+    HttpRequests requests = Metric_MetricProcessorTest_HttpRequests.register(registry);
+    requests.labels(Method.GET, 200).inc();
+    requests.labels(Method.GET, 200).inc();
+    requests.labels(Method.POST, 599).inc();
+    assertSame(requests.labels(Method.POST, 100), requests.labels(Method.POST, 100));
+    assertEquals(2.0, registry.getSampleValue("http_requests_total",
+        new String[]{"method", "status"}, new String[]{"GET", "200"}), .001);
+    assertEquals(1.0, registry.getSampleValue("http_requests_total",
+        new String[]{"method", "status"}, new String[]{"POST", "599"}), .001);
+    assertEquals("Total \"HTTP\" requests.", registry.metricFamilySamples().nextElement().help);
+  }
+
+  @Test
+  public void testRemovedChildrenAreNotCached() {
+    Metric_MetricProcessorTest_HttpRequests requests = Metric_MetricProcessorTest_HttpRequests.register(registry);
+    Counter.Child get = requests.labels(Method.GET, 200);
+    Counter.Child post = requests.labels(Method.POST, 200);
+    assertEquals(1, registry.removeMatching("method", "GET"));
+    assertNotSame(get, requests.labels(Method.GET, 200));
+    assertSame(requests.getCollector().labels("GET", "200"), requests.labels(Method.GET, 200));
+    requests.getCollector().clear();
+    assertNotSame(post, requests.labels(Method.POST, 200));
+    requests.labels(Method.POST, 200).inc();
+    assertEquals(1.0, registry.getSampleValue("http_requests_total",
+        new String[]{"method", "status"}, new String[]{"POST", "200"}), .001);
+  }
+
+  @Test
+  public void testOutOfRangeFallsBack() {
+    HttpRequests requests = Metric_MetricProcessorTest_HttpRequests.register(registry);
+    requests.labels(Method.GET, 42).inc();
+    requests.labels(Method.GET, 42).inc();
+    assertEquals(2.0, registry.getSampleValue("http_requests_total",
+        new String[]{"method", "status"}, new String[]{"GET", "42"}), .001);
+  }
+
+  @Test
+  public void testBooleanAndExplicitLabelNames() {
+    CacheSize cacheSize = Metric_MetricProcessorTest_CacheSize.register(registry);
+    cacheSize.forCache(true).set(3);
+    assertEquals(3.0, registry.getSampleValue("cache_size", new String[]{"warm"}, new String[]{"true"}), .001);
+  }
+
+  @Test
+  public void testUnboundedLabelsAndBuckets() {
+    Metric_MetricProcessorTest_Latency latency = Metric_MetricProcessorTest_Latency.register(registry);
+    latency.labels("/").observe(0.5);
+    assertEquals(1.0, registry.getSampleValue("latency_seconds_bucket",
+        new String[]{"path", "le"}, new String[]{"/", "1.0"}), .001);
+    assertEquals(0.0, registry.getSampleValue("latency_seconds_bucket",
+        new String[]{"path", "le"}, new String[]{"/", "0.1"}), .001);
+    assertSame(latency.getCollector().labels("/"), latency.labels("/"));
+  }
+}
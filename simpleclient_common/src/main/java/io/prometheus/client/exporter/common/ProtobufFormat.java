@@ -0,0 +1,488 @@
+package io.prometheus.client.exporter.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.exemplars.Exemplar;
+
+/**
+ * Writes metrics in the Prometheus protobuf format, i.e. a sequence of length-delimited
+ * {@code io.prometheus.client.MetricFamily} messages as defined in
+ * <a href="https://github.com/prometheus/client_model/blob/master/io/prometheus/client/metrics.proto">metrics.proto</a>.
+ * <p>
+ * The encoder is hand-written, so that exporters don't need a protobuf library. Protobuf is smaller on the wire and
+ * much cheaper for the Prometheus server to parse than text, which matters for targets with many series.
+ * Prometheus requests it if {@code PrometheusProto} is the first of its {@code scrape_protocols}, see
+ * {@link TextFormat#chooseContentType(String, boolean)}.
+ */
+public class ProtobufFormat {
+    /**
+     * Content-type for the length-delimited protobuf format.
+     */
+    public final static String CONTENT_TYPE_PROTOBUF = "application/vnd.google.protobuf; proto=io.prometheus.client.MetricFamily; encoding=delimited";
+
+    // Values of the MetricType enum.
+    private static final int COUNTER = 0;
+    private static final int GAUGE = 1;
+    private static final int SUMMARY = 2;
+    private static final int UNTYPED = 3;
+    private static final int HISTOGRAM = 4;
+    private static final int GAUGE_HISTOGRAM = 5;
+
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+
+    /**
+     * Write out the given MetricFamilySamples as length-delimited MetricFamily messages.
+     */
+    public static void write(OutputStream out, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException {
+        write(out, mfs, null);
+    }
+
+    /**
+     * Like {@link #write(OutputStream, Enumeration)}, but adds {@code globalLabels} to all metrics that don't have
+     * a label of the same name.
+     */
+    public static void write(OutputStream out, Enumeration<Collector.MetricFamilySamples> mfs, Map<String, String> globalLabels) throws IOException {
+        Encoder encoder = new Encoder();
+        while (mfs.hasMoreElements()) {
+            Collector.MetricFamilySamples metricFamilySamples = mfs.nextElement();
+            for (Family family : convert(metricFamilySamples)) {
+                family.encode(encoder, globalLabels);
+            }
+            // Keep the buffer at the size of the largest family.
+            encoder.writeTo(out);
+        }
+    }
+
+    /**
+     * The data of one Metric message.
+     */
+    private static class Metric {
+        final List<String> labelNames;
+        final List<String> labelValues;
+        double value;
+        Exemplar exemplar;
+        Long timestampMs;
+        Double created;
+        double count;
+        double sum;
+        final List<Double> bounds = new ArrayList<Double>();
+        final List<Double> counts = new ArrayList<Double>();
+        final List<Exemplar> exemplars = new ArrayList<Exemplar>();
+
+        Metric(List<String> labelNames, List<String> labelValues) {
+            this.labelNames = labelNames;
+            this.labelValues = labelValues;
+        }
+    }
+
+    /**
+     * The data of one MetricFamily message.
+     */
+    private static class Family {
+        final String name;
+        final String help;
+        final String unit;
+        final int type;
+        final Map<List<String>, Metric> metrics = new LinkedHashMap<List<String>, Metric>();
+
+        Family(String name, String help, String unit, int type) {
+            this.name = name;
+            this.help = help;
+            this.unit = unit;
+            this.type = type;
+        }
+
+        /**
+         * @param special name of a label that is part of the value rather than of the metric, like {@code le}.
+         */
+        Metric metric(Collector.MetricFamilySamples.Sample sample, String special) {
+            List<String> key = new ArrayList<String>(sample.labelNames.size() * 2);
+            List<String> names = new ArrayList<String>(sample.labelNames.size());
+            List<String> values = new ArrayList<String>(sample.labelNames.size());
+            for (int i = 0; i < sample.labelNames.size(); i++) {
+                if (!sample.labelNames.get(i).equals(special)) {
+                    names.add(sample.labelNames.get(i));
+                    values.add(sample.labelValues.get(i));
+                    key.add(sample.labelNames.get(i));
+                    key.add(sample.labelValues.get(i));
+                }
+            }
+            Metric metric = metrics.get(key);
+            if (metric == null) {
+                metric = new Metric(names, values);
+                metrics.put(key, metric);
+            }
+            return metric;
+        }
+
+        void encode(Encoder e, Map<String, String> globalLabels) {
+            int family = e.beginDelimited();
+            e.writeString(1, name);
+            e.writeString(2, help);
+            e.writeVarint(3, type);
+            for (Metric m : metrics.values()) {
+                int metric = e.begin(4);
+                for (int i = 0; i < m.labelNames.size(); i++) {
+                    e.writeLabelPair(1, m.labelNames.get(i), m.labelValues.get(i));
+                }
+                if (globalLabels != null) {
+                    for (Map.Entry<String, String> label : globalLabels.entrySet()) {
+                        if (!m.labelNames.contains(label.getKey())) {
+                            e.writeLabelPair(1, label.getKey(), label.getValue());
+                        }
+                    }
+                }
+                switch (type) {
+                    case COUNTER:
+                        int counter = e.begin(3);
+                        e.writeDouble(1, m.value);
+                        if (m.exemplar != null) {
+                            e.writeExemplar(2, m.exemplar);
+                        }
+                        if (m.created != null) {
+                            e.writeTimestamp(3, Math.round(m.created * 1000));
+                        }
+                        e.end(counter);
+                        break;
+                    case GAUGE:
+                        int gauge = e.begin(2);
+                        e.writeDouble(1, m.value);
+                        e.end(gauge);
+                        break;
+                    case UNTYPED:
+                        int untyped = e.begin(5);
+                        e.writeDouble(1, m.value);
+                        e.end(untyped);
+                        break;
+                    case SUMMARY:
+                        int summary = e.begin(4);
+                        e.writeCount(1, 0, m.count);
+                        e.writeDouble(2, m.sum);
+                        for (int i = 0; i < m.bounds.size(); i++) {
+                            int quantile = e.begin(3);
+                            e.writeDouble(1, m.bounds.get(i));
+                            e.writeDouble(2, m.counts.get(i));
+                            e.end(quantile);
+                        }
+                        if (m.created != null) {
+                            e.writeTimestamp(4, Math.round(m.created * 1000));
+                        }
+                        e.end(summary);
+                        break;
+                    default:
+                        int histogram = e.begin(7);
+                        e.writeCount(1, 4, m.count);
+                        e.writeDouble(2, m.sum);
+                        for (int i = 0; i < m.bounds.size(); i++) {
+                            int bucket = e.begin(3);
+                            e.writeCount(1, 4, m.counts.get(i));
+                            e.writeDouble(2, m.bounds.get(i));
+                            if (m.exemplars.get(i) != null) {
+                                e.writeExemplar(3, m.exemplars.get(i));
+                            }
+                            e.end(bucket);
+                        }
+                        if (m.created != null) {
+                            e.writeTimestamp(15, Math.round(m.created * 1000));
+                        }
+                        e.end(histogram);
+                }
+                if (m.timestampMs != null) {
+                    e.writeVarint(6, m.timestampMs);
+                }
+                e.end(metric);
+            }
+            if (!unit.isEmpty()) {
+                e.writeString(5, unit);
+            }
+            e.end(family);
+        }
+    }
+
+    /**
+     * Convert a MetricFamilySamples into a MetricFamily, and one untyped MetricFamily per sample name
+     * that doesn't belong to the type of the family.
+     */
+    private static List<Family> convert(Collector.MetricFamilySamples mfs) {
+        String name = mfs.name;
+        Family family;
+        switch (mfs.type) {
+            case COUNTER:
+                family = new Family(name + "_total", mfs.help, mfs.unit, COUNTER);
+                break;
+            case GAUGE:
+            case STATE_SET:
+                family = new Family(name, mfs.help, mfs.unit, GAUGE);
+                break;
+            case INFO:
+                family = new Family(name + "_info", mfs.help, mfs.unit, GAUGE);
+                break;
+            case SUMMARY:
+                family = new Family(name, mfs.help, mfs.unit, SUMMARY);
+                break;
+            case HISTOGRAM:
+                family = new Family(name, mfs.help, mfs.unit, HISTOGRAM);
+                break;
+            case GAUGE_HISTOGRAM:
+                family = new Family(name, mfs.help, mfs.unit, GAUGE_HISTOGRAM);
+                break;
+            default:
+                family = new Family(name, mfs.help, mfs.unit, UNTYPED);
+        }
+        boolean histogram = family.type == HISTOGRAM || family.type == GAUGE_HISTOGRAM;
+        String countName = name + (family.type == GAUGE_HISTOGRAM ? "_gcount" : "_count");
+        String sumName = name + (family.type == GAUGE_HISTOGRAM ? "_gsum" : "_sum");
+        Map<String, Family> others = new LinkedHashMap<String, Family>();
+        for (Collector.MetricFamilySamples.Sample sample : mfs.samples) {
+            if (family.type == SUMMARY || histogram) {
+                if (family.type == SUMMARY && sample.name.equals(name) && sample.labelNames.contains("quantile")) {
+                    Metric m = family.metric(sample, "quantile");
+                    m.bounds.add(parseDouble(sample.labelValues.get(sample.labelNames.indexOf("quantile"))));
+                    m.counts.add(sample.value);
+                    continue;
+                }
+                if (histogram && sample.name.equals(name + "_bucket") && sample.labelNames.contains("le")) {
+                    Metric m = family.metric(sample, "le");
+                    m.bounds.add(parseDouble(sample.labelValues.get(sample.labelNames.indexOf("le"))));
+                    m.counts.add(sample.value);
+                    m.exemplars.add(sample.exemplar);
+                    continue;
+                }
+                if (sample.name.equals(countName)) {
+                    family.metric(sample, null).count = sample.value;
+                    continue;
+                }
+                if (sample.name.equals(sumName)) {
+                    family.metric(sample, null).sum = sample.value;
+                    continue;
+                }
+            } else if (sample.name.equals(family.name)) {
+                Metric m = family.metric(sample, null);
+                m.value = sample.value;
+                m.exemplar = sample.exemplar;
+                m.timestampMs = sample.timestampMs;
+                continue;
+            }
+            if ((family.type == COUNTER || family.type == SUMMARY || family.type == HISTOGRAM)
+                    && sample.name.equals(name + "_created")) {
+                family.metric(sample, null).created = sample.value;
+                continue;
+            }
+            Family other = others.get(sample.name);
+            if (other == null) {
+                other = new Family(sample.name, mfs.help, "", UNTYPED);
+                others.put(sample.name, other);
+            }
+            Metric m = other.metric(sample, null);
+            m.value = sample.value;
+            m.timestampMs = sample.timestampMs;
+        }
+        List<Family> result = new ArrayList<Family>(1 + others.size());
+        result.add(family);
+        result.addAll(others.values());
+        return result;
+    }
+
+    private static double parseDouble(String s) {
+        if ("+Inf".equals(s)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if ("-Inf".equals(s)) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return Double.parseDouble(s);
+    }
+
+    /**
+     * Encodes protobuf messages into a growable buffer.
+     * <p>
+     * Nested messages are prefixed with their length, which is unknown until the message is written. {@link #begin}
+     * reserves 5 bytes for the length, and {@link #end} moves the message back if the length needs fewer bytes.
+     * This is cheaper than computing the size of every message before writing it.
+     */
+    private static class Encoder {
+        private byte[] buf = new byte[8192];
+        private int pos;
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                byte[] tmp = new byte[Math.max(buf.length * 2, pos + n)];
+                System.arraycopy(buf, 0, tmp, 0, pos);
+                buf = tmp;
+            }
+        }
+
+        private void rawVarint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        private void tag(int field, int wireType) {
+            rawVarint((field << 3) | wireType);
+        }
+
+        void writeVarint(int field, long v) {
+            tag(field, VARINT);
+            rawVarint(v);
+        }
+
+        void writeDouble(int field, double v) {
+            tag(field, FIXED64);
+            ensure(8);
+            long bits = Double.doubleToRawLongBits(v);
+            for (int i = 0; i < 8; i++) {
+                buf[pos++] = (byte) (bits >>> (8 * i));
+            }
+        }
+
+        /**
+         * Write a count as uint64, or as double in {@code floatField} if it is not a whole number,
+         * e.g. for sampled histograms.
+         */
+        void writeCount(int field, int floatField, double count) {
+            if (count >= 0 && count < 9.2e18 && count == Math.rint(count)) {
+                writeVarint(field, (long) count);
+            } else if (floatField > 0) {
+                writeDouble(floatField, count);
+            } else {
+                writeVarint(field, Math.max(0, Math.round(count)));
+            }
+        }
+
+        void writeString(int field, String s) {
+            tag(field, LENGTH_DELIMITED);
+            int length = utf8Length(s);
+            rawVarint(length);
+            ensure(length);
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buf[pos++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[pos++] = (byte) (0xC0 | (c >> 6));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        int cp = Character.toCodePoint(c, s.charAt(++i));
+                        buf[pos++] = (byte) (0xF0 | (cp >> 18));
+                        buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                        buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                        buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+                    } else {
+                        buf[pos++] = '?'; // Unpaired surrogate, as in String.getBytes().
+                    }
+                } else {
+                    buf[pos++] = (byte) (0xE0 | (c >> 12));
+                    buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        private static int utf8Length(String s) {
+            int length = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    length += 1;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isSurrogate(c)) {
+                    if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        length += 4;
+                        i++;
+                    } else {
+                        length += 1;
+                    }
+                } else {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+
+        void writeLabelPair(int field, String name, String value) {
+            int label = begin(field);
+            writeString(1, name);
+            writeString(2, value);
+            end(label);
+        }
+
+        void writeTimestamp(int field, long timestampMs) {
+            int timestamp = begin(field);
+            long seconds = Math.floorDiv(timestampMs, 1000L);
+            writeVarint(1, seconds);
+            writeVarint(2, Math.floorMod(timestampMs, 1000L) * 1000000L);
+            end(timestamp);
+        }
+
+        void writeExemplar(int field, Exemplar exemplar) {
+            int message = begin(field);
+            for (int i = 0; i < exemplar.getNumberOfLabels(); i++) {
+                writeLabelPair(1, exemplar.getLabelName(i), exemplar.getLabelValue(i));
+            }
+            writeDouble(2, exemplar.getValue());
+            if (exemplar.getTimestampMs() != null) {
+                writeTimestamp(3, exemplar.getTimestampMs());
+            }
+            end(message);
+        }
+
+        /**
+         * Start a nested message.
+         *
+         * @return the position to pass to {@link #end(int)}.
+         */
+        int begin(int field) {
+            tag(field, LENGTH_DELIMITED);
+            return beginDelimited();
+        }
+
+        /**
+         * Start a message that is only prefixed by its length, without a tag.
+         */
+        int beginDelimited() {
+            ensure(5);
+            int start = pos;
+            pos += 5;
+            return start;
+        }
+
+        void end(int start) {
+            int length = pos - start - 5;
+            int lengthSize = 1;
+            for (int v = length >>> 7; v != 0; v >>>= 7) {
+                lengthSize++;
+            }
+            if (lengthSize < 5) {
+                System.arraycopy(buf, start + 5, buf, start + lengthSize, length);
+            }
+            int i = start;
+            int v = length;
+            while ((v & ~0x7F) != 0) {
+                buf[i++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[i] = (byte) v;
+            pos = start + lengthSize + length;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+}
@@ -1,11 +1,16 @@
 package io.prometheus.client.exporter.common;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -43,6 +48,58 @@ public class TextFormat {
         return CONTENT_TYPE_004;
     }
 
+    /**
+     * Like {@link #chooseContentType(String)}, but if {@code protobuf} is true,
+     * {@link ProtobufFormat#CONTENT_TYPE_PROTOBUF} is chosen if the Accept header lists it before OpenMetrics.
+     * <p>
+     * Only use this if the response is written with {@link #writeFormat(String, OutputStream, Enumeration)},
+     * as protobuf can't be written to a {@link Writer}.
+     */
+    public static String chooseContentType(String acceptHeader, boolean protobuf) {
+        if (acceptHeader == null || !protobuf) {
+            return chooseContentType(acceptHeader);
+        }
+
+        for (String accepts : acceptHeader.split(",")) {
+            String[] params = accepts.split(";");
+            String mediaType = params[0].trim();
+            if ("application/openmetrics-text".equals(mediaType)) {
+                return CONTENT_TYPE_OPENMETRICS_100;
+            }
+            if ("application/vnd.google.protobuf".equals(mediaType)) {
+                boolean metricFamily = false;
+                boolean delimited = false;
+                for (int i = 1; i < params.length; i++) {
+                    String param = params[i].trim();
+                    metricFamily |= "proto=io.prometheus.client.MetricFamily".equals(param);
+                    delimited |= "encoding=delimited".equals(param);
+                }
+                if (metricFamily && delimited) {
+                    return ProtobufFormat.CONTENT_TYPE_PROTOBUF;
+                }
+            }
+        }
+
+        return CONTENT_TYPE_004;
+    }
+
+    /**
+     * Write out the given MetricFamilySamples in a format per the contentType, which may also be
+     * {@link ProtobufFormat#CONTENT_TYPE_PROTOBUF}.
+     * <p>
+     * {@code out} is flushed, but not closed.
+     */
+    public static void writeFormat(String contentType, OutputStream out, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException {
+        if (ProtobufFormat.CONTENT_TYPE_PROTOBUF.equals(contentType)) {
+            ProtobufFormat.write(out, mfs);
+            out.flush();
+            return;
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, Charset.forName("UTF-8")));
+        writeFormat(contentType, writer, mfs);
+        writer.flush();
+    }
+
     /**
      * Write out the given MetricFamilySamples in a format per the contentType.
      *
@@ -72,10 +129,90 @@ public class TextFormat {
         throw new IllegalArgumentException("Unknown contentType " + contentType);
     }
 
+    /**
+     * Like {@link #writeFormat(String, Writer, Enumeration)}, but adds {@code globalLabels} to all samples that don't
+     * have a label of the same name. This gives the same label sets as
+     * {@link ProtobufFormat#write(java.io.OutputStream, Enumeration, Map)}, whichever format is negotiated.
+     */
+    public static void writeFormat(String contentType, Writer writer, Enumeration<Collector.MetricFamilySamples> mfs, Map<String, String> globalLabels) throws IOException {
+        if (CONTENT_TYPE_004.equals(contentType)) {
+            write004(writer, mfs, globalLabels);
+            return;
+        }
+        if (CONTENT_TYPE_OPENMETRICS_100.equals(contentType)) {
+            writeOpenMetrics100(writer, mfs, globalLabels);
+            return;
+        }
+        throw new IllegalArgumentException("Unknown contentType " + contentType);
+    }
+
+    /**
+     * Global labels as {@code name="value"} pairs, escaped once per scrape rather than once per sample.
+     */
+    private static final class GlobalLabels {
+        private final String[] names;
+        private final String[] pairs;
+
+        private GlobalLabels(Map<String, String> globalLabels) throws IOException {
+            names = new String[globalLabels.size()];
+            pairs = new String[globalLabels.size()];
+            int i = 0;
+            for (Map.Entry<String, String> label : globalLabels.entrySet()) {
+                StringWriter pair = new StringWriter();
+                pair.write(label.getKey());
+                pair.write("=\"");
+                writeEscapedLabelValue(pair, label.getValue());
+                pair.write('"');
+                names[i] = label.getKey();
+                pairs[i++] = pair.toString();
+            }
+        }
+
+        /**
+         * @return null if there are no global labels.
+         */
+        static GlobalLabels of(Map<String, String> globalLabels) throws IOException {
+            return globalLabels == null || globalLabels.isEmpty() ? null : new GlobalLabels(globalLabels);
+        }
+
+        /**
+         * Write the global labels that the sample doesn't have itself. In text format 0.0.4 each label is
+         * followed by a comma, in OpenMetrics labels are separated by commas.
+         */
+        void write(Writer writer, List<String> sampleLabelNames, boolean trailingComma) throws IOException {
+            boolean first = sampleLabelNames.isEmpty();
+            for (int i = 0; i < names.length; i++) {
+                if (sampleLabelNames.contains(names[i])) {
+                    continue;
+                }
+                if (!trailingComma && !first) {
+                    writer.write(',');
+                }
+                writer.write(pairs[i]);
+                if (trailingComma) {
+                    writer.write(',');
+                }
+                first = false;
+            }
+        }
+    }
+
     /**
      * Write out the text version 0.0.4 of the given MetricFamilySamples.
      */
     public static void write004(Writer writer, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException {
+        write004(writer, mfs, (Map<String, String>) null);
+    }
+
+    /**
+     * Like {@link #write004(Writer, Enumeration)}, but adds {@code globalLabels} to all samples that don't have
+     * a label of the same name.
+     */
+    public static void write004(Writer writer, Enumeration<Collector.MetricFamilySamples> mfs, Map<String, String> globalLabels) throws IOException {
+        write004(writer, mfs, GlobalLabels.of(globalLabels));
+    }
+
+    private static void write004(Writer writer, Enumeration<Collector.MetricFamilySamples> mfs, GlobalLabels globalLabels) throws IOException {
         Map<String, Collector.MetricFamilySamples> omFamilies = new TreeMap<String, Collector.MetricFamilySamples>();
         /* See http://prometheus.io/docs/instrumenting/exposition_formats/
          * for the output format specification. */
@@ -123,7 +260,7 @@ public class TextFormat {
                     continue;
                 }
                 writer.write(sample.name);
-                if (sample.labelNames.size() > 0) {
+                if (sample.labelNames.size() > 0 || globalLabels != null) {
                     writer.write('{');
                     for (int i = 0; i < sample.labelNames.size(); ++i) {
                         writer.write(sample.labelNames.get(i));
@@ -131,6 +268,9 @@ public class TextFormat {
                         writeEscapedLabelValue(writer, sample.labelValues.get(i));
                         writer.write("\",");
                     }
+                    if (globalLabels != null) {
+                        globalLabels.write(writer, sample.labelNames, true);
+                    }
                     writer.write('}');
                 }
                 writer.write(' ');
@@ -144,7 +284,7 @@ public class TextFormat {
         }
         // Write out any OM-specific samples.
         if (!omFamilies.isEmpty()) {
-            write004(writer, Collections.enumeration(omFamilies.values()));
+            write004(writer, Collections.enumeration(omFamilies.values()), globalLabels);
         }
     }
 
@@ -288,6 +428,15 @@ public class TextFormat {
      * @since 0.10.0
      */
     public static void writeOpenMetrics100(Writer writer, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException {
+        writeOpenMetrics100(writer, mfs, null);
+    }
+
+    /**
+     * Like {@link #writeOpenMetrics100(Writer, Enumeration)}, but adds {@code globalLabels} to all samples that
+     * don't have a label of the same name.
+     */
+    public static void writeOpenMetrics100(Writer writer, Enumeration<Collector.MetricFamilySamples> mfs, Map<String, String> globalLabels) throws IOException {
+        GlobalLabels global = GlobalLabels.of(globalLabels);
         while (mfs.hasMoreElements()) {
             Collector.MetricFamilySamples metricFamilySamples = mfs.nextElement();
             String name = metricFamilySamples.name;
@@ -314,7 +463,7 @@ public class TextFormat {
 
             for (Collector.MetricFamilySamples.Sample sample : metricFamilySamples.samples) {
                 writer.write(sample.name);
-                if (sample.labelNames.size() > 0) {
+                if (sample.labelNames.size() > 0 || global != null) {
                     writer.write('{');
                     for (int i = 0; i < sample.labelNames.size(); ++i) {
                         if (i > 0) {
@@ -325,6 +474,9 @@ public class TextFormat {
                         writeEscapedLabelValue(writer, sample.labelValues.get(i));
                         writer.write("\"");
                     }
+                    if (global != null) {
+                        global.write(writer, sample.labelNames, false);
+                    }
                     writer.write('}');
                 }
                 writer.write(' ');
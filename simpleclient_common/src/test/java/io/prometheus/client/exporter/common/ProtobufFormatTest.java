@@ -0,0 +1,295 @@
+package io.prometheus.client.exporter.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import io.prometheus.client.Summary;
+
+public class ProtobufFormatTest {
+
+  CollectorRegistry registry;
+
+  @Before
+  public void setUp() {
+    registry = new CollectorRegistry();
+  }
+
+  /**
+   * A decoded protobuf field: a Long for varint and fixed64 fields, a byte[] for length-delimited fields.
+   */
+  static class Field {
+    final int number;
+    final Object value;
+
+    Field(int number, Object value) {
+      this.number = number;
+      this.value = value;
+    }
+
+    List<Field> message() {
+      byte[] bytes = (byte[]) value;
+      return parse(bytes, 0, bytes.length);
+    }
+
+    String string() {
+      return new String((byte[]) value, Charset.forName("UTF-8"));
+    }
+
+    double doubleValue() {
+      return Double.longBitsToDouble((Long) value);
+    }
+  }
+
+  static List<Field> parse(byte[] buf, int pos, int end) {
+    List<Field> result = new ArrayList<Field>();
+    int[] p = {pos};
+    while (p[0] < end) {
+      long tag = varint(buf, p);
+      int number = (int) (tag >>> 3);
+      switch ((int) (tag & 7)) {
+        case 0:
+          result.add(new Field(number, varint(buf, p)));
+          break;
+        case 1:
+          long bits = 0;
+          for (int i = 0; i < 8; i++) {
+            bits |= (buf[p[0]++] & 0xFFL) << (8 * i);
+          }
+          result.add(new Field(number, bits));
+          break;
+        case 2:
+          int length = (int) varint(buf, p);
+          byte[] bytes = new byte[length];
+          System.arraycopy(buf, p[0], bytes, 0, length);
+          p[0] += length;
+          result.add(new Field(number, bytes));
+          break;
+        default:
+          throw new IllegalStateException("Unexpected wire type " + (tag & 7));
+      }
+    }
+    return result;
+  }
+
+  static long varint(byte[] buf, int[] p) {
+    long result = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = buf[p[0]++];
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+  }
+
+  static List<Field> get(List<Field> fields, int number) {
+    List<Field> result = new ArrayList<Field>();
+    for (Field f : fields) {
+      if (f.number == number) {
+        result.add(f);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Split the length-delimited stream into MetricFamily messages.
+   */
+  List<List<Field>> families() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ProtobufFormat.write(out, registry.metricFamilySamples());
+    byte[] buf = out.toByteArray();
+    List<List<Field>> result = new ArrayList<List<Field>>();
+    int[] p = {0};
+    while (p[0] < buf.length) {
+      int length = (int) varint(buf, p);
+      result.add(parse(buf, p[0], p[0] + length));
+      p[0] += length;
+    }
+    return result;
+  }
+
+  @Test
+  public void testGaugeBytes() throws IOException {
+    Gauge.build("g", "h").register(registry).set(1);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ProtobufFormat.write(out, registry.metricFamilySamples());
+    byte[] expected = {0x15, 0x0a, 0x01, 'g', 0x12, 0x01, 'h', 0x18, 0x01, 0x22, 0x0b,
+        0x12, 0x09, 0x09, 0, 0, 0, 0, 0, 0, (byte) 0xf0, 0x3f};
+    assertArrayEquals(expected, out.toByteArray());
+  }
+
+  @Test
+  public void testCounter() throws IOException {
+    Counter.build("requests", "help").labelNames("path").register(registry).labels("/ä").inc(3);
+    List<List<Field>> families = families();
+    assertEquals(1, families.size());
+    List<Field> family = families.get(0);
+    assertEquals("requests_total", get(family, 1).get(0).string());
+    assertEquals(0L, get(family, 3).get(0).value);
+    List<Field> metric = get(family, 4).get(0).message();
+    List<Field> label = get(metric, 1).get(0).message();
+    assertEquals("path", get(label, 1).get(0).string());
+    assertEquals("/ä", get(label, 2).get(0).string());
+    List<Field> counter = get(metric, 3).get(0).message();
+    assertEquals(3.0, get(counter, 1).get(0).doubleValue(), .001);
+    // created_timestamp
+    assertEquals(1, get(counter, 3).size());
+  }
+
+  @Test
+  public void testHistogram() throws IOException {
+    Histogram h = Histogram.build("latency", "help").buckets(1, 2).register(registry);
+    h.observe(0.5);
+    h.observe(1.5);
+    h.observe(1.5);
+    List<Field> family = families().get(0);
+    assertEquals(4L, get(family, 3).get(0).value);
+    List<Field> histogram = get(get(family, 4).get(0).message(), 7).get(0).message();
+    assertEquals(3L, get(histogram, 1).get(0).value);
+    assertEquals(3.5, get(histogram, 2).get(0).doubleValue(), .001);
+    List<Field> buckets = get(histogram, 3);
+    assertEquals(3, buckets.size());
+    assertEquals(1L, get(buckets.get(0).message(), 1).get(0).value);
+    assertEquals(1.0, get(buckets.get(0).message(), 2).get(0).doubleValue(), .001);
+    assertEquals(3L, get(buckets.get(1).message(), 1).get(0).value);
+    assertEquals(Double.POSITIVE_INFINITY, get(buckets.get(2).message(), 2).get(0).doubleValue(), .001);
+  }
+
+  @Test
+  public void testSummary() throws IOException {
+    Summary s = Summary.build("size", "help").quantile(0.5, 0.01).register(registry);
+    s.observe(7);
+    List<Field> family = families().get(0);
+    assertEquals(2L, get(family, 3).get(0).value);
+    List<Field> summary = get(get(family, 4).get(0).message(), 4).get(0).message();
+    assertEquals(1L, get(summary, 1).get(0).value);
+    assertEquals(7.0, get(summary, 2).get(0).doubleValue(), .001);
+    List<Field> quantile = get(summary, 3).get(0).message();
+    assertEquals(0.5, get(quantile, 1).get(0).doubleValue(), .001);
+    assertEquals(7.0, get(quantile, 2).get(0).doubleValue(), .001);
+  }
+
+  @Test
+  public void testLongMessagesAndGlobalLabels() throws IOException {
+    StringBuilder help = new StringBuilder();
+    for (int i = 0; i < 300; i++) {
+      help.append('x');
+    }
+    Gauge g = Gauge.build("g", help.toString()).labelNames("l").register(registry);
+    for (int i = 0; i < 1000; i++) {
+      g.labels("value" + i).set(i);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ProtobufFormat.write(out, registry.metricFamilySamples(), Collections.singletonMap("env", "prod"));
+    byte[] buf = out.toByteArray();
+    int[] p = {0};
+    int length = (int) varint(buf, p);
+    assertEquals(buf.length, p[0] + length);
+    List<Field> family = parse(buf, p[0], buf.length);
+    assertEquals(help.toString(), get(family, 2).get(0).string());
+    List<Field> metrics = get(family, 4);
+    assertEquals(1000, metrics.size());
+    double sum = 0;
+    for (Field metric : metrics) {
+      List<Field> fields = metric.message();
+      assertEquals(2, get(fields, 1).size());
+      assertEquals("env", get(get(fields, 1).get(1).message(), 1).get(0).string());
+      sum += get(get(fields, 2).get(0).message(), 1).get(0).doubleValue();
+    }
+    assertEquals(499500.0, sum, .001);
+  }
+
+  /**
+   * The sorted label pairs of each sample in a text format exposition, ignoring _created samples.
+   */
+  static Set<String> textLabelSets(String exposition) {
+    Set<String> result = new TreeSet<String>();
+    for (String line : exposition.split("\n")) {
+      if (line.startsWith("#") || line.isEmpty()) {
+        continue;
+      }
+      String name = line.split("[{ ]")[0];
+      if (name.endsWith("_created")) {
+        continue;
+      }
+      Set<String> labels = new TreeSet<String>();
+      int open = line.indexOf('{');
+      if (open != -1) {
+        for (String pair : line.substring(open + 1, line.indexOf('}')).split(",")) {
+          if (!pair.isEmpty()) {
+            labels.add(pair);
+          }
+        }
+      }
+      result.add(labels.toString());
+    }
+    return result;
+  }
+
+  @Test
+  public void testGlobalLabelsSameInAllFormats() throws IOException {
+    Gauge.build("g", "h").register(registry).set(1);
+    Counter.build("c", "h").labelNames("l").register(registry).labels("x").inc();
+    Map<String, String> globalLabels = new TreeMap<String, String>();
+    globalLabels.put("env", "prod");
+    globalLabels.put("l", "global");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ProtobufFormat.write(out, registry.metricFamilySamples(), globalLabels);
+    byte[] buf = out.toByteArray();
+    Set<String> protobufLabelSets = new TreeSet<String>();
+    int[] p = {0};
+    while (p[0] < buf.length) {
+      int length = (int) varint(buf, p);
+      for (Field metric : get(parse(buf, p[0], p[0] + length), 4)) {
+        Set<String> labels = new TreeSet<String>();
+        for (Field label : get(metric.message(), 1)) {
+          labels.add(get(label.message(), 1).get(0).string() + "=\"" + get(label.message(), 2).get(0).string() + "\"");
+        }
+        protobufLabelSets.add(labels.toString());
+      }
+      p[0] += length;
+    }
+    assertEquals(new TreeSet<String>(Arrays.asList("[env=\"prod\", l=\"global\"]", "[env=\"prod\", l=\"x\"]")),
+        protobufLabelSets);
+
+    for (String contentType : new String[]{TextFormat.CONTENT_TYPE_004, TextFormat.CONTENT_TYPE_OPENMETRICS_100}) {
+      StringWriter writer = new StringWriter();
+      TextFormat.writeFormat(contentType, writer, registry.metricFamilySamples(), globalLabels);
+      assertEquals(contentType, protobufLabelSets, textLabelSets(writer.toString()));
+    }
+  }
+
+  @Test
+  public void testChooseContentType() {
+    String prometheusProto = "application/vnd.google.protobuf;proto=io.prometheus.client.MetricFamily;encoding=delimited;q=0.5,"
+        + "application/openmetrics-text;version=1.0.0;q=0.4,text/plain;version=0.0.4;q=0.3";
+    assertEquals(ProtobufFormat.CONTENT_TYPE_PROTOBUF, TextFormat.chooseContentType(prometheusProto, true));
+    assertEquals(TextFormat.CONTENT_TYPE_OPENMETRICS_100, TextFormat.chooseContentType(prometheusProto, false));
+    assertEquals(TextFormat.CONTENT_TYPE_OPENMETRICS_100, TextFormat.chooseContentType(
+        "application/openmetrics-text;version=1.0.0,application/vnd.google.protobuf;proto=io.prometheus.client.MetricFamily;encoding=delimited", true));
+    assertEquals(TextFormat.CONTENT_TYPE_004, TextFormat.chooseContentType("application/vnd.google.protobuf;encoding=text", true));
+    assertEquals(TextFormat.CONTENT_TYPE_004, TextFormat.chooseContentType(null, true));
+  }
+}
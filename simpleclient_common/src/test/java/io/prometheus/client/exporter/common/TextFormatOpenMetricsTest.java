@@ -5,6 +5,8 @@ import static org.junit.Assert.assertEquals;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Before;
@@ -164,6 +166,28 @@ public class TextFormatOpenMetricsTest {
                  + "# EOF\n", writer.toString());
   }
 
+  @Test
+  public void testGlobalLabels() throws IOException {
+    Gauge noLabels = Gauge.build().name("nolabels").help("help").create();
+    noLabels.inc();
+    Gauge labels = Gauge.build().name("labels").help("help").labelNames("l").create();
+    labels.labels("a").inc();
+    Gauge env = Gauge.build().name("env").help("help").labelNames("env").create();
+    env.labels("dev").inc();
+    TextFormat.writeOpenMetrics100(writer, Collections.enumeration(
+        Arrays.asList(noLabels.collect().get(0), labels.collect().get(0), env.collect().get(0))), Collections.singletonMap("env", "prod"));
+    assertEquals("# TYPE nolabels gauge\n"
+                 + "# HELP nolabels help\n"
+                 + "nolabels{env=\"prod\"} 1.0\n"
+                 + "# TYPE labels gauge\n"
+                 + "# HELP labels help\n"
+                 + "labels{l=\"a\",env=\"prod\"} 1.0\n"
+                 + "# TYPE env gauge\n"
+                 + "# HELP env help\n"
+                 + "env{env=\"dev\"} 1.0\n"
+                 + "# EOF\n", writer.toString());
+  }
+
   @Test
   public void testLabelValuesEscaped() throws IOException {
     Gauge labels = Gauge.build().name("labels").help("help").labelNames("l").register(registry);
@@ -5,6 +5,7 @@ import static org.junit.Assert.assertEquals;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Arrays;
 import java.util.List;
 
@@ -212,6 +213,27 @@ public class TextFormatTest {
                  + "labels{l=\"a\",} 1.0\n", writer.toString());
   }
 
+  @Test
+  public void testGlobalLabels() throws IOException {
+    Gauge noLabels = Gauge.build().name("nolabels").help("help").create();
+    noLabels.inc();
+    Gauge labels = Gauge.build().name("labels").help("help").labelNames("l").create();
+    labels.labels("a").inc();
+    Gauge env = Gauge.build().name("env").help("help").labelNames("env").create();
+    env.labels("dev").inc();
+    TextFormat.write004(writer, Collections.enumeration(
+        Arrays.asList(noLabels.collect().get(0), labels.collect().get(0), env.collect().get(0))), Collections.singletonMap("env", "prod"));
+    assertEquals("# HELP nolabels help\n"
+                 + "# TYPE nolabels gauge\n"
+                 + "nolabels{env=\"prod\",} 1.0\n"
+                 + "# HELP labels help\n"
+                 + "# TYPE labels gauge\n"
+                 + "labels{l=\"a\",env=\"prod\",} 1.0\n"
+                 + "# HELP env help\n"
+                 + "# TYPE env gauge\n"
+                 + "env{env=\"dev\",} 1.0\n", writer.toString());
+  }
+
   @Test
   public void testLabelValuesEscaped() throws IOException {
     Gauge labels = Gauge.build().name("labels").help("help").labelNames("l").register(registry);
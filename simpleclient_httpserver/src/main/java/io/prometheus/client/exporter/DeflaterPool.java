@@ -0,0 +1,89 @@
+package io.prometheus.client.exporter;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Reuses {@link Deflater}s across gzip responses.
+ * <p>
+ * Each Deflater holds native memory that is only freed by {@link Deflater#end()} or at finalization,
+ * so creating one per scrape churns native memory. Idle deflaters are kept up to a small limit,
+ * any beyond that are ended straight away.
+ */
+final class DeflaterPool {
+
+  private static final int MAX_IDLE = 8;
+
+  private final int level;
+  private final int strategy;
+  private final ConcurrentLinkedQueue<Deflater> idle = new ConcurrentLinkedQueue<Deflater>();
+  private final AtomicInteger idleCount = new AtomicInteger();
+  private volatile boolean closed;
+
+  /**
+   * @param level    the compression level, {@link Deflater#DEFAULT_COMPRESSION} or 0-9.
+   * @param strategy {@link Deflater#DEFAULT_STRATEGY}, {@link Deflater#FILTERED} or {@link Deflater#HUFFMAN_ONLY}.
+   */
+  DeflaterPool(int level, int strategy) {
+    if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+      throw new IllegalArgumentException("Invalid compression level: " + level);
+    }
+    if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED && strategy != Deflater.HUFFMAN_ONLY) {
+      throw new IllegalArgumentException("Invalid compression strategy: " + strategy);
+    }
+    this.level = level;
+    this.strategy = strategy;
+  }
+
+  int getLevel() {
+    return level;
+  }
+
+  int getStrategy() {
+    return strategy;
+  }
+
+  /**
+   * @return a Deflater producing raw deflate data, as gzip framing is written by the caller.
+   */
+  Deflater acquire() {
+    Deflater deflater = idle.poll();
+    if (deflater != null) {
+      idleCount.decrementAndGet();
+      return deflater;
+    }
+    deflater = new Deflater(level, true);
+    deflater.setStrategy(strategy);
+    return deflater;
+  }
+
+  void release(Deflater deflater) {
+    deflater.reset();
+    if (!closed && idleCount.incrementAndGet() <= MAX_IDLE) {
+      idle.offer(deflater);
+      if (closed) {
+        drain();
+      }
+    } else {
+      idleCount.decrementAndGet();
+      deflater.end();
+    }
+  }
+
+  /**
+   * End all idle deflaters. Deflaters released after this are ended rather than pooled.
+   */
+  void close() {
+    closed = true;
+    drain();
+  }
+
+  private void drain() {
+    Deflater deflater;
+    while ((deflater = idle.poll()) != null) {
+      idleCount.decrementAndGet();
+      deflater.end();
+    }
+  }
+}
@@ -1,27 +1,44 @@
 package io.prometheus.client.exporter;
 
 import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.ProtobufFormat;
 import io.prometheus.client.exporter.common.TextFormat;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.URLDecoder;
 import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -50,8 +67,12 @@ public class HTTPServer {
     }
 
     private static class LocalByteArray extends ThreadLocal<ByteArrayOutputStream> {
+        // Number of buffers allocated so far, for tests.
+        final AtomicInteger allocated = new AtomicInteger();
+
         @Override
         protected ByteArrayOutputStream initialValue() {
+            allocated.incrementAndGet();
             return new ByteArrayOutputStream(1 << 20);
         }
     }
@@ -63,16 +84,20 @@ public class HTTPServer {
         private final CollectorRegistry registry;
         private final LocalByteArray response = new LocalByteArray();
         private final static String HEALTHY_RESPONSE = "Exporter is Healthy.";
-        private String tagsString;
+        private final static int STREAMING_BUFFER_SIZE = 8192;
+        private volatile DeflaterPool deflaterPool = new DeflaterPool(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+        private volatile boolean cacheCompressedResponse;
+        private final AtomicReference<CompressedResponse> compressedResponse = new AtomicReference<CompressedResponse>();
+        private volatile boolean streaming;
+        private volatile int maxRetainedBufferSize = Integer.MAX_VALUE;
+        private volatile long coalesceWindowNanos;
+        private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+        private volatile Semaphore scrapeLimit;
+        private volatile boolean threadLocalBuffers = true;
+        private volatile int lastResponseSize;
 
         HTTPMetricHandler(CollectorRegistry registry) {
             this.registry = registry;
-            Map<String, String> tags = registry.getGlobalTags();
-            if (tags != null && tags.size() > 0) {
-                tagsString = tags.entrySet().stream().map((e) ->
-                        e.getKey() + "=\"" + e.getValue()+"\""
-                ).collect(Collectors.joining(","));
-            }
         }
 
         @Override
@@ -80,28 +105,68 @@ public class HTTPServer {
             String query = t.getRequestURI().getRawQuery();
 
             String contextPath = t.getHttpContext().getPath();
-            ByteArrayOutputStream response = this.response.get();
-            response.reset();
-            OutputStreamWriter osw = new OutputStreamWriter(response, Charset.forName("UTF-8"));
+            if (!"/-/healthy".equals(contextPath) && !"/debug/exemplars".equals(contextPath)) {
+                try {
+                    if (streaming) {
+                        handleStreaming(t, query);
+                    } else if (coalesceWindowNanos > 0) {
+                        handleCoalesced(t, query);
+                    } else {
+                        handleBuffered(t, query, contextPath);
+                    }
+                } catch (ScrapeLimitExceededException e) {
+                    t.sendResponseHeaders(HttpURLConnection.HTTP_UNAVAILABLE, -1);
+                    t.close();
+                }
+                return;
+            }
+            handleBuffered(t, query, contextPath);
+        }
+
+        private void handleBuffered(HttpExchange t, String query, String contextPath) throws IOException {
+            ByteArrayOutputStream response;
+            if (threadLocalBuffers) {
+                response = this.response.get();
+                response.reset();
+            } else {
+                response = new ByteArrayOutputStream(Math.max(lastResponseSize, STREAMING_BUFFER_SIZE));
+            }
             if ("/-/healthy".equals(contextPath)) {
+                OutputStreamWriter osw = new OutputStreamWriter(response, Charset.forName("UTF-8"));
                 osw.write(HEALTHY_RESPONSE);
+                osw.close();
+            } else if ("/debug/exemplars".equals(contextPath)) {
+                // All exemplars kept by histograms with an exemplar reservoir, not only the largest per bucket.
+                t.getResponseHeaders().set("Content-Type", TextFormat.CONTENT_TYPE_OPENMETRICS_100);
+                OutputStreamWriter osw = new OutputStreamWriter(response, Charset.forName("UTF-8"));
+                TextFormat.writeOpenMetrics100(osw, Collections.enumeration(registry.exemplarReservoirSamples()));
+                osw.close();
             } else {
-                String contentType = TextFormat.chooseContentType(t.getRequestHeaders().getFirst("Accept"));
+                String contentType = TextFormat.chooseContentType(t.getRequestHeaders().getFirst("Accept"), true);
                 t.getResponseHeaders().set("Content-Type", contentType);
-                TextFormat.writeFormat(contentType, osw,
-                        registry.filteredMetricFamilySamples(parseQuery(query)),tagsString);
+                Semaphore limit = acquireScrape();
+                try {
+                    write(contentType, parseQuery(query), response);
+                } finally {
+                    releaseScrape(limit);
+                }
             }
 
-            osw.close();
-
             if (shouldUseCompression(t)) {
                 t.getResponseHeaders().set("Content-Encoding", "gzip");
-                t.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
-                final GZIPOutputStream os = new GZIPOutputStream(t.getResponseBody());
-                try {
-                    response.writeTo(os);
-                } finally {
-                    os.close();
+                if (cacheCompressedResponse) {
+                    byte[] body = compress(response);
+                    t.getResponseHeaders().set("Content-Length", String.valueOf(body.length));
+                    t.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+                    t.getResponseBody().write(body);
+                } else {
+                    t.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+                    final PooledGZIPOutputStream os = new PooledGZIPOutputStream(t.getResponseBody(), deflaterPool);
+                    try {
+                        response.writeTo(os);
+                    } finally {
+                        os.close();
+                    }
                 }
             } else {
                 t.getResponseHeaders().set("Content-Length",
@@ -110,8 +175,324 @@ public class HTTPServer {
                 response.writeTo(t.getResponseBody());
             }
             t.close();
+            if (!threadLocalBuffers) {
+                lastResponseSize = response.size();
+            } else if (response.size() > maxRetainedBufferSize) {
+                // Let a buffer that grew for an unusually large response be garbage collected.
+                this.response.remove();
+            }
+        }
+
+        private void write(String contentType, Set<String> names, OutputStream out) throws IOException {
+            if (ProtobufFormat.CONTENT_TYPE_PROTOBUF.equals(contentType)) {
+                ProtobufFormat.write(out, registry.filteredMetricFamilySamples(names), registry.getGlobalTags());
+            } else {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, Charset.forName("UTF-8")), STREAMING_BUFFER_SIZE);
+                TextFormat.writeFormat(contentType, writer, registry.filteredMetricFamilySamples(names), registry.getGlobalTags());
+                writer.flush();
+            }
+        }
+
+        /**
+         * @return the semaphore to pass to {@link #releaseScrape(Semaphore)}, or null if there is no limit.
+         * @throws ScrapeLimitExceededException if {@link #setMaxConcurrentScrapes(int)} scrapes are already running.
+         */
+        private Semaphore acquireScrape() throws ScrapeLimitExceededException {
+            Semaphore limit = scrapeLimit;
+            if (limit != null && !limit.tryAcquire()) {
+                throw new ScrapeLimitExceededException();
+            }
+            return limit;
+        }
+
+        private void releaseScrape(Semaphore limit) {
+            if (limit != null) {
+                limit.release();
+            }
+        }
+
+        /**
+         * Share one collection and encoding among identical requests, see {@link HTTPServer#setCoalesceWindowMillis(long)}.
+         */
+        private void handleCoalesced(HttpExchange t, String query) throws IOException {
+            String contentType = TextFormat.chooseContentType(t.getRequestHeaders().getFirst("Accept"), true);
+            Set<String> names = parseQuery(query);
+            Flight flight = joinFlight(contentType + " " + new TreeSet<String>(names), contentType, names);
+            byte[] body = flight.get();
+            t.getResponseHeaders().set("Content-Type", contentType);
+            if (shouldUseCompression(t)) {
+                t.getResponseHeaders().set("Content-Encoding", "gzip");
+                body = flight.gzip(body, deflaterPool);
+            }
+            t.getResponseHeaders().set("Content-Length", String.valueOf(body.length));
+            t.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+            t.getResponseBody().write(body);
+            t.close();
+        }
+
+        /**
+         * Return the flight for {@code key} if it is still running or finished within the window,
+         * otherwise start a new one and run it on this thread.
+         */
+        private Flight joinFlight(String key, final String contentType, final Set<String> names) {
+            long windowNanos = coalesceWindowNanos;
+            while (true) {
+                long now = System.nanoTime();
+                Flight flight = flights.get(key);
+                if (flight != null && !flight.isExpired(now, windowNanos)) {
+                    return flight;
+                }
+                Flight fresh = new Flight(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        Semaphore limit = acquireScrape();
+                        try {
+                            ByteArrayOutputStream out = new ByteArrayOutputStream(STREAMING_BUFFER_SIZE);
+                            write(contentType, names, out);
+                            return out.toByteArray();
+                        } finally {
+                            releaseScrape(limit);
+                        }
+                    }
+                });
+                if (flight == null ? flights.putIfAbsent(key, fresh) == null : flights.replace(key, flight, fresh)) {
+                    for (Iterator<Flight> it = flights.values().iterator(); it.hasNext(); ) {
+                        if (it.next().isExpired(now, windowNanos)) {
+                            it.remove();
+                        }
+                    }
+                    fresh.run();
+                    return fresh;
+                }
+            }
+        }
+
+        /**
+         * Write the response as it is encoded, using chunked transfer encoding.
+         * <p>
+         * Memory use is bounded by the buffer size rather than the response size, but the status is sent
+         * before collection. If collection fails part way through, neither the gzip stream nor the chunked
+         * body are finished, and the exception makes the JDK server drop the connection, so that the scraper
+         * sees a failed scrape rather than a complete looking but truncated one.
+         */
+        private void handleStreaming(HttpExchange t, String query) throws IOException {
+            String contentType = TextFormat.chooseContentType(t.getRequestHeaders().getFirst("Accept"), true);
+            Semaphore limit = acquireScrape();
+            t.getResponseHeaders().set("Content-Type", contentType);
+            OutputStream os = t.getResponseBody();
+            boolean success = false;
+            try {
+                if (shouldUseCompression(t)) {
+                    t.getResponseHeaders().set("Content-Encoding", "gzip");
+                    t.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+                    os = new PooledGZIPOutputStream(os, deflaterPool);
+                } else {
+                    t.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+                }
+                write(contentType, parseQuery(query), os);
+                os.close();
+                success = true;
+            } catch (RuntimeException e) {
+                // The JDK server answers some runtime exceptions with an error response, which would be
+                // appended to the partial body. It drops the connection for an IOException.
+                throw new IOException("Failed to write metrics", e);
+            } catch (Error e) {
+                throw new IOException("Failed to write metrics", e);
+            } finally {
+                releaseScrape(limit);
+                if (success) {
+                    t.close();
+                } else if (os instanceof PooledGZIPOutputStream) {
+                    ((PooledGZIPOutputStream) os).abandon();
+                }
+            }
+        }
+
+        /**
+         * Gzip the response, reusing the previous result if the uncompressed content is identical.
+         * This is the common case when several Prometheus servers scrape the same target at once.
+         */
+        private byte[] compress(ByteArrayOutputStream response) throws IOException {
+            final MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+            response.writeTo(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    digest.update((byte) b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    digest.update(b, off, len);
+                }
+            });
+            byte[] hash = digest.digest();
+            DeflaterPool pool = deflaterPool;
+            CompressedResponse cached = compressedResponse.get();
+            if (cached != null && cached.pool == pool && Arrays.equals(cached.hash, hash)) {
+                return cached.body;
+            }
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(response.size() / 4, 32));
+            PooledGZIPOutputStream os = new PooledGZIPOutputStream(compressed, pool);
+            try {
+                response.writeTo(os);
+            } finally {
+                os.close();
+            }
+            byte[] body = compressed.toByteArray();
+            compressedResponse.set(new CompressedResponse(pool, hash, body));
+            return body;
+        }
+
+        void setCompression(int level, int strategy) {
+            DeflaterPool previous = deflaterPool;
+            deflaterPool = new DeflaterPool(level, strategy);
+            previous.close();
+        }
+
+        void setCacheCompressedResponse(boolean cacheCompressedResponse) {
+            this.cacheCompressedResponse = cacheCompressedResponse;
+            if (!cacheCompressedResponse) {
+                compressedResponse.set(null);
+            }
+        }
+
+        void setStreaming(boolean streaming) {
+            this.streaming = streaming;
+        }
+
+        void setMaxRetainedBufferSize(int maxRetainedBufferSize) {
+            if (maxRetainedBufferSize < 0) {
+                throw new IllegalArgumentException("maxRetainedBufferSize must not be negative");
+            }
+            this.maxRetainedBufferSize = maxRetainedBufferSize;
+        }
+
+        int allocatedBuffers() {
+            return response.allocated.get();
+        }
+
+        void setCoalesceWindowMillis(long coalesceWindowMillis) {
+            if (coalesceWindowMillis < 0) {
+                throw new IllegalArgumentException("coalesceWindowMillis must not be negative");
+            }
+            coalesceWindowNanos = TimeUnit.MILLISECONDS.toNanos(coalesceWindowMillis);
+            flights.clear();
+        }
+
+        void setMaxConcurrentScrapes(int maxConcurrentScrapes) {
+            if (maxConcurrentScrapes < 0) {
+                throw new IllegalArgumentException("maxConcurrentScrapes must not be negative");
+            }
+            scrapeLimit = maxConcurrentScrapes == 0 ? null : new Semaphore(maxConcurrentScrapes);
+        }
+
+        /**
+         * With a thread per request, per-thread buffers are never reused, so allocate one per request
+         * sized after the previous response instead.
+         */
+        void setThreadLocalBuffers(boolean threadLocalBuffers) {
+            this.threadLocalBuffers = threadLocalBuffers;
+        }
+
+        void close() {
+            flights.clear();
+            compressedResponse.set(null);
+            deflaterPool.close();
+        }
+    }
+
+    /**
+     * A collection shared by identical requests. The body is gzipped at most once, when first needed.
+     */
+    private static class Flight {
+        private final FutureTask<byte[]> task;
+        private volatile long completedAt;
+        private volatile boolean failed;
+        private byte[] gzipped;
+
+        Flight(final Callable<byte[]> callable) {
+            this.task = new FutureTask<byte[]>(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    try {
+                        return callable.call();
+                    } catch (Exception e) {
+                        failed = true;
+                        throw e;
+                    } finally {
+                        completedAt = System.nanoTime();
+                    }
+                }
+            });
+        }
+
+        void run() {
+            task.run();
+        }
+
+        /**
+         * A failed flight is expired as soon as it is done, so that the next request retries.
+         */
+        boolean isExpired(long now, long windowNanos) {
+            return task.isDone() && (failed || now - completedAt > windowNanos);
+        }
+
+        byte[] get() throws IOException {
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException(cause);
+            }
         }
 
+        synchronized byte[] gzip(byte[] body, DeflaterPool pool) throws IOException {
+            if (gzipped == null) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(body.length / 4, 32));
+                PooledGZIPOutputStream os = new PooledGZIPOutputStream(compressed, pool);
+                try {
+                    os.write(body);
+                } finally {
+                    os.close();
+                }
+                gzipped = compressed.toByteArray();
+            }
+            return gzipped;
+        }
+    }
+
+    /**
+     * Thrown when {@link #setMaxConcurrentScrapes(int)} scrapes are already running, answered with 503.
+     */
+    private static class ScrapeLimitExceededException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static class CompressedResponse {
+        private final DeflaterPool pool;
+        private final byte[] hash;
+        private final byte[] body;
+
+        CompressedResponse(DeflaterPool pool, byte[] hash, byte[] body) {
+            this.pool = pool;
+            this.hash = hash;
+            this.body = body;
+        }
     }
 
     protected static boolean shouldUseCompression(HttpExchange exchange) {
@@ -170,23 +551,212 @@ public class HTTPServer {
         }
     }
 
+    /**
+     * Builder for {@link HTTPServer}, for settings that can't be changed once the server has started.
+     * <p>
+     * Example Usage:
+     * <pre>
+     * {@code
+     * HTTPServer server = new HTTPServer.Builder()
+     *     .withPort(1234)
+     *     .withExecutorService(Executors.newFixedThreadPool(10))
+     *     .withBacklog(50)
+     *     .build();
+     * }
+     * </pre>
+     */
+    public static class Builder {
+        private int port = 0;
+        private String hostname = null;
+        private InetSocketAddress inetSocketAddress = null;
+        private HttpServer httpServer = null;
+        private CollectorRegistry registry = CollectorRegistry.defaultRegistry;
+        private boolean daemon = false;
+        private int backlog = 3;
+        private ExecutorService executorService = null;
+        private int threads = 5;
+        private boolean virtualThreads = false;
+        private int maxRequestTimeSeconds = -1;
+        private int maxResponseTimeSeconds = -1;
+
+        /**
+         * Port to bind to. Default is 0, which picks an unused port.
+         */
+        public Builder withPort(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * Host name to bind to. Default is the wildcard address.
+         */
+        public Builder withHostname(String hostname) {
+            this.hostname = hostname;
+            return this;
+        }
+
+        /**
+         * Address to bind to, instead of {@link #withPort(int)} and {@link #withHostname(String)}.
+         */
+        public Builder withInetSocketAddress(InetSocketAddress address) {
+            this.inetSocketAddress = address;
+            return this;
+        }
+
+        /**
+         * An already bound {@link HttpServer} to use. The address and backlog settings are then ignored.
+         */
+        public Builder withHttpServer(HttpServer httpServer) {
+            this.httpServer = httpServer;
+            return this;
+        }
+
+        /**
+         * Registry to serve. Default is {@link CollectorRegistry#defaultRegistry}.
+         */
+        public Builder withRegistry(CollectorRegistry registry) {
+            this.registry = registry;
+            return this;
+        }
+
+        /**
+         * Whether the server threads are daemon threads. Default is false.
+         */
+        public Builder withDaemonThreads(boolean daemon) {
+            this.daemon = daemon;
+            return this;
+        }
+
+        /**
+         * Maximum number of queued incoming connections, see {@link HttpServer#bind(InetSocketAddress, int)}.
+         * Default is 3.
+         */
+        public Builder withBacklog(int backlog) {
+            this.backlog = backlog;
+            return this;
+        }
+
+        /**
+         * Executor to handle requests on. It is not shut down when the server is stopped.
+         * Default is a fixed pool of {@link #withThreads(int)} threads.
+         */
+        public Builder withExecutorService(ExecutorService executorService) {
+            this.executorService = executorService;
+            return this;
+        }
+
+        /**
+         * Size of the default thread pool. Default is 5.
+         */
+        public Builder withThreads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Handle each request on a new virtual thread, so that slow clients can't hold up health checks
+         * or other scrapes. Requires Java 21 or later, on earlier versions {@link #build()} throws
+         * an {@link IllegalStateException}. Virtual threads are always daemon threads.
+         */
+        public Builder withVirtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * Maximum time to receive a request and to send a response, after which the connection is closed.
+         * Defaults are 60 and 600 seconds.
+         * <p>
+         * These are the {@code sun.net.httpserver.maxReqTime} and {@code sun.net.httpserver.maxRspTime}
+         * settings of the JDK HTTP server, which apply to the whole JVM and are read when the first
+         * server is created. They only take effect if this is the first server in the JVM.
+         */
+        public Builder withRequestTimeouts(int maxRequestTimeSeconds, int maxResponseTimeSeconds) {
+            this.maxRequestTimeSeconds = maxRequestTimeSeconds;
+            this.maxResponseTimeSeconds = maxResponseTimeSeconds;
+            return this;
+        }
+
+        public HTTPServer build() throws IOException {
+            if (executorService != null && virtualThreads) {
+                throw new IllegalStateException("Virtual threads can't be used with a custom executor service");
+            }
+            if (threads <= 0) {
+                throw new IllegalStateException("threads must be positive");
+            }
+            if (maxRequestTimeSeconds != -1 || maxResponseTimeSeconds != -1) {
+                if (maxRequestTimeSeconds <= 0 || maxResponseTimeSeconds <= 0) {
+                    throw new IllegalStateException("Request timeouts must be positive");
+                }
+                System.setProperty("sun.net.httpserver.maxReqTime", String.valueOf(maxRequestTimeSeconds));
+                System.setProperty("sun.net.httpserver.maxRspTime", String.valueOf(maxResponseTimeSeconds));
+            }
+            ExecutorService executor = executorService;
+            boolean shutdownExecutor = executor == null;
+            if (virtualThreads) {
+                executor = newVirtualThreadPerTaskExecutor();
+            } else if (executor == null) {
+                executor = Executors.newFixedThreadPool(threads, NamedDaemonThreadFactory.defaultThreadFactory(daemon));
+            }
+            HttpServer server = httpServer;
+            if (server == null) {
+                InetSocketAddress address = inetSocketAddress;
+                if (address == null) {
+                    address = hostname == null ? new InetSocketAddress(port) : new InetSocketAddress(hostname, port);
+                }
+                server = HttpServer.create(address, backlog);
+            }
+            return new HTTPServer(server, registry, daemon, executor, shutdownExecutor, !virtualThreads);
+        }
+    }
+
+    /**
+     * Calls {@code Executors.newVirtualThreadPerTaskExecutor()} reflectively, so that this still runs on Java 8.
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        Method method;
+        try {
+            method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Virtual threads require Java 21 or later");
+        }
+        try {
+            return (ExecutorService) method.invoke(null);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Failed to create virtual thread executor", e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Failed to create virtual thread executor", e.getCause());
+        }
+    }
+
     protected final HttpServer server;
     protected final ExecutorService executorService;
+    private final HTTPMetricHandler handler;
+    private final boolean shutdownExecutor;
 
     /**
      * Start a HTTP server serving Prometheus metrics from the given registry using the given {@link HttpServer}.
      * The {@code httpServer} is expected to already be bound to an address
      */
     public HTTPServer(HttpServer httpServer, CollectorRegistry registry, boolean daemon) throws IOException {
+        this(httpServer, registry, daemon,
+                Executors.newFixedThreadPool(5, NamedDaemonThreadFactory.defaultThreadFactory(daemon)), true, true);
+    }
+
+    private HTTPServer(HttpServer httpServer, CollectorRegistry registry, boolean daemon,
+                       ExecutorService executorService, boolean shutdownExecutor, boolean threadLocalBuffers) throws IOException {
         if (httpServer.getAddress() == null)
             throw new IllegalArgumentException("HttpServer hasn't been bound to an address");
 
         server = httpServer;
-        HttpHandler mHandler = new HTTPMetricHandler(registry);
-        server.createContext("/", mHandler);
-        server.createContext("/metrics", mHandler);
-        server.createContext("/-/healthy", mHandler);
-        executorService = Executors.newFixedThreadPool(5, NamedDaemonThreadFactory.defaultThreadFactory(daemon));
+        handler = new HTTPMetricHandler(registry);
+        handler.setThreadLocalBuffers(threadLocalBuffers);
+        server.createContext("/", handler);
+        server.createContext("/metrics", handler);
+        server.createContext("/-/healthy", handler);
+        server.createContext("/debug/exemplars", handler);
+        this.executorService = executorService;
+        this.shutdownExecutor = shutdownExecutor;
         server.setExecutor(executorService);
         start(daemon);
     }
@@ -260,12 +830,81 @@ public class HTTPServer {
         }
     }
 
+    /**
+     * Set the gzip compression level and strategy, see {@link Deflater#setLevel(int)} and
+     * {@link Deflater#setStrategy(int)}.
+     * <p>
+     * Large targets that are scraped often can trade response size for CPU time with
+     * {@link Deflater#BEST_SPEED} or {@link Deflater#HUFFMAN_ONLY}.
+     * The default is {@link Deflater#DEFAULT_COMPRESSION} and {@link Deflater#DEFAULT_STRATEGY}.
+     */
+    public void setCompression(int level, int strategy) {
+        handler.setCompression(level, strategy);
+    }
+
+    /**
+     * Keep the last gzip compressed response, and send it again if the next response would be identical.
+     * <p>
+     * This saves compressing the same content for each of several Prometheus servers scraping concurrently,
+     * at the cost of buffering the compressed response and hashing each response. Off by default.
+     */
+    public void setCacheCompressedResponse(boolean cacheCompressedResponse) {
+        handler.setCacheCompressedResponse(cacheCompressedResponse);
+    }
+
+    /**
+     * Write metrics to the connection as they are encoded, with chunked transfer encoding,
+     * rather than buffering the whole response first.
+     * <p>
+     * This bounds memory use for very large targets. However, the response can't have a Content-Length,
+     * {@link #setCacheCompressedResponse(boolean)} has no effect, and a collector failing part way through
+     * results in a dropped connection rather than an error status. Off by default.
+     */
+    public void setStreaming(boolean streaming) {
+        handler.setStreaming(streaming);
+    }
+
+    /**
+     * Set the largest buffer, in bytes, that each handler thread keeps between responses when not streaming.
+     * <p>
+     * A response larger than this is still buffered, but the buffer is discarded afterwards
+     * instead of being kept for the next request. Unlimited by default.
+     */
+    public void setMaxRetainedBufferSize(int maxRetainedBufferSize) {
+        handler.setMaxRetainedBufferSize(maxRetainedBufferSize);
+    }
+
+    /**
+     * Let identical scrapes share one collection and encoding.
+     * <p>
+     * Requests for the same format and {@code name[]} filter that arrive while a collection is running,
+     * or up to {@code coalesceWindowMillis} after it finished, get its result instead of collecting again.
+     * This suits several Prometheus servers scraping the same target at nearly the same time.
+     * The result is gzipped at most once. Has no effect in {@link #setStreaming(boolean) streaming} mode.
+     * 0, the default, disables coalescing.
+     */
+    public void setCoalesceWindowMillis(long coalesceWindowMillis) {
+        handler.setCoalesceWindowMillis(coalesceWindowMillis);
+    }
+
+    /**
+     * Limit the number of concurrent metrics collections. Scrapes beyond the limit are answered with
+     * 503 Service Unavailable rather than queued, so a scrape storm can't take more than its share of CPU.
+     * Coalesced scrapes only count once. 0, the default, means unlimited.
+     */
+    public void setMaxConcurrentScrapes(int maxConcurrentScrapes) {
+        handler.setMaxConcurrentScrapes(maxConcurrentScrapes);
+    }
+
     /**
      * Stop the HTTP server.
      */
     public void stop() {
         server.stop(0);
-        executorService.shutdown(); // Free any (parked/idle) threads in pool
+        if (shutdownExecutor) {
+            executorService.shutdown(); // Free any (parked/idle) threads in pool
+        }
+        handler.close();
     }
 
     /**
@@ -0,0 +1,510 @@
+package io.prometheus.client.exporter;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.ProtobufFormat;
+import io.prometheus.client.exporter.common.TextFormat;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+/**
+ * Expose Prometheus metrics using a single NIO selector thread.
+ * <p>
+ * This is a lightweight alternative to {@link HTTPServer}, which is built on the JDK's {@code com.sun.net.httpserver}.
+ * It serves the same {@code /metrics} (and any other path), {@code /-/healthy} and {@code name[]} filtering,
+ * with the same content negotiation and gzip compression.
+ * <p>
+ * Connections are kept alive, and each connection keeps its response buffer between requests, so steady
+ * scraping doesn't allocate response buffers. A response is written with a single gathering write of the
+ * headers and the encoded body, without first copying them into one buffer.
+ * <p>
+ * Collection runs on the selector thread, so while a collection is in progress other connections wait.
+ * As scrapes of one target are normally sequential, this is rarely a limitation, but use {@link HTTPServer}
+ * if slow collectors must not delay health checks.
+ * <p>
+ * Example Usage:
+ * <pre>
+ * {@code
+ * NIOHTTPServer server = new NIOHTTPServer(new InetSocketAddress(1234), CollectorRegistry.defaultRegistry, true);
+ * }
+ * </pre>
+ */
+public class NIOHTTPServer implements Closeable {
+
+  private static final Logger LOGGER = Logger.getLogger(NIOHTTPServer.class.getName());
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+  private static final byte[] HEALTHY_RESPONSE = "Exporter is Healthy.".getBytes(UTF_8);
+  private static final int INITIAL_HEADER_SIZE = 1024;
+  private static final int MAX_HEADER_SIZE = 16 * 1024;
+  private static final int BUFFER_SIZE = 8192;
+  private static final long IDLE_TIMEOUT_MILLIS = 60 * 1000;
+
+  private final CollectorRegistry registry;
+  private final Selector selector;
+  private final ServerSocketChannel serverChannel;
+  private final DeflaterPool deflaterPool = new DeflaterPool(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+  private final Thread thread;
+  private final Path unixDomainSocketPath;
+  private volatile boolean running = true;
+
+  /**
+   * Start a server serving Prometheus metrics from the given registry.
+   */
+  public NIOHTTPServer(InetSocketAddress addr, CollectorRegistry registry, boolean daemon) throws IOException {
+    this(ServerSocketChannel.open(), addr, null, registry, daemon);
+  }
+
+  /**
+   * Start a server serving the default Prometheus registry using non-daemon threads.
+   */
+  public NIOHTTPServer(int port) throws IOException {
+    this(new InetSocketAddress(port), CollectorRegistry.defaultRegistry, false);
+  }
+
+  private NIOHTTPServer(ServerSocketChannel serverChannel, SocketAddress addr, Path unixDomainSocketPath,
+                        CollectorRegistry registry, boolean daemon) throws IOException {
+    this.registry = registry;
+    this.serverChannel = serverChannel;
+    this.unixDomainSocketPath = unixDomainSocketPath;
+    try {
+      selector = Selector.open();
+      try {
+        serverChannel.configureBlocking(false);
+        serverChannel.bind(addr, 50);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+      } catch (IOException e) {
+        selector.close();
+        throw e;
+      }
+    } catch (IOException e) {
+      serverChannel.close();
+      throw e;
+    }
+    thread = HTTPServer.NamedDaemonThreadFactory.defaultThreadFactory(daemon).newThread(new Runnable() {
+      @Override
+      public void run() {
+        loop();
+      }
+    });
+    thread.start();
+  }
+
+  /**
+   * Start a server serving Prometheus metrics from the given registry on a Unix domain socket,
+   * for scrapers on the same host such as sidecars.
+   * <p>
+   * This avoids the TCP stack and ephemeral ports, and access is controlled by the file system permissions
+   * of the socket file and its directory rather than by network reachability. The socket file must not exist yet,
+   * and is deleted when the server is closed.
+   * <p>
+   * Requires Java 16 or later, on earlier versions this throws an {@link UnsupportedOperationException}.
+   */
+  public static NIOHTTPServer unixDomainSocket(Path path, CollectorRegistry registry, boolean daemon) throws IOException {
+    SocketAddress addr = unixDomainSocketAddress(path);
+    return new NIOHTTPServer(ServerSocketChannel.open(unixProtocolFamily()), addr, path, registry, daemon);
+  }
+
+  /**
+   * @return {@code StandardProtocolFamily.UNIX}, looked up by name so that this still runs on Java 8.
+   */
+  static ProtocolFamily unixProtocolFamily() {
+    try {
+      return StandardProtocolFamily.valueOf("UNIX");
+    } catch (IllegalArgumentException e) {
+      throw new UnsupportedOperationException("Unix domain sockets require Java 16 or later");
+    }
+  }
+
+  /**
+   * @return {@code UnixDomainSocketAddress.of(path)}, called reflectively so that this still runs on Java 8.
+   */
+  static SocketAddress unixDomainSocketAddress(Path path) {
+    try {
+      Method of = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class);
+      return (SocketAddress) of.invoke(null, path);
+    } catch (ClassNotFoundException e) {
+      throw new UnsupportedOperationException("Unix domain sockets require Java 16 or later");
+    } catch (NoSuchMethodException e) {
+      throw new UnsupportedOperationException("Unix domain sockets require Java 16 or later");
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (InvocationTargetException e) {
+      throw new IllegalArgumentException("Invalid Unix domain socket path: " + path, e.getCause());
+    }
+  }
+
+  /**
+   * Gets the port number, or -1 when serving on a Unix domain socket.
+   */
+  public int getPort() {
+    if (unixDomainSocketPath != null) {
+      return -1;
+    }
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /**
+   * Stop the server, closing all connections.
+   */
+  @Override
+  public void close() {
+    running = false;
+    selector.wakeup();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void loop() {
+    try {
+      while (running) {
+        selector.select(1000);
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          try {
+            if (!key.isValid()) {
+              continue;
+            }
+            if (key.isAcceptable()) {
+              accept();
+            } else {
+              Connection connection = (Connection) key.attachment();
+              if (key.isReadable()) {
+                connection.read();
+              }
+              if (key.isValid() && key.isWritable()) {
+                connection.write();
+              }
+            }
+          } catch (IOException e) {
+            if (!(key.attachment() instanceof Connection)) {
+              LOGGER.log(Level.WARNING, "Failed to accept connection", e);
+            }
+            closeConnection(key);
+          } catch (Throwable t) {
+            // Including CancelledKeyException, or an Error not caught while collecting.
+            // Drop only the connection concerned, the server keeps running.
+            LOGGER.log(Level.WARNING, "Unexpected exception in NIOHTTPServer", t);
+            closeConnection(key);
+          }
+        }
+        closeIdle(System.currentTimeMillis());
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Unexpected exception in NIOHTTPServer", e);
+    } finally {
+      for (SelectionKey key : selector.keys()) {
+        closeQuietly(key);
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        // Nothing to do.
+      }
+      if (unixDomainSocketPath != null) {
+        try {
+          Files.deleteIfExists(unixDomainSocketPath);
+        } catch (IOException e) {
+          // Nothing to do.
+        }
+      }
+      deflaterPool.close();
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = serverChannel.accept();
+    if (channel == null) {
+      return;
+    }
+    channel.configureBlocking(false);
+    if (unixDomainSocketPath == null) {
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+    key.attach(new Connection(channel, key));
+  }
+
+  private void closeIdle(long now) {
+    for (SelectionKey key : selector.keys()) {
+      Object attachment = key.attachment();
+      if (attachment instanceof Connection && now - ((Connection) attachment).lastActive > IDLE_TIMEOUT_MILLIS) {
+        closeQuietly(key);
+      }
+    }
+  }
+
+  /**
+   * Close the connection of the key, but never the server channel.
+   */
+  private static void closeConnection(SelectionKey key) {
+    if (key.attachment() instanceof Connection) {
+      closeQuietly(key);
+    }
+  }
+
+  private static void closeQuietly(SelectionKey key) {
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException e) {
+      // Nothing to do.
+    }
+  }
+
+  /**
+   * A {@link ByteArrayOutputStream} whose content can be written to a channel without copying.
+   */
+  private static class ResponseBuffer extends ByteArrayOutputStream {
+    ResponseBuffer() {
+      super(BUFFER_SIZE);
+    }
+
+    ByteBuffer toByteBuffer() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+
+  private class Connection {
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final ResponseBuffer body = new ResponseBuffer();
+    private ByteBuffer in = ByteBuffer.allocate(INITIAL_HEADER_SIZE);
+    private ByteBuffer[] out;
+    private boolean closeAfterWrite;
+    private long lastActive = System.currentTimeMillis();
+
+    Connection(SocketChannel channel, SelectionKey key) {
+      this.channel = channel;
+      this.key = key;
+    }
+
+    void read() throws IOException {
+      if (channel.read(in) < 0) {
+        closeQuietly(key);
+        return;
+      }
+      lastActive = System.currentTimeMillis();
+      processRequests();
+    }
+
+    void write() throws IOException {
+      if (flush()) {
+        // Pipelined requests may already be buffered.
+        processRequests();
+      }
+    }
+
+    /**
+     * @return true if the pending response was written completely and the connection is still open.
+     */
+    private boolean flush() throws IOException {
+      channel.write(out);
+      lastActive = System.currentTimeMillis();
+      if (out[out.length - 1].hasRemaining()) {
+        key.interestOps(SelectionKey.OP_WRITE);
+        return false;
+      }
+      out = null;
+      if (closeAfterWrite) {
+        closeQuietly(key);
+        return false;
+      }
+      key.interestOps(SelectionKey.OP_READ);
+      return true;
+    }
+
+    /**
+     * Handle each complete request in the input buffer, one at a time as responses are written.
+     */
+    private void processRequests() throws IOException {
+      while (out == null && key.isValid()) {
+        int end = headerEnd();
+        if (end < 0) {
+          if (!in.hasRemaining()) {
+            if (in.capacity() >= MAX_HEADER_SIZE) {
+              respondError(431, "Request Header Fields Too Large");
+              return;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(in.capacity() * 2);
+            ((Buffer) in).flip();
+            larger.put(in);
+            in = larger;
+          }
+          return;
+        }
+        String head = new String(in.array(), 0, end, ISO_8859_1);
+        // Call through Buffer, as the covariant ByteBuffer overrides added in Java 9 don't exist on Java 8.
+        ((Buffer) in).flip();
+        ((Buffer) in).position(end + 4);
+        in.compact();
+        handle(head);
+      }
+    }
+
+    /**
+     * @return the offset of the blank line ending the request headers, or -1 if they aren't complete yet.
+     */
+    private int headerEnd() {
+      byte[] buf = in.array();
+      for (int i = 0; i + 3 < in.position(); i++) {
+        if (buf[i] == '\r' && buf[i + 1] == '\n' && buf[i + 2] == '\r' && buf[i + 3] == '\n') {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    private void handle(String head) throws IOException {
+      String[] lines = head.split("\r\n");
+      String[] requestLine = lines[0].split(" ");
+      if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+        respondError(400, "Bad Request");
+        return;
+      }
+      String method = requestLine[0];
+      String target = requestLine[1];
+      String accept = null;
+      String acceptEncoding = null;
+      String connectionHeader = null;
+      boolean hasBody = false;
+      for (int i = 1; i < lines.length; i++) {
+        int colon = lines[i].indexOf(':');
+        if (colon <= 0) {
+          continue;
+        }
+        String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+        String value = lines[i].substring(colon + 1).trim();
+        if ("accept".equals(name)) {
+          accept = accept == null ? value : accept + "," + value;
+        } else if ("accept-encoding".equals(name)) {
+          acceptEncoding = acceptEncoding == null ? value : acceptEncoding + "," + value;
+        } else if ("connection".equals(name)) {
+          connectionHeader = value;
+        } else if ("transfer-encoding".equals(name) || ("content-length".equals(name) && !"0".equals(value))) {
+          hasBody = true;
+        }
+      }
+      if (hasBody) {
+        // Request bodies are never needed, so rather than skipping them just close the connection.
+        respondError(400, "Bad Request");
+        return;
+      }
+      if (!"GET".equals(method) && !"HEAD".equals(method)) {
+        respondError(405, "Method Not Allowed");
+        return;
+      }
+      boolean keepAlive = requestLine[2].equals("HTTP/1.0")
+          ? "keep-alive".equalsIgnoreCase(connectionHeader)
+          : !"close".equalsIgnoreCase(connectionHeader);
+
+      int queryStart = target.indexOf('?');
+      String path = queryStart == -1 ? target : target.substring(0, queryStart);
+      String query = queryStart == -1 ? null : target.substring(queryStart + 1);
+
+      body.reset();
+      String contentType;
+      boolean gzip = false;
+      try {
+        if ("/-/healthy".equals(path)) {
+          contentType = "text/plain; charset=utf-8";
+          body.write(HEALTHY_RESPONSE);
+        } else {
+          contentType = TextFormat.chooseContentType(accept, true);
+          gzip = acceptsGzip(acceptEncoding);
+          writeMetrics(contentType, query, gzip);
+        }
+      } catch (Throwable t) {
+        LOGGER.log(Level.WARNING, "Failed to collect metrics", t);
+        respondError(500, "Internal Server Error");
+        return;
+      }
+      respond("200 OK", contentType, gzip, keepAlive, "HEAD".equals(method));
+    }
+
+    private void writeMetrics(String contentType, String query, boolean gzip) throws IOException {
+      OutputStream os = gzip ? new PooledGZIPOutputStream(body, deflaterPool) : body;
+      try {
+        if (ProtobufFormat.CONTENT_TYPE_PROTOBUF.equals(contentType)) {
+          ProtobufFormat.write(os, registry.filteredMetricFamilySamples(HTTPServer.parseQuery(query)),
+              registry.getGlobalTags());
+        } else {
+          Writer writer = new BufferedWriter(new OutputStreamWriter(os, UTF_8), BUFFER_SIZE);
+          TextFormat.writeFormat(contentType, writer,
+              registry.filteredMetricFamilySamples(HTTPServer.parseQuery(query)), registry.getGlobalTags());
+          writer.flush();
+        }
+      } finally {
+        os.close();
+      }
+    }
+
+    private void respondError(int status, String reason) throws IOException {
+      body.reset();
+      body.write((status + " " + reason).getBytes(UTF_8));
+      respond(status + " " + reason, "text/plain; charset=utf-8", false, false, false);
+    }
+
+    private void respond(String status, String contentType, boolean gzip, boolean keepAlive, boolean head)
+        throws IOException {
+      StringBuilder headers = new StringBuilder(128)
+          .append("HTTP/1.1 ").append(status).append("\r\n")
+          .append("Content-Type: ").append(contentType).append("\r\n")
+          .append("Content-Length: ").append(body.size()).append("\r\n");
+      if (gzip) {
+        headers.append("Content-Encoding: gzip\r\n");
+      }
+      if (!keepAlive) {
+        headers.append("Connection: close\r\n");
+      }
+      headers.append("\r\n");
+      ByteBuffer headerBuffer = ByteBuffer.wrap(headers.toString().getBytes(ISO_8859_1));
+      out = head ? new ByteBuffer[]{headerBuffer} : new ByteBuffer[]{headerBuffer, body.toByteBuffer()};
+      closeAfterWrite = !keepAlive;
+      flush();
+    }
+  }
+
+  private static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String encoding : acceptEncoding.split(",")) {
+      if (encoding.trim().equalsIgnoreCase("gzip")) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,89 @@
+package io.prometheus.client.exporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Like {@link java.util.zip.GZIPOutputStream}, but with a {@link Deflater} from a {@link DeflaterPool}
+ * that is returned to the pool on {@link #close()}.
+ */
+final class PooledGZIPOutputStream extends DeflaterOutputStream {
+
+  private static final byte[] HEADER = {
+      0x1f, (byte) 0x8b, // Magic.
+      Deflater.DEFLATED, // Compression method.
+      0, // Flags.
+      0, 0, 0, 0, // Modification time.
+      0, // Extra flags.
+      0 // Operating system.
+  };
+
+  private final DeflaterPool pool;
+  private final CRC32 crc = new CRC32();
+  private boolean closed;
+
+  PooledGZIPOutputStream(OutputStream out, DeflaterPool pool) throws IOException {
+    super(out, pool.acquire(), 8192);
+    this.pool = pool;
+    try {
+      out.write(HEADER);
+    } catch (IOException e) {
+      pool.release(def);
+      throw e;
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    super.write(b, off, len);
+    crc.update(b, off, len);
+  }
+
+  @Override
+  public void finish() throws IOException {
+    if (def.finished()) {
+      return;
+    }
+    super.finish();
+    byte[] trailer = new byte[8];
+    writeInt((int) crc.getValue(), trailer, 0);
+    writeInt((int) def.getBytesRead(), trailer, 4);
+    out.write(trailer);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      finish();
+      out.close();
+    } finally {
+      pool.release(def);
+    }
+  }
+
+  /**
+   * Return the deflater to the pool without finishing the gzip stream or closing the underlying stream,
+   * for a response that failed part way through.
+   */
+  void abandon() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    pool.release(def);
+  }
+
+  private static void writeInt(int value, byte[] buf, int offset) {
+    buf[offset] = (byte) value;
+    buf[offset + 1] = (byte) (value >> 8);
+    buf[offset + 2] = (byte) (value >> 16);
+    buf[offset + 3] = (byte) (value >> 24);
+  }
+}
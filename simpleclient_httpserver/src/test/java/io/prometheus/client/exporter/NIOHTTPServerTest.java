@@ -0,0 +1,189 @@
+package io.prometheus.client.exporter;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.exporter.common.TextFormat;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Scanner;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NIOHTTPServerTest {
+
+  NIOHTTPServer s;
+
+  @Before
+  public void init() throws IOException {
+    CollectorRegistry registry = new CollectorRegistry();
+    Gauge.build("a", "a help").register(registry);
+    Gauge.build("b", "a help").register(registry);
+    Gauge.build("c", "a help").register(registry);
+    s = new NIOHTTPServer(new InetSocketAddress("localhost", 0), registry, true);
+  }
+
+  @After
+  public void cleanup() {
+    s.close();
+  }
+
+  HttpURLConnection connect(String path) throws IOException {
+    return (HttpURLConnection) new URL("http://localhost:" + s.getPort() + path).openConnection();
+  }
+
+  String read(InputStream in) {
+    Scanner scanner = new Scanner(in, "UTF-8").useDelimiter("\\A");
+    return scanner.hasNext() ? scanner.next() : "";
+  }
+
+  @Test
+  public void testSimpleRequest() throws IOException {
+    HttpURLConnection connection = connect("/metrics");
+    assertThat(connection.getResponseCode()).isEqualTo(200);
+    assertThat(connection.getContentType()).isEqualTo(TextFormat.CONTENT_TYPE_004);
+    String response = read(connection.getInputStream());
+    assertThat(response).contains("a 0.0");
+    assertThat(response).contains("b 0.0");
+    assertThat(response).contains("c 0.0");
+  }
+
+  @Test
+  public void testNameFilter() throws IOException {
+    String response = read(connect("/metrics?name[]=a&name[]=b").getInputStream());
+    assertThat(response).contains("a 0.0");
+    assertThat(response).contains("b 0.0");
+    assertThat(response).doesNotContain("c 0.0");
+  }
+
+  @Test
+  public void testGzipAndOpenMetrics() throws IOException {
+    HttpURLConnection connection = connect("/metrics");
+    connection.setRequestProperty("Accept-Encoding", "gzip");
+    connection.setRequestProperty("Accept", "application/openmetrics-text; version=0.0.1,text/plain;version=0.0.4;q=0.5");
+    assertThat(connection.getHeaderField("Content-Encoding")).isEqualTo("gzip");
+    String response = read(new GZIPInputStream(connection.getInputStream()));
+    assertThat(response).contains("a 0.0");
+    assertThat(response).contains("# EOF");
+  }
+
+  @Test
+  public void testHealth() throws IOException {
+    assertThat(read(connect("/-/healthy").getInputStream())).isEqualTo("Exporter is Healthy.");
+  }
+
+  @Test
+  public void testCollectorErrorIsInternalServerError() throws IOException {
+    CollectorRegistry registry = new CollectorRegistry();
+    new Collector() {
+      @Override
+      public List<MetricFamilySamples> collect() {
+        throw new AssertionError("broken collector");
+      }
+    }.register(registry);
+    NIOHTTPServer server = new NIOHTTPServer(new InetSocketAddress("localhost", 0), registry, true);
+    try {
+      for (int i = 0; i < 2; i++) {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + "/metrics").openConnection();
+        assertThat(connection.getResponseCode()).isEqualTo(500);
+      }
+      HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + "/-/healthy").openConnection();
+      assertThat(connection.getResponseCode()).isEqualTo(200);
+    } finally {
+      server.close();
+    }
+  }
+
+  @Test
+  public void testMethodNotAllowed() throws IOException {
+    HttpURLConnection connection = connect("/metrics");
+    connection.setRequestMethod("DELETE");
+    assertThat(connection.getResponseCode()).isEqualTo(405);
+  }
+
+  @Test
+  public void testKeepAliveAndPipelining() throws IOException {
+    Socket socket = new Socket("localhost", s.getPort());
+    try {
+      OutputStream out = socket.getOutputStream();
+      out.write(("GET /metrics?name[]=a HTTP/1.1\r\nHost: localhost\r\n\r\n"
+          + "HEAD /metrics HTTP/1.1\r\nHost: localhost\r\n\r\n"
+          + "GET /-/healthy HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+      out.flush();
+      String response = read(socket.getInputStream());
+      assertThat(response).startsWith("HTTP/1.1 200 OK\r\n");
+      assertThat(response.split("HTTP/1.1 200 OK").length).isEqualTo(4);
+      assertThat(response).contains("a 0.0");
+      assertThat(response).doesNotContain("b 0.0");
+      assertThat(response).endsWith("Connection: close\r\n\r\nExporter is Healthy.");
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testUnixDomainSocket() throws IOException {
+    ProtocolFamily unix;
+    try {
+      unix = NIOHTTPServer.unixProtocolFamily();
+    } catch (UnsupportedOperationException e) {
+      return; // Before Java 16.
+    }
+    Path dir = Files.createTempDirectory("nio-http-server");
+    Path path = dir.resolve("metrics.sock");
+    CollectorRegistry registry = new CollectorRegistry();
+    Gauge.build("uds", "help").register(registry);
+    NIOHTTPServer server = NIOHTTPServer.unixDomainSocket(path, registry, true);
+    try {
+      assertThat(server.getPort()).isEqualTo(-1);
+      assertThat(Files.exists(path)).isTrue();
+      SocketChannel channel = SocketChannel.open(unix);
+      try {
+        channel.connect(NIOHTTPServer.unixDomainSocketAddress(path));
+        channel.write(ByteBuffer.wrap("GET /metrics HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes("US-ASCII")));
+        String response = read(Channels.newInputStream(channel));
+        assertThat(response).startsWith("HTTP/1.1 200 OK\r\n");
+        assertThat(response).contains("uds 0.0");
+      } finally {
+        channel.close();
+      }
+    } finally {
+      server.close();
+    }
+    assertThat(Files.exists(path)).isFalse();
+    Files.delete(dir);
+  }
+
+  @Test
+  public void testHeadersTooLarge() throws IOException {
+    Socket socket = new Socket("localhost", s.getPort());
+    try {
+      StringBuilder request = new StringBuilder("GET /metrics HTTP/1.1\r\n");
+      while (request.length() < 20000) {
+        request.append("X-Padding: 0123456789012345678901234567890123456789\r\n");
+      }
+      // Exactly the maximum header size, so that the server has read everything when it closes the connection.
+      socket.getOutputStream().write(request.substring(0, 16 * 1024).getBytes("US-ASCII"));
+      assertThat(read(socket.getInputStream())).startsWith("HTTP/1.1 431 ");
+    } finally {
+      socket.close();
+    }
+  }
+}
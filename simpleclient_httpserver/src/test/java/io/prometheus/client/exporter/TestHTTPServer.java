@@ -1,13 +1,32 @@
 package io.prometheus.client.exporter;
 
 import com.sun.net.httpserver.HttpServer;
+import io.prometheus.client.Collector;
 import io.prometheus.client.Gauge;
+import io.prometheus.client.GaugeMetricFamily;
+import io.prometheus.client.Histogram;
 import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.ProtobufFormat;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 
 import org.junit.After;
@@ -130,12 +149,253 @@ public class TestHTTPServer {
     assertThat(response).contains("c 0.0");
   }
 
+  @Test
+  public void testGzipCompressionReusesDeflaters() throws IOException {
+    s.setCompression(Deflater.BEST_SPEED, Deflater.HUFFMAN_ONLY);
+    for (int i = 0; i < 20; i++) {
+      String response = requestWithCompression("?name[]=a&name[]=b");
+      assertThat(response).contains("a 0.0");
+      assertThat(response).contains("b 0.0");
+      assertThat(response).doesNotContain("c 0.0");
+    }
+  }
+
+  @Test
+  public void testCachedCompressedResponse() throws IOException {
+    s.setCacheCompressedResponse(true);
+    String first = requestWithCompression("");
+    String second = requestWithCompression("");
+    assertThat(first).contains("a 0.0");
+    assertThat(second).isEqualTo(first);
+    assertThat(requestWithCompression("?name[]=a")).doesNotContain("b 0.0");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidCompressionLevel() {
+    s.setCompression(10, Deflater.DEFAULT_STRATEGY);
+  }
+
+  @Test
+  public void testStreaming() throws IOException {
+    s.setStreaming(true);
+    String response = request("?name[]=a&name[]=b");
+    assertThat(response).contains("a 0.0");
+    assertThat(response).contains("b 0.0");
+    assertThat(response).doesNotContain("c 0.0");
+    assertThat(requestWithCompression("")).contains("c 0.0");
+    assertThat(requestWithAccept("application/openmetrics-text; version=0.0.1")).contains("# EOF");
+    assertThat(request("/-/healthy", "")).contains("Exporter is Healthy");
+  }
+
+  @Test
+  public void testStreamingFailureDropsConnection() throws IOException {
+    CollectorRegistry registry = new CollectorRegistry();
+    new Collector() {
+      @Override
+      public List<MetricFamilySamples> collect() {
+        // Larger than the streaming buffer, so that part of the body is sent before the failure.
+        GaugeMetricFamily family = new GaugeMetricFamily("x", "help", Collections.singletonList("l"));
+        for (int i = 0; i < 10000; i++) {
+          family.addMetric(Collections.singletonList("value" + i), i);
+        }
+        return Collections.<MetricFamilySamples>singletonList(family);
+      }
+    }.register(registry);
+    new Collector() {
+      @Override
+      public List<MetricFamilySamples> collect() {
+        throw new IllegalStateException("collection failed");
+      }
+    }.register(registry);
+    s.stop();
+    s = new HTTPServer(new InetSocketAddress(0), registry);
+    s.setStreaming(true);
+    for (String acceptEncoding : new String[]{"identity", "gzip"}) {
+      HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + s.getPort() + "/metrics").openConnection();
+      connection.setRequestProperty("Accept-Encoding", acceptEncoding);
+      assertThat(connection.getResponseCode()).isEqualTo(200);
+      // Not Scanner, which hides IOExceptions.
+      InputStream in = connection.getInputStream();
+      try {
+        while (in.read(new byte[8192]) != -1) {
+        }
+        fail("Expected the truncated response to fail with Accept-Encoding: " + acceptEncoding);
+      } catch (IOException expected) {
+      } finally {
+        in.close();
+      }
+    }
+    assertThat(request("/-/healthy", "")).contains("Exporter is Healthy");
+  }
+
+  @Test
+  public void testMaxRetainedBufferSize() throws IOException {
+    CollectorRegistry registry = new CollectorRegistry();
+    Gauge.build("a", "a help").register(registry);
+    HTTPServer.HTTPMetricHandler handler = new HTTPServer.HTTPMetricHandler(registry);
+    // A single thread, so that all requests share one thread-local buffer.
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    HttpServer server = HttpServer.create(new InetSocketAddress(0), 3);
+    server.createContext("/", handler);
+    server.setExecutor(executor);
+    server.start();
+    try {
+      URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/");
+      for (int i = 0; i < 3; i++) {
+        assertThat(new Scanner(url.openStream(), "UTF-8").useDelimiter("\\A").next()).contains("a 0.0");
+      }
+      assertThat(handler.allocatedBuffers()).isEqualTo(1);
+
+      // Every response is larger than the cap, so the buffer is dropped after each one.
+      handler.setMaxRetainedBufferSize(0);
+      for (int i = 0; i < 3; i++) {
+        assertThat(new Scanner(url.openStream(), "UTF-8").useDelimiter("\\A").next()).contains("a 0.0");
+      }
+      assertThat(handler.allocatedBuffers()).isEqualTo(3);
+    } finally {
+      server.stop(0);
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testCoalescing() throws IOException {
+    final AtomicInteger collections = new AtomicInteger();
+    CollectorRegistry registry = new CollectorRegistry();
+    new Collector() {
+      @Override
+      public List<MetricFamilySamples> collect() {
+        collections.incrementAndGet();
+        return Collections.<MetricFamilySamples>singletonList(new GaugeMetricFamily("x", "help", 1));
+      }
+    }.register(registry);
+    s.stop();
+    s = new HTTPServer(new InetSocketAddress(0), registry);
+    s.setCoalesceWindowMillis(60000);
+    assertThat(request("")).contains("x 1.0");
+    assertThat(requestWithCompression("")).contains("x 1.0");
+    assertThat(collections.get()).isEqualTo(1);
+    assertThat(requestWithAccept("application/openmetrics-text; version=0.0.1")).contains("# EOF");
+    assertThat(collections.get()).isEqualTo(2);
+
+    s.setCoalesceWindowMillis(0);
+    request("");
+    request("");
+    assertThat(collections.get()).isEqualTo(4);
+  }
+
+  @Test
+  public void testMaxConcurrentScrapes() throws Exception {
+    final CountDownLatch collecting = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    CollectorRegistry registry = new CollectorRegistry();
+    new Collector() {
+      @Override
+      public List<MetricFamilySamples> collect() {
+        collecting.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return Collections.<MetricFamilySamples>singletonList(new GaugeMetricFamily("x", "help", 1));
+      }
+    }.register(registry);
+    s.stop();
+    s = new HTTPServer(new InetSocketAddress(0), registry);
+    s.setMaxConcurrentScrapes(1);
+    FutureTask<String> first = new FutureTask<String>(new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        return request("");
+      }
+    });
+    new Thread(first).start();
+    collecting.await();
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + s.getPort() + "/metrics").openConnection();
+    assertThat(connection.getResponseCode()).isEqualTo(503);
+    assertThat(request("/-/healthy", "")).contains("Exporter is Healthy");
+    release.countDown();
+    assertThat(first.get()).contains("x 1.0");
+    assertThat(request("")).contains("x 1.0");
+  }
+
+  @Test
+  public void testBuilderWithExecutorService() throws IOException {
+    final AtomicInteger tasks = new AtomicInteger();
+    ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>()) {
+      @Override
+      protected void beforeExecute(Thread t, Runnable r) {
+        tasks.incrementAndGet();
+      }
+    };
+    CollectorRegistry registry = new CollectorRegistry();
+    Gauge.build("x", "help").register(registry);
+    s.stop();
+    s = new HTTPServer.Builder()
+        .withHostname("localhost")
+        .withRegistry(registry)
+        .withExecutorService(executor)
+        .withBacklog(50)
+        .build();
+    assertThat(request("")).contains("x 0.0");
+    assertThat(tasks.get()).isGreaterThan(0);
+    s.stop();
+    assertThat(executor.isShutdown()).isFalse();
+    executor.shutdown();
+  }
+
+  @Test
+  public void testBuilderWithVirtualThreads() throws IOException {
+    s.stop();
+    HTTPServer.Builder builder = new HTTPServer.Builder().withVirtualThreads(true);
+    try {
+      Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      try {
+        builder.build();
+        fail("Expected IllegalStateException before Java 21");
+      } catch (IllegalStateException expected) {
+      }
+      s = new HTTPServer.Builder().build();
+      return;
+    }
+    s = builder.build();
+    for (int i = 0; i < 3; i++) {
+      assertThat(request("?name[]=nonexistent")).isEmpty();
+    }
+    assertThat(request("/-/healthy", "")).contains("Exporter is Healthy");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testBuilderRejectsExecutorServiceWithVirtualThreads() throws IOException {
+    new HTTPServer.Builder()
+        .withExecutorService(Executors.newSingleThreadExecutor())
+        .withVirtualThreads(true)
+        .build();
+  }
+
   @Test
   public void testOpenMetrics() throws IOException {
     String response = requestWithAccept("application/openmetrics-text; version=0.0.1,text/plain;version=0.0.4;q=0.5,*/*;q=0.1");
     assertThat(response).contains("# EOF");
   }
 
+  @Test
+  public void testProtobuf() throws IOException {
+    String url = "http://localhost:" + s.server.getAddress().getPort() + "/metrics?name[]=a";
+    URLConnection connection = new URL(url).openConnection();
+    connection.setRequestProperty("Accept",
+        "application/vnd.google.protobuf;proto=io.prometheus.client.MetricFamily;encoding=delimited;q=0.7,text/plain;version=0.0.4;q=0.3");
+    assertThat(connection.getContentType()).isEqualTo(ProtobufFormat.CONTENT_TYPE_PROTOBUF);
+    DataInputStream in = new DataInputStream(connection.getInputStream());
+    byte[] body = new byte[in.read()];
+    in.readFully(body);
+    // Delimited MetricFamily with name "a", help "a help" and type GAUGE.
+    assertThat(body).startsWith(new byte[] {0x0a, 0x01, 'a', 0x12, 0x06, 'a', ' ', 'h', 'e', 'l', 'p', 0x18, 0x01});
+    assertThat(in.read()).isEqualTo(-1);
+  }
+
   @Test
   public void testHealth() throws IOException {
     String response = request("/-/healthy", "");
@@ -147,4 +407,19 @@ public class TestHTTPServer {
     String response = requestWithCompression("/-/healthy", "");
     assertThat(response).contains("Exporter is Healthy");
   }
+
+  @Test
+  public void testDebugExemplars() throws IOException {
+    CollectorRegistry registry = new CollectorRegistry();
+    Histogram h = Histogram.build("latency", "help").buckets(1).exemplarReservoir(2, 60).register(registry);
+    h.observeWithExemplar(3, "trace_id", "a");
+    h.observeWithExemplar(5, "trace_id", "b");
+    h.observeWithExemplar(4, "trace_id", "c");
+    s.stop();
+    s = new HTTPServer(new InetSocketAddress(0), registry);
+    String response = request("/debug/exemplars", "");
+    assertThat(response).contains("latency_bucket{le=\"+Inf\"} 5.0 # {trace_id=\"b\"} 5.0");
+    assertThat(response).contains("latency_bucket{le=\"+Inf\"} 4.0 # {trace_id=\"c\"} 4.0");
+    assertThat(response).doesNotContain("trace_id=\"a\"");
+  }
 }
@@ -4,6 +4,7 @@ import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
@@ -20,6 +21,7 @@ import javax.xml.bind.DatatypeConverter;
 
 import io.prometheus.client.Collector;
 import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.ProtobufFormat;
 import io.prometheus.client.exporter.common.TextFormat;
 
 /**
@@ -65,6 +67,7 @@ public class PushGateway {
   protected final String gatewayBaseURL;
 
   private HttpConnectionFactory connectionFactory = new DefaultHttpConnectionFactory();
+  private boolean protobufFormat;
 
   /**
    * Construct a Pushgateway, with the given address.
@@ -90,6 +93,16 @@ public class PushGateway {
     this.connectionFactory = connectionFactory;
   }
 
+  /**
+   * Push metrics in the delimited protobuf format rather than the text format.
+   * <p>
+   * The Pushgateway accepts both, but parsing protobuf is cheaper for large registries.
+   * Pushes have no content negotiation, so this is off by default.
+   */
+  public void setProtobufFormat(boolean protobufFormat) {
+    this.protobufFormat = protobufFormat;
+  }
+
   /**
    * Creates a URL instance from a String representation of a URL without throwing a checked exception.
    * Required because you can't wrap a call to another constructor in a try statement.
@@ -234,7 +247,8 @@ public class PushGateway {
       }
     }
     HttpURLConnection connection = connectionFactory.create(url);
-    connection.setRequestProperty("Content-Type", TextFormat.CONTENT_TYPE_004);
+    connection.setRequestProperty("Content-Type",
+        protobufFormat ? ProtobufFormat.CONTENT_TYPE_PROTOBUF : TextFormat.CONTENT_TYPE_004);
     if (!method.equals("DELETE")) {
       connection.setDoOutput(true);
     }
@@ -245,7 +259,12 @@ public class PushGateway {
     connection.connect();
 
     try {
-      if (!method.equals("DELETE")) {
+      if (!method.equals("DELETE") && protobufFormat) {
+        OutputStream out = connection.getOutputStream();
+        ProtobufFormat.write(out, registry.metricFamilySamples());
+        out.flush();
+        out.close();
+      } else if (!method.equals("DELETE")) {
         BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), "UTF-8"));
         TextFormat.write004(writer, registry.metricFamilySamples());
         writer.flush();
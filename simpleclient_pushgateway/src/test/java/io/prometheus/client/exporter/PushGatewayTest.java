@@ -7,6 +7,7 @@ import static org.mockserver.model.HttpResponse.response;
 
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.Gauge;
+import io.prometheus.client.exporter.common.ProtobufFormat;
 import java.io.IOException;
 import java.util.TreeMap;
 import java.util.Map;
@@ -66,6 +67,19 @@ public class PushGatewayTest {
     pg.push(registry, "j");
   }
 
+  @Test
+  public void testPushProtobuf() throws IOException {
+    mockServerClient.when(
+        request()
+          .withMethod("PUT")
+          .withPath("/metrics/job/j")
+          .withHeader("Content-Type", ProtobufFormat.CONTENT_TYPE_PROTOBUF)
+      ).respond(response().withStatusCode(202));
+    registry.register(gauge);
+    pg.setProtobufFormat(true);
+    pg.push(registry, "j");
+  }
+
   @Test
   public void testPush200Response() throws IOException {
     mockServerClient.when(
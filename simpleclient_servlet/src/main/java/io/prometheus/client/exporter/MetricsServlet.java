@@ -7,6 +7,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 import static io.prometheus.client.Adapter.wrap;
 
@@ -25,6 +26,22 @@ public class MetricsServlet extends HttpServlet {
     exporter = new Exporter(registry);
   }
 
+  /**
+   * Collect and write responses on the given executor rather than on the container's request thread.
+   * The servlet must be registered with {@code asyncSupported} enabled for this to take effect.
+   */
+  public MetricsServlet(CollectorRegistry registry, Executor executor) {
+    exporter = new Exporter(registry, executor);
+  }
+
+  /**
+   * Like {@link #MetricsServlet(CollectorRegistry, Executor)}, with the given async request timeout
+   * in milliseconds instead of none. 0 means no timeout.
+   */
+  public MetricsServlet(CollectorRegistry registry, Executor executor, long asyncTimeoutMillis) {
+    exporter = new Exporter(registry, executor, asyncTimeoutMillis);
+  }
+
   @Override
   protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
     exporter.doGet(wrap(req), wrap(resp));
@@ -0,0 +1,7 @@
+package io.prometheus.client.servlet.common.adapter;
+
+public interface AsyncContextAdapter {
+    void setTimeout(long timeoutMillis);
+    void addListener(AsyncListenerAdapter listener);
+    void complete();
+}
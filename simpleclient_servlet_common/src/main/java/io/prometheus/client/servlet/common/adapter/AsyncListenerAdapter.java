@@ -0,0 +1,6 @@
+package io.prometheus.client.servlet.common.adapter;
+
+public interface AsyncListenerAdapter {
+    void onTimeout();
+    void onError(Throwable t);
+}
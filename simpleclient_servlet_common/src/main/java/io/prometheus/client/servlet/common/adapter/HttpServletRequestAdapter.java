@@ -6,4 +6,6 @@ public interface HttpServletRequestAdapter {
     String getMethod();
     String[] getParameterValues(String name);
     String getContextPath();
+    boolean isAsyncSupported();
+    AsyncContextAdapter startAsync();
 }
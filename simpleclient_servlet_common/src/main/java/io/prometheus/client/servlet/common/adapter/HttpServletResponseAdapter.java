@@ -1,11 +1,16 @@
 package io.prometheus.client.servlet.common.adapter;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 
 public interface HttpServletResponseAdapter {
     int getStatus();
     void setStatus(int httpStatusCode);
     void setContentType(String contentType);
+    void setHeader(String name, String value);
     PrintWriter getWriter() throws IOException;
+    OutputStream getOutputStream() throws IOException;
+    boolean isCommitted();
+    void reset();
 }
@@ -0,0 +1,236 @@
+package io.prometheus.client.servlet.common.exporter;
+
+import io.prometheus.client.servlet.common.adapter.AsyncContextAdapter;
+import io.prometheus.client.servlet.common.adapter.AsyncListenerAdapter;
+import io.prometheus.client.servlet.common.adapter.HttpServletResponseAdapter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The response of an async request, written by an executor task.
+ * <p>
+ * Once the request times out or fails, the container completes it and may recycle the response for another
+ * request. So every access to the response holds a lock and fails once the request is done, and a timeout or
+ * error is answered with 503 under the same lock.
+ */
+class AsyncResponse implements HttpServletResponseAdapter, AsyncListenerAdapter {
+
+  private static final Logger LOGGER = Logger.getLogger(AsyncResponse.class.getName());
+
+  private final HttpServletResponseAdapter delegate;
+  private final AsyncContextAdapter async;
+  // Guarded by this.
+  private boolean done;
+  // Set when writing failed, so that closing the streams doesn't finish the response. Guarded by this.
+  private boolean abandoned;
+
+  AsyncResponse(HttpServletResponseAdapter delegate, AsyncContextAdapter async) {
+    this.delegate = delegate;
+    this.async = async;
+  }
+
+  private void checkNotDone() {
+    if (done) {
+      throw new IllegalStateException("The async request is already completed.");
+    }
+  }
+
+  /**
+   * Complete the request, unless that happened already.
+   */
+  synchronized void complete() {
+    if (!done) {
+      done = true;
+      async.complete();
+    }
+  }
+
+  /**
+   * Drop anything written to the streams from now on, so that closing them after a failure doesn't finish
+   * a truncated response.
+   */
+  synchronized void abandon() {
+    abandoned = true;
+  }
+
+  @Override
+  public void onTimeout() {
+    LOGGER.log(Level.WARNING, "Metrics request timed out");
+    fail();
+  }
+
+  @Override
+  public void onError(Throwable t) {
+    LOGGER.log(Level.FINE, "Metrics request failed", t);
+    fail();
+  }
+
+  private synchronized void fail() {
+    if (done) {
+      return;
+    }
+    if (!delegate.isCommitted()) {
+      delegate.reset();
+      delegate.setStatus(503);
+    }
+    complete();
+  }
+
+  @Override
+  public synchronized int getStatus() {
+    checkNotDone();
+    return delegate.getStatus();
+  }
+
+  @Override
+  public synchronized void setStatus(int httpStatusCode) {
+    checkNotDone();
+    delegate.setStatus(httpStatusCode);
+  }
+
+  @Override
+  public synchronized void setContentType(String contentType) {
+    checkNotDone();
+    delegate.setContentType(contentType);
+  }
+
+  @Override
+  public synchronized void setHeader(String name, String value) {
+    checkNotDone();
+    delegate.setHeader(name, value);
+  }
+
+  @Override
+  public synchronized PrintWriter getWriter() throws IOException {
+    checkNotDone();
+    return new GuardedPrintWriter(delegate.getWriter());
+  }
+
+  @Override
+  public synchronized OutputStream getOutputStream() throws IOException {
+    checkNotDone();
+    return new GuardedOutputStream(delegate.getOutputStream());
+  }
+
+  @Override
+  public synchronized boolean isCommitted() {
+    checkNotDone();
+    return delegate.isCommitted();
+  }
+
+  @Override
+  public synchronized void reset() {
+    checkNotDone();
+    delegate.reset();
+  }
+
+  private class GuardedOutputStream extends OutputStream {
+
+    private final OutputStream out;
+
+    GuardedOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      synchronized (AsyncResponse.this) {
+        if (!abandoned) {
+          checkNotDone();
+          out.write(b);
+        }
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      synchronized (AsyncResponse.this) {
+        if (!abandoned) {
+          checkNotDone();
+          out.write(b, off, len);
+        }
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      synchronized (AsyncResponse.this) {
+        if (!abandoned) {
+          checkNotDone();
+          out.flush();
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      synchronized (AsyncResponse.this) {
+        if (!abandoned) {
+          checkNotDone();
+          out.close();
+        }
+      }
+    }
+  }
+
+  private class GuardedPrintWriter extends PrintWriter {
+
+    GuardedPrintWriter(PrintWriter out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int c) {
+      synchronized (AsyncResponse.this) {
+        if (!abandoned) {
+          checkNotDone();
+          super.write(c);
+        }
+      }
+    }
+
+    @Override
+    public void write(char[] buf, int off, int len) {
+      synchronized (AsyncResponse.this) {
+        if (!abandoned) {
+          checkNotDone();
+          super.write(buf, off, len);
+        }
+      }
+    }
+
+    @Override
+    public void write(String s, int off, int len) {
+      synchronized (AsyncResponse.this) {
+        if (!abandoned) {
+          checkNotDone();
+          super.write(s, off, len);
+        }
+      }
+    }
+
+    @Override
+    public void flush() {
+      synchronized (AsyncResponse.this) {
+        if (!abandoned) {
+          checkNotDone();
+          super.flush();
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+      synchronized (AsyncResponse.this) {
+        if (!abandoned) {
+          checkNotDone();
+          super.close();
+        }
+      }
+    }
+  }
+}
@@ -1,25 +1,44 @@
 package io.prometheus.client.servlet.common.exporter;
 
 import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.servlet.common.adapter.AsyncContextAdapter;
 import io.prometheus.client.servlet.common.adapter.HttpServletRequestAdapter;
 import io.prometheus.client.servlet.common.adapter.HttpServletResponseAdapter;
+import io.prometheus.client.exporter.common.ProtobufFormat;
 import io.prometheus.client.exporter.common.TextFormat;
 
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * The MetricsServlet class exists to provide a simple way of exposing the metrics values.
- *
+ * <p>
+ * Responses are gzip compressed if the client sends {@code Accept-Encoding: gzip}.
+ * If an {@link Executor} is given and the request supports async processing,
+ * collection and encoding run on that executor rather than on the container's request thread.
  */
 public class Exporter {
 
+  private static final Logger LOGGER = Logger.getLogger(Exporter.class.getName());
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
   private CollectorRegistry registry;
+  private final Executor executor;
+  private final long asyncTimeoutMillis;
 
   /**
    * Construct a MetricsServlet for the default registry.
@@ -33,21 +52,133 @@ public class Exporter {
    * @param registry collector registry
    */
   public Exporter(CollectorRegistry registry) {
+    this(registry, null);
+  }
+
+  /**
+   * Construct a MetricsServlet for the given registry that collects on the given executor.
+   * <p>
+   * The servlet must be registered with async support enabled, otherwise requests are served
+   * synchronously on the container thread as before.
+   * @param registry collector registry
+   * @param executor executor for collecting and writing responses, or {@code null} to always write synchronously.
+   */
+  public Exporter(CollectorRegistry registry, Executor executor) {
+    this(registry, executor, 0);
+  }
+
+  /**
+   * Like {@link #Exporter(CollectorRegistry, Executor)}, with a timeout for async requests.
+   * <p>
+   * The container's default async timeout, often 30 seconds, is replaced, as that is the case of a large scrape
+   * this is meant for. A request that times out is answered with 503, and writing its response is stopped.
+   * @param asyncTimeoutMillis timeout for an async request in milliseconds, 0 for no timeout.
+   */
+  public Exporter(CollectorRegistry registry, Executor executor, long asyncTimeoutMillis) {
+    if (asyncTimeoutMillis < 0) {
+      throw new IllegalArgumentException("asyncTimeoutMillis must not be negative");
+    }
     this.registry = registry;
+    this.executor = executor;
+    this.asyncTimeoutMillis = asyncTimeoutMillis;
   }
 
   public void doGet(final HttpServletRequestAdapter req, final HttpServletResponseAdapter resp) throws IOException {
     resp.setStatus(200);
-    String contentType = TextFormat.chooseContentType(req.getHeader("Accept"));
+    final String contentType = TextFormat.chooseContentType(req.getHeader("Accept"), true);
     resp.setContentType(contentType);
+    final Set<String> names = parse(req);
+    final boolean gzip = shouldUseCompression(req);
 
-    Writer writer = new BufferedWriter(resp.getWriter());
+    if (executor == null || !req.isAsyncSupported()) {
+      write(resp, contentType, names, gzip);
+      return;
+    }
+
+    AsyncContextAdapter async = req.startAsync();
+    final AsyncResponse asyncResp = new AsyncResponse(resp, async);
+    async.setTimeout(asyncTimeoutMillis);
+    async.addListener(asyncResp);
     try {
-      TextFormat.writeFormat(contentType, writer, registry.filteredMetricFamilySamples(parse(req)));
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            write(asyncResp, contentType, names, gzip);
+          } catch (Throwable t) {
+            LOGGER.log(Level.WARNING, "Failed to write metrics response", t);
+            try {
+              if (!asyncResp.isCommitted()) {
+                // Drop the Content-Encoding header and anything buffered so far.
+                asyncResp.reset();
+                asyncResp.setStatus(500);
+              }
+            } catch (IllegalStateException e) {
+              // The request timed out, and was already answered with 503.
+            }
+          } finally {
+            asyncResp.complete();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      asyncResp.setStatus(503);
+      asyncResp.complete();
+    }
+  }
+
+  private void write(HttpServletResponseAdapter resp, String contentType, Set<String> names, boolean gzip)
+      throws IOException {
+    if (gzip) {
+      resp.setHeader("Content-Encoding", "gzip");
+    }
+    boolean success = false;
+    if (ProtobufFormat.CONTENT_TYPE_PROTOBUF.equals(contentType)) {
+      OutputStream out = gzip ? new GZIPOutputStream(resp.getOutputStream(), 8192) : resp.getOutputStream();
+      try {
+        ProtobufFormat.write(out, registry.filteredMetricFamilySamples(names), registry.getGlobalTags());
+        out.flush();
+        success = true;
+      } finally {
+        close(out, resp, success);
+      }
+      return;
+    }
+
+    Writer writer = gzip
+        ? new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(resp.getOutputStream(), 8192), UTF_8))
+        : new BufferedWriter(resp.getWriter());
+    try {
+      TextFormat.writeFormat(contentType, writer, registry.filteredMetricFamilySamples(names), registry.getGlobalTags());
       writer.flush();
+      success = true;
     } finally {
-      writer.close();
+      close(writer, resp, success);
+    }
+  }
+
+  /**
+   * Close {@code out}, which also ends the Deflater of a gzip stream. If writing an async response failed,
+   * the response is left unfinished, so that it can still be answered with an error if nothing was committed yet.
+   */
+  private static void close(Closeable out, HttpServletResponseAdapter resp, boolean success) throws IOException {
+    if (!success && resp instanceof AsyncResponse) {
+      ((AsyncResponse) resp).abandon();
+    }
+    out.close();
+  }
+
+  private static boolean shouldUseCompression(HttpServletRequestAdapter req) {
+    String encodingHeader = req.getHeader("Accept-Encoding");
+    if (encodingHeader == null) {
+      return false;
+    }
+    for (String encoding : encodingHeader.split(",")) {
+      if (encoding.trim().equalsIgnoreCase("gzip")) {
+        return true;
+      }
     }
+    return false;
   }
 
   private Set<String> parse(HttpServletRequestAdapter req) {
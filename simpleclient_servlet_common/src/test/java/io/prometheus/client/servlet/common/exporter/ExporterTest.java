@@ -1,16 +1,40 @@
 package io.prometheus.client.servlet.common.exporter;
 
+import io.prometheus.client.Collector;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.Gauge;
+import io.prometheus.client.GaugeMetricFamily;
+import io.prometheus.client.servlet.common.adapter.AsyncContextAdapter;
+import io.prometheus.client.servlet.common.adapter.AsyncListenerAdapter;
 import io.prometheus.client.servlet.common.adapter.HttpServletRequestAdapter;
 import io.prometheus.client.servlet.common.adapter.HttpServletResponseAdapter;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
 
 import static org.assertj.core.api.Java6Assertions.assertThat;
 import static org.assertj.core.api.Java6Assertions.fail;
@@ -22,11 +46,24 @@ public class ExporterTest {
   }
 
   private HttpServletRequestAdapter mockHttpServletRequest(final String[] nameParam, final boolean openMetrics) {
+    return mockHttpServletRequest(nameParam,
+        openMetrics ? "application/openmetrics-text; version=0.0.1,text/plain;version=0.0.4;q=0.5,*/*;q=0.1" : null);
+  }
+
+  private HttpServletRequestAdapter mockHttpServletRequest(final String[] nameParam, final String accept) {
+    return mockHttpServletRequest(nameParam, accept, null, null);
+  }
+
+  private HttpServletRequestAdapter mockHttpServletRequest(final String[] nameParam, final String accept,
+                                                           final String acceptEncoding, final AsyncContextAdapter async) {
     return new HttpServletRequestAdapter() {
       @Override
       public String getHeader(String name) {
-        if (openMetrics && "Accept".equals(name)) {
-          return "application/openmetrics-text; version=0.0.1,text/plain;version=0.0.4;q=0.5,*/*;q=0.1";
+        if ("Accept".equals(name)) {
+          return accept;
+        }
+        if ("Accept-Encoding".equals(name)) {
+          return acceptEncoding;
         }
         return null;
       }
@@ -53,28 +90,71 @@ public class ExporterTest {
       public String getContextPath() {
         return "";
       }
+
+      @Override
+      public boolean isAsyncSupported() {
+        return async != null;
+      }
+
+      @Override
+      public AsyncContextAdapter startAsync() {
+        return async;
+      }
     };
   }
 
   private HttpServletResponseAdapter mockHttpServletResponse(final PrintWriter writer) {
+    return mockHttpServletResponse(writer, null);
+  }
+
+  private HttpServletResponseAdapter mockHttpServletResponse(final PrintWriter writer, final OutputStream out) {
+    return mockHttpServletResponse(writer, out, new HashMap<String, String>());
+  }
+
+  private HttpServletResponseAdapter mockHttpServletResponse(final PrintWriter writer, final OutputStream out,
+                                                             final Map<String, String> headers) {
     return new HttpServletResponseAdapter() {
+      private int status;
+
       @Override
       public int getStatus() {
-        return 0;
+        return status;
       }
 
       @Override
       public void setStatus(int httpStatusCode) {
+        status = httpStatusCode;
       }
 
       @Override
       public void setContentType(String contentType) {
       }
 
+      @Override
+      public void setHeader(String name, String value) {
+        headers.put(name, value);
+      }
+
       @Override
       public PrintWriter getWriter() {
         return writer;
       }
+
+      @Override
+      public OutputStream getOutputStream() {
+        return out;
+      }
+
+      @Override
+      public boolean isCommitted() {
+        return false;
+      }
+
+      @Override
+      public void reset() {
+        status = 0;
+        headers.clear();
+      }
     };
   }
 
@@ -155,4 +235,233 @@ public class ExporterTest {
     assertThat(responseBody.toString()).contains("a 0.0");
     assertThat(responseBody.toString()).contains("# EOF");
   }
+
+  @Test
+  public void testProtobufNegotiated() throws IOException {
+    CollectorRegistry registry = new CollectorRegistry();
+    Gauge.build("a", "a help").register(registry);
+
+    HttpServletRequestAdapter req = mockHttpServletRequest(null,
+        "application/vnd.google.protobuf;proto=io.prometheus.client.MetricFamily;encoding=delimited;q=0.7,text/plain;version=0.0.4;q=0.3");
+    ByteArrayOutputStream responseBody = new ByteArrayOutputStream();
+    HttpServletResponseAdapter resp = mockHttpServletResponse(null, responseBody);
+
+    new Exporter(registry).doGet(req, resp);
+
+    // Delimited MetricFamily with name "a", help "a help" and type GAUGE.
+    byte[] body = responseBody.toByteArray();
+    assertThat(body[0]).isEqualTo((byte) (body.length - 1));
+    assertThat(Arrays.copyOfRange(body, 1, 14)).isEqualTo(new byte[] {0x0a, 0x01, 'a', 0x12, 0x06, 'a', ' ', 'h', 'e', 'l', 'p', 0x18, 0x01});
+  }
+
+  @Test
+  public void testGlobalTagsInTextFormat() throws IOException {
+    CollectorRegistry registry = new CollectorRegistry();
+    registry.setGlobalTags(Collections.singletonMap("env", "prod"));
+    Gauge.build("a", "a help").register(registry);
+
+    StringWriter responseBody = new StringWriter();
+    new Exporter(registry).doGet(mockHttpServletRequest(), mockHttpServletResponse(new PrintWriter(responseBody)));
+
+    assertThat(responseBody.toString()).contains("a{env=\"prod\",} 0.0");
+  }
+
+  private static String gunzip(byte[] body) throws IOException {
+    Reader reader = new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(body)), "UTF-8");
+    StringBuilder result = new StringBuilder();
+    char[] buf = new char[1024];
+    for (int n = reader.read(buf); n != -1; n = reader.read(buf)) {
+      result.append(buf, 0, n);
+    }
+    return result.toString();
+  }
+
+  @Test
+  public void testGzip() throws IOException {
+    CollectorRegistry registry = new CollectorRegistry();
+    Gauge.build("a", "a help").register(registry);
+
+    HttpServletRequestAdapter req = mockHttpServletRequest(null, null, "deflate, gzip", null);
+    ByteArrayOutputStream responseBody = new ByteArrayOutputStream();
+    Map<String, String> headers = new HashMap<String, String>();
+    HttpServletResponseAdapter resp = mockHttpServletResponse(null, responseBody, headers);
+
+    new Exporter(registry).doGet(req, resp);
+
+    assertThat(headers.get("Content-Encoding")).isEqualTo("gzip");
+    assertThat(gunzip(responseBody.toByteArray())).contains("a 0.0");
+  }
+
+  @Test
+  public void testAsync() throws Exception {
+    CollectorRegistry registry = new CollectorRegistry();
+    Gauge.build("a", "a help").register(registry);
+    final CountDownLatch completed = new CountDownLatch(1);
+    final Thread containerThread = Thread.currentThread();
+    final AtomicBoolean writtenOnContainerThread = new AtomicBoolean(true);
+    HttpServletRequestAdapter req = mockHttpServletRequest(null, null, null, new AsyncContextAdapter() {
+      @Override
+      public void setTimeout(long timeoutMillis) {
+      }
+
+      @Override
+      public void addListener(AsyncListenerAdapter listener) {
+      }
+
+      @Override
+      public void complete() {
+        completed.countDown();
+      }
+    });
+    StringWriter responseBody = new StringWriter() {
+      @Override
+      public void write(char[] cbuf, int off, int len) {
+        writtenOnContainerThread.set(Thread.currentThread() == containerThread);
+        super.write(cbuf, off, len);
+      }
+    };
+    HttpServletResponseAdapter resp = mockHttpServletResponse(new PrintWriter(responseBody));
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      new Exporter(registry, executor).doGet(req, resp);
+      Assert.assertTrue(completed.await(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(writtenOnContainerThread.get()).isFalse();
+    assertThat(responseBody.toString()).contains("a 0.0");
+  }
+
+  @Test
+  public void testAsyncFailure() throws Exception {
+    CollectorRegistry registry = new CollectorRegistry();
+    new Collector() {
+      @Override
+      public List<MetricFamilySamples> collect() {
+        throw new RuntimeException("collection failed");
+      }
+    }.register(registry);
+    final CountDownLatch completed = new CountDownLatch(1);
+    final AtomicLong timeout = new AtomicLong(-1);
+    HttpServletRequestAdapter req = mockHttpServletRequest(null, null, "gzip", new AsyncContextAdapter() {
+      @Override
+      public void setTimeout(long timeoutMillis) {
+        timeout.set(timeoutMillis);
+      }
+
+      @Override
+      public void addListener(AsyncListenerAdapter listener) {
+      }
+
+      @Override
+      public void complete() {
+        completed.countDown();
+      }
+    });
+    Map<String, String> headers = new HashMap<String, String>();
+    HttpServletResponseAdapter resp = mockHttpServletResponse(null, new ByteArrayOutputStream(), headers);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      new Exporter(registry, executor, 60000).doGet(req, resp);
+      Assert.assertTrue(completed.await(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(timeout.get()).isEqualTo(60000);
+    assertThat(resp.getStatus()).isEqualTo(500);
+    assertThat(headers).doesNotContainKey("Content-Encoding");
+  }
+
+  @Test
+  public void testAsyncTimeout() throws Exception {
+    final CountDownLatch collecting = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    CollectorRegistry registry = new CollectorRegistry();
+    new Collector() {
+      @Override
+      public List<MetricFamilySamples> collect() {
+        collecting.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return Collections.<MetricFamilySamples>singletonList(new GaugeMetricFamily("x", "help", 1));
+      }
+    }.register(registry);
+    final AtomicReference<AsyncListenerAdapter> listener = new AtomicReference<AsyncListenerAdapter>();
+    final AtomicInteger completions = new AtomicInteger();
+    HttpServletRequestAdapter req = mockHttpServletRequest(null, null, null, new AsyncContextAdapter() {
+      @Override
+      public void setTimeout(long timeoutMillis) {
+      }
+
+      @Override
+      public void addListener(AsyncListenerAdapter l) {
+        listener.set(l);
+      }
+
+      @Override
+      public void complete() {
+        completions.incrementAndGet();
+      }
+    });
+    StringWriter responseBody = new StringWriter();
+    HttpServletResponseAdapter resp = mockHttpServletResponse(new PrintWriter(responseBody));
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      new Exporter(registry, executor, 1000).doGet(req, resp);
+      Assert.assertTrue(collecting.await(10, TimeUnit.SECONDS));
+      listener.get().onTimeout();
+      assertThat(resp.getStatus()).isEqualTo(503);
+      assertThat(completions.get()).isEqualTo(1);
+      release.countDown();
+    } finally {
+      executor.shutdown();
+      Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+    // The task stopped touching the response once the request was completed.
+    assertThat(responseBody.toString()).isEmpty();
+    assertThat(resp.getStatus()).isEqualTo(503);
+    assertThat(completions.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testAsyncRejected() throws IOException {
+    final AtomicBoolean completed = new AtomicBoolean(false);
+    final AtomicLong timeout = new AtomicLong(-1);
+    HttpServletRequestAdapter req = mockHttpServletRequest(null, null, "gzip", new AsyncContextAdapter() {
+      @Override
+      public void setTimeout(long timeoutMillis) {
+        timeout.set(timeoutMillis);
+      }
+
+      @Override
+      public void addListener(AsyncListenerAdapter listener) {
+      }
+
+      @Override
+      public void complete() {
+        completed.set(true);
+      }
+    });
+    Map<String, String> headers = new HashMap<String, String>();
+    HttpServletResponseAdapter resp = mockHttpServletResponse(null, new ByteArrayOutputStream(), headers);
+    Executor rejecting = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        throw new RejectedExecutionException();
+      }
+    };
+
+    new Exporter(new CollectorRegistry(), rejecting).doGet(req, resp);
+
+    assertThat(resp.getStatus()).isEqualTo(503);
+    assertThat(headers).doesNotContainKey("Content-Encoding");
+    assertThat(timeout.get()).isEqualTo(0);
+    Assert.assertTrue(completed.get());
+  }
 }
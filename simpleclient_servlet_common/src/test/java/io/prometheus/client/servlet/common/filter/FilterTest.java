@@ -4,12 +4,14 @@ import io.prometheus.client.Collector;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.exporter.common.TextFormat;
 import io.prometheus.client.servlet.common.adapter.FilterConfigAdapter;
+import io.prometheus.client.servlet.common.adapter.AsyncContextAdapter;
 import io.prometheus.client.servlet.common.adapter.HttpServletRequestAdapter;
 import io.prometheus.client.servlet.common.adapter.HttpServletResponseAdapter;
 import org.junit.After;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Enumeration;
@@ -75,6 +77,16 @@ public class FilterTest {
             public String getContextPath() {
                 return "";
             }
+
+            @Override
+            public boolean isAsyncSupported() {
+                return false;
+            }
+
+            @Override
+            public AsyncContextAdapter startAsync() {
+                throw new IllegalStateException();
+            }
         };
     }
 
@@ -97,10 +109,28 @@ public class FilterTest {
             public void setContentType(String contentType) {
             }
 
+            @Override
+            public void setHeader(String name, String value) {
+            }
+
             @Override
             public PrintWriter getWriter() throws IOException {
                 return null;
             }
+
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                return null;
+            }
+
+            @Override
+            public boolean isCommitted() {
+                return false;
+            }
+
+            @Override
+            public void reset() {
+            }
         };
     }
 
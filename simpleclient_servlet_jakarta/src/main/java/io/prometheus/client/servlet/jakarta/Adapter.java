@@ -1,13 +1,19 @@
 package io.prometheus.client.servlet.jakarta;
 
+import io.prometheus.client.servlet.common.adapter.AsyncContextAdapter;
+import io.prometheus.client.servlet.common.adapter.AsyncListenerAdapter;
 import io.prometheus.client.servlet.common.adapter.FilterConfigAdapter;
 import io.prometheus.client.servlet.common.adapter.HttpServletRequestAdapter;
 import io.prometheus.client.servlet.common.adapter.HttpServletResponseAdapter;
 
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.FilterConfig;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 
 public class Adapter {
@@ -44,6 +50,50 @@ public class Adapter {
         public String getContextPath() {
             return delegate.getContextPath();
         }
+
+        @Override
+        public boolean isAsyncSupported() {
+            return delegate.isAsyncSupported();
+        }
+
+        @Override
+        public AsyncContextAdapter startAsync() {
+            final AsyncContext asyncContext = delegate.startAsync();
+            return new AsyncContextAdapter() {
+                @Override
+                public void setTimeout(long timeoutMillis) {
+                    asyncContext.setTimeout(timeoutMillis);
+                }
+
+                @Override
+                public void addListener(final AsyncListenerAdapter listener) {
+                    asyncContext.addListener(new AsyncListener() {
+                        @Override
+                        public void onComplete(AsyncEvent event) {
+                        }
+
+                        @Override
+                        public void onTimeout(AsyncEvent event) {
+                            listener.onTimeout();
+                        }
+
+                        @Override
+                        public void onError(AsyncEvent event) {
+                            listener.onError(event.getThrowable());
+                        }
+
+                        @Override
+                        public void onStartAsync(AsyncEvent event) {
+                        }
+                    });
+                }
+
+                @Override
+                public void complete() {
+                    asyncContext.complete();
+                }
+            };
+        }
     }
 
     private static class HttpServletResponseAdapterImpl implements HttpServletResponseAdapter {
@@ -56,7 +106,7 @@ public class Adapter {
 
         @Override
         public void setStatus(int httpStatusCode) {
-            delegate.setBufferSize(httpStatusCode);
+            delegate.setStatus(httpStatusCode);
         }
 
         @Override
@@ -64,11 +114,31 @@ public class Adapter {
             delegate.setContentType(contentType);
         }
 
+        @Override
+        public void setHeader(String name, String value) {
+            delegate.setHeader(name, value);
+        }
+
         @Override
         public PrintWriter getWriter() throws IOException {
             return delegate.getWriter();
         }
 
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return delegate.getOutputStream();
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return delegate.isCommitted();
+        }
+
+        @Override
+        public void reset() {
+            delegate.reset();
+        }
+
         @Override
         public int getStatus() {
             return delegate.getStatus();
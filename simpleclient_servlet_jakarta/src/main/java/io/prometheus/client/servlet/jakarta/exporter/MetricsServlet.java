@@ -1,11 +1,13 @@
 package io.prometheus.client.servlet.jakarta.exporter;
 
+import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.servlet.common.exporter.Exporter;
 
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 import static io.prometheus.client.servlet.jakarta.Adapter.wrap;
 
@@ -14,7 +16,31 @@ import static io.prometheus.client.servlet.jakarta.Adapter.wrap;
  */
 public class MetricsServlet extends HttpServlet {
 
-  private final Exporter exporter = new Exporter();
+  private final Exporter exporter;
+
+  public MetricsServlet() {
+    exporter = new Exporter();
+  }
+
+  public MetricsServlet(CollectorRegistry registry) {
+    exporter = new Exporter(registry);
+  }
+
+  /**
+   * Collect and write responses on the given executor rather than on the container's request thread.
+   * The servlet must be registered with {@code asyncSupported} enabled for this to take effect.
+   */
+  public MetricsServlet(CollectorRegistry registry, Executor executor) {
+    exporter = new Exporter(registry, executor);
+  }
+
+  /**
+   * Like {@link #MetricsServlet(CollectorRegistry, Executor)}, with the given async request timeout
+   * in milliseconds instead of none. 0 means no timeout.
+   */
+  public MetricsServlet(CollectorRegistry registry, Executor executor, long asyncTimeoutMillis) {
+    exporter = new Exporter(registry, executor, asyncTimeoutMillis);
+  }
 
   @Override
   protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
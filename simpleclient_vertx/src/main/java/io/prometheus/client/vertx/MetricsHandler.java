@@ -1,17 +1,22 @@
 package io.prometheus.client.vertx;
 
 import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.ProtobufFormat;
 import io.prometheus.client.exporter.common.TextFormat;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.WorkerExecutor;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.ext.web.RoutingContext;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
-import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Metrics Handler for Vert.x Web.
@@ -19,6 +24,10 @@ import java.util.Set;
  * This handler will allow the usage of Prometheus Client Java API with
  * Vert.x applications and expose a API compatible handler for the collector.
  * <p>
+ * Collection and encoding run on a worker thread, either from the Vert.x worker pool or
+ * from a given {@link WorkerExecutor}, so that scrapes of large registries do not block the event loop.
+ * Responses are gzip compressed if the client sends {@code Accept-Encoding: gzip}.
+ * <p>
  * Usage:
  * <p>
  * router.route("/metrics").handler(new MetricsHandler());
@@ -26,34 +35,122 @@ import java.util.Set;
 public class MetricsHandler implements Handler<RoutingContext> {
 
   /**
-   * Wrap a Vert.x Buffer as a Writer so it can be used with
-   * TextFormat writer
+   * Append bytes to a Vert.x Buffer.
+   */
+  private static class BufferOutputStream extends OutputStream {
+
+    private final Buffer buffer;
+
+    BufferOutputStream(Buffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b) {
+      buffer.appendByte((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      buffer.appendBytes(b, off, len);
+    }
+  }
+
+  /**
+   * UTF-8 encode characters straight into an OutputStream, so it can be used with
+   * TextFormat writer without creating an intermediate String for every fragment.
    */
   private static class BufferWriter extends Writer {
 
-    private final Buffer buffer = Buffer.buffer();
+    private final OutputStream out;
+    private final byte[] buf = new byte[8192];
+    private int count;
+    private int highSurrogate = -1;
+
+    BufferWriter(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+      encode((char) c);
+    }
 
     @Override
     public void write(char[] cbuf, int off, int len) throws IOException {
-      buffer.appendString(new String(cbuf, off, len));
+      for (int i = off; i < off + len; i++) {
+        encode(cbuf[i]);
+      }
     }
 
     @Override
-    public void flush() throws IOException {
-      // NO-OP
+    public void write(String str, int off, int len) throws IOException {
+      for (int i = off; i < off + len; i++) {
+        encode(str.charAt(i));
+      }
+    }
+
+    private void encode(char c) throws IOException {
+      if (count > buf.length - 4) {
+        flushBuffer();
+      }
+      if (highSurrogate != -1) {
+        int high = highSurrogate;
+        highSurrogate = -1;
+        if (Character.isLowSurrogate(c)) {
+          int codePoint = Character.toCodePoint((char) high, c);
+          buf[count++] = (byte) (0xF0 | (codePoint >> 18));
+          buf[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+          buf[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+          buf[count++] = (byte) (0x80 | (codePoint & 0x3F));
+          return;
+        }
+        buf[count++] = '?';
+        encode(c);
+        return;
+      }
+      if (c < 0x80) {
+        buf[count++] = (byte) c;
+      } else if (c < 0x800) {
+        buf[count++] = (byte) (0xC0 | (c >> 6));
+        buf[count++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c)) {
+        highSurrogate = c;
+      } else if (Character.isLowSurrogate(c)) {
+        buf[count++] = '?';
+      } else {
+        buf[count++] = (byte) (0xE0 | (c >> 12));
+        buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buf[count++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+
+    private void flushBuffer() throws IOException {
+      if (count > 0) {
+        out.write(buf, 0, count);
+        count = 0;
+      }
     }
 
     @Override
-    public void close() throws IOException {
-      // NO-OP
+    public void flush() throws IOException {
+      flushBuffer();
+      out.flush();
     }
 
-    Buffer getBuffer() {
-      return buffer;
+    @Override
+    public void close() throws IOException {
+      if (highSurrogate != -1) {
+        highSurrogate = -1;
+        encode('?');
+      }
+      flushBuffer();
+      out.close();
     }
   }
 
   private CollectorRegistry registry;
+  private final WorkerExecutor workerExecutor;
 
   /**
    * Construct a MetricsHandler for the default registry.
@@ -66,26 +163,87 @@ public class MetricsHandler implements Handler<RoutingContext> {
    * Construct a MetricsHandler for the given registry.
    */
   public MetricsHandler(CollectorRegistry registry) {
+    this(registry, null);
+  }
+
+  /**
+   * Construct a MetricsHandler for the given registry that collects on the given worker executor.
+   * If {@code workerExecutor} is {@code null}, the Vert.x worker pool is used.
+   */
+  public MetricsHandler(CollectorRegistry registry, WorkerExecutor workerExecutor) {
     this.registry = registry;
+    this.workerExecutor = workerExecutor;
   }
 
   @Override
-  public void handle(RoutingContext ctx) {
-    try {
-      final BufferWriter writer = new BufferWriter();
-      String contentType = TextFormat.chooseContentType(ctx.request().headers().get("Accept"));
-
-      TextFormat.writeFormat(contentType, writer, registry.filteredMetricFamilySamples(parse(ctx.request())));
-      ctx.response()
-              .setStatusCode(200)
-              .putHeader("Content-Type", contentType)
-              .end(writer.getBuffer());
-    } catch (IOException e) {
-      ctx.fail(e);
+  public void handle(final RoutingContext ctx) {
+    final String contentType = TextFormat.chooseContentType(ctx.request().headers().get("Accept"), true);
+    final Set<String> names = parse(ctx.request());
+    final boolean gzip = shouldUseCompression(ctx.request());
+
+    Handler<Future<Buffer>> collect = new Handler<Future<Buffer>>() {
+      @Override
+      public void handle(Future<Buffer> future) {
+        try {
+          future.complete(write(contentType, names, gzip));
+        } catch (Exception e) {
+          future.fail(e);
+        }
+      }
+    };
+    Handler<AsyncResult<Buffer>> respond = new Handler<AsyncResult<Buffer>>() {
+      @Override
+      public void handle(AsyncResult<Buffer> result) {
+        if (result.failed()) {
+          ctx.fail(result.cause());
+          return;
+        }
+        ctx.response()
+                .setStatusCode(200)
+                .putHeader("Content-Type", contentType);
+        if (gzip) {
+          ctx.response().putHeader("Content-Encoding", "gzip");
+        }
+        ctx.response().end(result.result());
+      }
+    };
+    // Unordered, so that concurrent scrapes do not queue up behind each other.
+    if (workerExecutor != null) {
+      workerExecutor.executeBlocking(collect, false, respond);
+    } else {
+      ctx.vertx().executeBlocking(collect, false, respond);
+    }
+  }
+
+  private Buffer write(String contentType, Set<String> names, boolean gzip) throws IOException {
+    Buffer buffer = Buffer.buffer();
+    OutputStream out = new BufferOutputStream(buffer);
+    if (gzip) {
+      out = new GZIPOutputStream(out, 8192);
+    }
+    if (ProtobufFormat.CONTENT_TYPE_PROTOBUF.equals(contentType)) {
+      ProtobufFormat.write(out, registry.filteredMetricFamilySamples(names), registry.getGlobalTags());
+      out.close();
+    } else {
+      Writer writer = new BufferWriter(out);
+      TextFormat.writeFormat(contentType, writer, registry.filteredMetricFamilySamples(names), registry.getGlobalTags());
+      writer.close();
+    }
+    return buffer;
+  }
+
+  private static boolean shouldUseCompression(HttpServerRequest request) {
+    for (String encodingHeader : request.headers().getAll("Accept-Encoding")) {
+      for (String encoding : encodingHeader.split(",")) {
+        if (encoding.trim().equalsIgnoreCase("gzip")) {
+          return true;
+        }
+      }
     }
+    return false;
   }
 
   private Set<String> parse(HttpServerRequest request) {
-    return new HashSet(request.params().getAll("name[]"));
+    return new HashSet<String>(request.params().getAll("name[]"));
   }
 }
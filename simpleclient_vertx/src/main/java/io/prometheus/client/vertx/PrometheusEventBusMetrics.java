@@ -0,0 +1,143 @@
+package io.prometheus.client.vertx;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.spi.metrics.EventBusMetrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Event bus metrics.
+ * <p>
+ * Handler metrics are labelled by address and resolved when the handler is registered.
+ * Reply handlers are not tracked, as their addresses are generated per request.
+ * Sent and received messages are labelled only by send or publish and local or remote,
+ * so that they can be counted without any lookup.
+ */
+class PrometheusEventBusMetrics implements EventBusMetrics<PrometheusEventBusMetrics.HandlerMetric> {
+
+  static final class HandlerMetric {
+    final Gauge.Child pending;
+    final Histogram.Child duration;
+    final Counter.Child failures;
+    final AtomicInteger pendingCount = new AtomicInteger();
+    long start;
+
+    HandlerMetric(PrometheusVertxMetricsFactory metrics, String address) {
+      pending = metrics.eventBusMessagesPending.labels(address);
+      duration = metrics.eventBusHandlerDuration.labels(address);
+      failures = metrics.eventBusHandlerFailures.labels(address);
+    }
+  }
+
+  private final PrometheusVertxMetricsFactory metrics;
+  // Indexed by 2 * publish + local.
+  private final Counter.Child[] sent;
+  private final Counter.Child[] received;
+  private final Counter.Child[] replyFailures;
+
+  PrometheusEventBusMetrics(PrometheusVertxMetricsFactory metrics) {
+    this.metrics = metrics;
+    sent = childrenByType(metrics.eventBusMessagesSent);
+    received = childrenByType(metrics.eventBusMessagesReceived);
+    ReplyFailure[] failures = ReplyFailure.values();
+    replyFailures = new Counter.Child[failures.length];
+    for (ReplyFailure failure : failures) {
+      replyFailures[failure.ordinal()] = metrics.eventBusReplyFailures.labels(failure.name());
+    }
+  }
+
+  private static Counter.Child[] childrenByType(Counter counter) {
+    return new Counter.Child[] {
+        counter.labels("send", "false"),
+        counter.labels("send", "true"),
+        counter.labels("publish", "false"),
+        counter.labels("publish", "true")
+    };
+  }
+
+  private static int index(boolean publish, boolean local) {
+    return (publish ? 2 : 0) + (local ? 1 : 0);
+  }
+
+  @Override
+  public HandlerMetric handlerRegistered(String address, String repliedAddress) {
+    if (repliedAddress != null) {
+      return null;
+    }
+    return new HandlerMetric(metrics, address);
+  }
+
+  @Override
+  public void handlerUnregistered(HandlerMetric handler) {
+    if (handler != null) {
+      // Messages still queued for the handler are dropped.
+      handler.pending.dec(handler.pendingCount.getAndSet(0));
+    }
+  }
+
+  @Override
+  public void scheduleMessage(HandlerMetric handler, boolean local) {
+    if (handler != null) {
+      handler.pendingCount.incrementAndGet();
+      handler.pending.inc();
+    }
+  }
+
+  @Override
+  public void beginHandleMessage(HandlerMetric handler, boolean local) {
+    if (handler != null) {
+      if (handler.pendingCount.getAndDecrement() > 0) {
+        handler.pending.dec();
+      } else {
+        handler.pendingCount.incrementAndGet();
+      }
+      handler.start = System.nanoTime();
+    }
+  }
+
+  @Override
+  public void endHandleMessage(HandlerMetric handler, Throwable failure) {
+    if (handler != null) {
+      handler.duration.observe((System.nanoTime() - handler.start) / Collector.NANOSECONDS_PER_SECOND);
+      if (failure != null) {
+        handler.failures.inc();
+      }
+    }
+  }
+
+  @Override
+  public void messageSent(String address, boolean publish, boolean local, boolean remote) {
+    sent[index(publish, local)].inc();
+  }
+
+  @Override
+  public void messageReceived(String address, boolean publish, boolean local, int handlers) {
+    received[index(publish, local)].inc();
+  }
+
+  @Override
+  public void messageWritten(String address, int numberOfBytes) {
+  }
+
+  @Override
+  public void messageRead(String address, int numberOfBytes) {
+  }
+
+  @Override
+  public void replyFailure(String address, ReplyFailure failure) {
+    replyFailures[failure.ordinal()].inc();
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return true;
+  }
+
+  @Override
+  public void close() {
+  }
+}
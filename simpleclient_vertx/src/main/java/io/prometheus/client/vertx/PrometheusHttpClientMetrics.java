@@ -0,0 +1,181 @@
+package io.prometheus.client.vertx;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.WebSocket;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.core.spi.metrics.HttpClientMetrics;
+
+import java.util.Map;
+
+/**
+ * HTTP client metrics, with children resolved per remote endpoint when its connection pool is created.
+ */
+class PrometheusHttpClientMetrics implements HttpClientMetrics<RequestTimer, Void, Void, PrometheusHttpClientMetrics.Endpoint, Long> {
+
+  static final class Endpoint {
+    final String remote;
+    // The number of open endpoints of all clients that share this one, guarded by httpClientEndpoints.
+    int references;
+    final RequestTimer.Durations requestDuration;
+    final Histogram.Child queueDuration;
+    final Counter.Child requestsReset;
+    final Gauge.Child connections;
+
+    Endpoint(PrometheusVertxMetricsFactory metrics, String remote) {
+      this.remote = remote;
+      requestDuration = new RequestTimer.Durations(metrics.httpClientRequestDuration, remote);
+      queueDuration = metrics.httpClientQueueDuration.labels(remote);
+      requestsReset = metrics.httpClientRequestsReset.labels(remote);
+      connections = metrics.httpClientConnections.labels(remote);
+    }
+  }
+
+  private final PrometheusVertxMetricsFactory metrics;
+
+  PrometheusHttpClientMetrics(PrometheusVertxMetricsFactory metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public Endpoint createEndpoint(String host, int port, int maxPoolSize) {
+    String remote = host + ":" + port;
+    Map<String, Endpoint> endpoints = metrics.httpClientEndpoints;
+    synchronized (endpoints) {
+      // Clients and pools for the same remote share its children, so they share the Endpoint too.
+      Endpoint endpoint = endpoints.get(remote);
+      if (endpoint == null) {
+        endpoint = new Endpoint(metrics, remote);
+        endpoints.put(remote, endpoint);
+      }
+      endpoint.references++;
+      return endpoint;
+    }
+  }
+
+  @Override
+  public void closeEndpoint(String host, int port, Endpoint endpointMetric) {
+    // Vert.x closes an endpoint's pool once it has no connections left. Drop the children when no other
+    // endpoint for the remote is open, rather than exporting them for every host the clients ever talked to.
+    if (endpointMetric == null) {
+      return;
+    }
+    Map<String, Endpoint> endpoints = metrics.httpClientEndpoints;
+    synchronized (endpoints) {
+      if (--endpointMetric.references > 0 || endpoints.get(endpointMetric.remote) != endpointMetric) {
+        return;
+      }
+      endpoints.remove(endpointMetric.remote);
+      endpointMetric.requestDuration.remove();
+      metrics.httpClientQueueDuration.remove(endpointMetric.remote);
+      metrics.httpClientRequestsReset.remove(endpointMetric.remote);
+      metrics.httpClientConnections.remove(endpointMetric.remote);
+    }
+  }
+
+  @Override
+  public Long enqueueRequest(Endpoint endpointMetric) {
+    return System.nanoTime();
+  }
+
+  @Override
+  public void dequeueRequest(Endpoint endpointMetric, Long taskMetric) {
+    if (endpointMetric != null && taskMetric != null) {
+      endpointMetric.queueDuration.observe((System.nanoTime() - taskMetric) / Collector.NANOSECONDS_PER_SECOND);
+    }
+  }
+
+  @Override
+  public void endpointConnected(Endpoint endpointMetric, Void socketMetric) {
+    if (endpointMetric != null) {
+      endpointMetric.connections.inc();
+    }
+  }
+
+  @Override
+  public void endpointDisconnected(Endpoint endpointMetric, Void socketMetric) {
+    if (endpointMetric != null) {
+      endpointMetric.connections.dec();
+    }
+  }
+
+  @Override
+  public RequestTimer requestBegin(Endpoint endpointMetric, Void socketMetric, SocketAddress localAddress,
+                                   SocketAddress remoteAddress, HttpClientRequest request) {
+    if (endpointMetric == null) {
+      return null;
+    }
+    return new RequestTimer(endpointMetric.requestDuration.get(request.method()), endpointMetric.requestsReset);
+  }
+
+  @Override
+  public void requestEnd(RequestTimer requestMetric) {
+  }
+
+  @Override
+  public void responseBegin(RequestTimer requestMetric, HttpClientResponse response) {
+  }
+
+  @Override
+  public RequestTimer responsePushed(Endpoint endpointMetric, Void socketMetric, SocketAddress localAddress,
+                                     SocketAddress remoteAddress, HttpClientRequest request) {
+    return requestBegin(endpointMetric, socketMetric, localAddress, remoteAddress, request);
+  }
+
+  @Override
+  public void requestReset(RequestTimer requestMetric) {
+    if (requestMetric != null) {
+      requestMetric.reset();
+    }
+  }
+
+  @Override
+  public void responseEnd(RequestTimer requestMetric, HttpClientResponse response) {
+    if (requestMetric != null) {
+      requestMetric.observeDuration();
+    }
+  }
+
+  @Override
+  public Void connected(Endpoint endpointMetric, Void socketMetric, WebSocket webSocket) {
+    return null;
+  }
+
+  @Override
+  public void disconnected(Void webSocketMetric) {
+  }
+
+  @Override
+  public Void connected(SocketAddress remoteAddress, String remoteName) {
+    return null;
+  }
+
+  @Override
+  public void disconnected(Void socketMetric, SocketAddress remoteAddress) {
+  }
+
+  @Override
+  public void bytesRead(Void socketMetric, SocketAddress remoteAddress, long numberOfBytes) {
+  }
+
+  @Override
+  public void bytesWritten(Void socketMetric, SocketAddress remoteAddress, long numberOfBytes) {
+  }
+
+  @Override
+  public void exceptionOccurred(Void socketMetric, SocketAddress remoteAddress, Throwable t) {
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return true;
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -0,0 +1,98 @@
+package io.prometheus.client.vertx;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.core.spi.metrics.HttpServerMetrics;
+
+/**
+ * HTTP server metrics, with children resolved for the server's local address when it starts.
+ */
+class PrometheusHttpServerMetrics implements HttpServerMetrics<RequestTimer, Void, Void> {
+
+  private final RequestTimer.Durations requestDuration;
+  private final Counter.Child requestsReset;
+  private final Gauge.Child connections;
+  private final Counter.Child bytesRead;
+  private final Counter.Child bytesWritten;
+
+  PrometheusHttpServerMetrics(PrometheusVertxMetricsFactory metrics, String local) {
+    requestDuration = new RequestTimer.Durations(metrics.httpServerRequestDuration, local);
+    requestsReset = metrics.httpServerRequestsReset.labels(local);
+    connections = metrics.httpServerConnections.labels(local);
+    bytesRead = metrics.httpServerBytesRead.labels(local);
+    bytesWritten = metrics.httpServerBytesWritten.labels(local);
+  }
+
+  @Override
+  public RequestTimer requestBegin(Void socketMetric, HttpServerRequest request) {
+    return new RequestTimer(requestDuration.get(request.method()), requestsReset);
+  }
+
+  @Override
+  public void requestReset(RequestTimer requestMetric) {
+    requestMetric.reset();
+  }
+
+  @Override
+  public RequestTimer responsePushed(Void socketMetric, HttpMethod method, String uri, HttpServerResponse response) {
+    return new RequestTimer(requestDuration.get(method), requestsReset);
+  }
+
+  @Override
+  public void responseEnd(RequestTimer requestMetric, HttpServerResponse response) {
+    requestMetric.observeDuration();
+  }
+
+  @Override
+  public Void upgrade(RequestTimer requestMetric, ServerWebSocket serverWebSocket) {
+    return null;
+  }
+
+  @Override
+  public Void connected(Void socketMetric, ServerWebSocket serverWebSocket) {
+    return null;
+  }
+
+  @Override
+  public void disconnected(Void serverWebSocketMetric) {
+  }
+
+  @Override
+  public Void connected(SocketAddress remoteAddress, String remoteName) {
+    connections.inc();
+    return null;
+  }
+
+  @Override
+  public void disconnected(Void socketMetric, SocketAddress remoteAddress) {
+    connections.dec();
+  }
+
+  @Override
+  public void bytesRead(Void socketMetric, SocketAddress remoteAddress, long numberOfBytes) {
+    bytesRead.inc(numberOfBytes);
+  }
+
+  @Override
+  public void bytesWritten(Void socketMetric, SocketAddress remoteAddress, long numberOfBytes) {
+    bytesWritten.inc(numberOfBytes);
+  }
+
+  @Override
+  public void exceptionOccurred(Void socketMetric, SocketAddress remoteAddress, Throwable t) {
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return true;
+  }
+
+  @Override
+  public void close() {
+  }
+}
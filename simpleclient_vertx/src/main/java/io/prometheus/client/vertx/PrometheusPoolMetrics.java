@@ -0,0 +1,64 @@
+package io.prometheus.client.vertx;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import io.vertx.core.spi.metrics.PoolMetrics;
+
+/**
+ * Queue and usage times of a Vert.x pool, such as the worker pool.
+ * The task metric is the time in nanoseconds at which the task was queued or started.
+ */
+class PrometheusPoolMetrics implements PoolMetrics<Long> {
+
+  private final Histogram.Child queueDuration;
+  private final Histogram.Child usageDuration;
+  private final Gauge.Child queueSize;
+  private final Gauge.Child inUse;
+  private final Counter.Child rejected;
+
+  PrometheusPoolMetrics(PrometheusVertxMetricsFactory metrics, String poolType, String poolName) {
+    queueDuration = metrics.poolQueueDuration.labels(poolType, poolName);
+    usageDuration = metrics.poolUsageDuration.labels(poolType, poolName);
+    queueSize = metrics.poolQueueSize.labels(poolType, poolName);
+    inUse = metrics.poolInUse.labels(poolType, poolName);
+    rejected = metrics.poolRejected.labels(poolType, poolName);
+  }
+
+  @Override
+  public Long submitted() {
+    queueSize.inc();
+    return System.nanoTime();
+  }
+
+  @Override
+  public Long begin(Long submitted) {
+    long now = System.nanoTime();
+    queueSize.dec();
+    queueDuration.observe((now - submitted) / Collector.NANOSECONDS_PER_SECOND);
+    inUse.inc();
+    return now;
+  }
+
+  @Override
+  public void rejected(Long submitted) {
+    queueSize.dec();
+    rejected.inc();
+  }
+
+  @Override
+  public void end(Long begin, boolean succeeded) {
+    inUse.dec();
+    usageDuration.observe((System.nanoTime() - begin) / Collector.NANOSECONDS_PER_SECOND);
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return true;
+  }
+
+  @Override
+  public void close() {
+  }
+}
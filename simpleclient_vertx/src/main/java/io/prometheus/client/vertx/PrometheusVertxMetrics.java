@@ -0,0 +1,58 @@
+package io.prometheus.client.vertx;
+
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.metrics.impl.DummyVertxMetrics;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.core.spi.metrics.EventBusMetrics;
+import io.vertx.core.spi.metrics.HttpClientMetrics;
+import io.vertx.core.spi.metrics.HttpServerMetrics;
+import io.vertx.core.spi.metrics.PoolMetrics;
+
+/**
+ * The {@link io.vertx.core.spi.metrics.VertxMetrics} created by {@link PrometheusVertxMetricsFactory}.
+ * <p>
+ * TCP, datagram, verticle and timer metrics are left to the no-op implementation.
+ */
+class PrometheusVertxMetrics extends DummyVertxMetrics {
+
+  private final PrometheusVertxMetricsFactory metrics;
+
+  PrometheusVertxMetrics(PrometheusVertxMetricsFactory metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public EventBusMetrics<?> createMetrics(EventBus eventBus) {
+    return new PrometheusEventBusMetrics(metrics);
+  }
+
+  @Override
+  public HttpServerMetrics<?, ?, ?> createMetrics(HttpServer server, SocketAddress localAddress, HttpServerOptions options) {
+    // Vert.x creates the metrics once the server is bound, so this is the actual port when listening on port 0.
+    return new PrometheusHttpServerMetrics(metrics, localAddress.host() + ":" + server.actualPort());
+  }
+
+  @Override
+  public HttpClientMetrics<?, ?, ?, ?, ?> createMetrics(HttpClient client, HttpClientOptions options) {
+    return new PrometheusHttpClientMetrics(metrics);
+  }
+
+  @Override
+  public <P> PoolMetrics<?> createMetrics(P pool, String poolType, String poolName, int maxPoolSize) {
+    return new PrometheusPoolMetrics(metrics, poolType, poolName);
+  }
+
+  @Override
+  public boolean isMetricsEnabled() {
+    return true;
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return true;
+  }
+}
@@ -0,0 +1,184 @@
+package io.prometheus.client.vertx;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.spi.VertxMetricsFactory;
+import io.vertx.core.spi.metrics.VertxMetrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Vert.x metrics SPI implementation exposing Vert.x internals as Prometheus metrics.
+ * <p>
+ * This covers HTTP server and client request latencies, HTTP client connection pool queueing,
+ * event bus message rates and handler latencies, and worker pool queue and usage times.
+ * Label values are resolved when Vert.x creates a server, client endpoint, handler or pool,
+ * and request durations on the first request with each HTTP method,
+ * so that recording a request or message only touches pre-resolved children.
+ * Children of a client endpoint are removed when Vert.x closes the last endpoint for its remote address.
+ * <p>
+ * Usage:
+ * <pre>
+ * {@code
+ * Vertx vertx = Vertx.vertx(new VertxOptions().setMetricsOptions(
+ *     new MetricsOptions().setEnabled(true).setFactory(new PrometheusVertxMetricsFactory())));
+ * }
+ * </pre>
+ * The metrics are registered with the registry when the factory is constructed,
+ * so use a single factory for all Vert.x instances sharing a registry.
+ */
+public class PrometheusVertxMetricsFactory implements VertxMetricsFactory {
+
+  final Histogram httpServerRequestDuration;
+  final Counter httpServerRequestsReset;
+  final Gauge httpServerConnections;
+  final Counter httpServerBytesRead;
+  final Counter httpServerBytesWritten;
+
+  final Histogram httpClientRequestDuration;
+  final Histogram httpClientQueueDuration;
+  final Counter httpClientRequestsReset;
+  final Gauge httpClientConnections;
+  // The open client endpoints by remote address, see PrometheusHttpClientMetrics.
+  final Map<String, PrometheusHttpClientMetrics.Endpoint> httpClientEndpoints =
+      new HashMap<String, PrometheusHttpClientMetrics.Endpoint>();
+
+  final Counter eventBusMessagesSent;
+  final Counter eventBusMessagesReceived;
+  final Gauge eventBusMessagesPending;
+  final Histogram eventBusHandlerDuration;
+  final Counter eventBusHandlerFailures;
+  final Counter eventBusReplyFailures;
+
+  final Histogram poolQueueDuration;
+  final Histogram poolUsageDuration;
+  final Gauge poolQueueSize;
+  final Gauge poolInUse;
+  final Counter poolRejected;
+
+  /**
+   * Construct a PrometheusVertxMetricsFactory registering its metrics with the default registry.
+   */
+  public PrometheusVertxMetricsFactory() {
+    this(CollectorRegistry.defaultRegistry);
+  }
+
+  /**
+   * Construct a PrometheusVertxMetricsFactory registering its metrics with the given registry.
+   */
+  public PrometheusVertxMetricsFactory(CollectorRegistry registry) {
+    httpServerRequestDuration = Histogram.build()
+        .name("vertx_http_server_request_duration_seconds")
+        .help("Time from the start of an HTTP server request until its response ended.")
+        .labelNames("local", "method")
+        .register(registry);
+    httpServerRequestsReset = Counter.build()
+        .name("vertx_http_server_requests_reset_total")
+        .help("HTTP server requests reset before their response ended.")
+        .labelNames("local")
+        .register(registry);
+    httpServerConnections = Gauge.build()
+        .name("vertx_http_server_connections")
+        .help("Open HTTP server connections.")
+        .labelNames("local")
+        .register(registry);
+    httpServerBytesRead = Counter.build()
+        .name("vertx_http_server_bytes_read_total")
+        .help("Bytes read by the HTTP server.")
+        .labelNames("local")
+        .register(registry);
+    httpServerBytesWritten = Counter.build()
+        .name("vertx_http_server_bytes_written_total")
+        .help("Bytes written by the HTTP server.")
+        .labelNames("local")
+        .register(registry);
+
+    httpClientRequestDuration = Histogram.build()
+        .name("vertx_http_client_request_duration_seconds")
+        .help("Time from the start of an HTTP client request until its response ended.")
+        .labelNames("remote", "method")
+        .register(registry);
+    httpClientQueueDuration = Histogram.build()
+        .name("vertx_http_client_queue_duration_seconds")
+        .help("Time HTTP client requests waited for a pooled connection.")
+        .labelNames("remote")
+        .register(registry);
+    httpClientRequestsReset = Counter.build()
+        .name("vertx_http_client_requests_reset_total")
+        .help("HTTP client requests reset before their response ended.")
+        .labelNames("remote")
+        .register(registry);
+    httpClientConnections = Gauge.build()
+        .name("vertx_http_client_connections")
+        .help("Open HTTP client connections.")
+        .labelNames("remote")
+        .register(registry);
+
+    eventBusMessagesSent = Counter.build()
+        .name("vertx_eventbus_messages_sent_total")
+        .help("Messages sent or published on the event bus.")
+        .labelNames("type", "local")
+        .register(registry);
+    eventBusMessagesReceived = Counter.build()
+        .name("vertx_eventbus_messages_received_total")
+        .help("Messages received from the event bus.")
+        .labelNames("type", "local")
+        .register(registry);
+    eventBusMessagesPending = Gauge.build()
+        .name("vertx_eventbus_messages_pending")
+        .help("Messages scheduled for an event bus handler that it has not started to handle yet.")
+        .labelNames("address")
+        .register(registry);
+    eventBusHandlerDuration = Histogram.build()
+        .name("vertx_eventbus_handler_duration_seconds")
+        .help("Time event bus handlers took to handle a message.")
+        .labelNames("address")
+        .register(registry);
+    eventBusHandlerFailures = Counter.build()
+        .name("vertx_eventbus_handler_failures_total")
+        .help("Messages whose event bus handler threw an exception.")
+        .labelNames("address")
+        .register(registry);
+    eventBusReplyFailures = Counter.build()
+        .name("vertx_eventbus_reply_failures_total")
+        .help("Event bus reply failures.")
+        .labelNames("failure")
+        .register(registry);
+
+    poolQueueDuration = Histogram.build()
+        .name("vertx_pool_queue_duration_seconds")
+        .help("Time tasks waited in the queue of a Vert.x pool before they started.")
+        .labelNames("pool_type", "pool_name")
+        .register(registry);
+    poolUsageDuration = Histogram.build()
+        .name("vertx_pool_usage_duration_seconds")
+        .help("Time tasks ran on a Vert.x pool.")
+        .labelNames("pool_type", "pool_name")
+        .register(registry);
+    poolQueueSize = Gauge.build()
+        .name("vertx_pool_queue_size")
+        .help("Tasks waiting in the queue of a Vert.x pool.")
+        .labelNames("pool_type", "pool_name")
+        .register(registry);
+    poolInUse = Gauge.build()
+        .name("vertx_pool_in_use")
+        .help("Tasks running on a Vert.x pool.")
+        .labelNames("pool_type", "pool_name")
+        .register(registry);
+    poolRejected = Counter.build()
+        .name("vertx_pool_rejected_total")
+        .help("Tasks rejected by a Vert.x pool.")
+        .labelNames("pool_type", "pool_name")
+        .register(registry);
+  }
+
+  @Override
+  public VertxMetrics metrics(Vertx vertx, VertxOptions options) {
+    return new PrometheusVertxMetrics(this);
+  }
+}
@@ -0,0 +1,70 @@
+package io.prometheus.client.vertx;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import io.vertx.core.http.HttpMethod;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An in-flight HTTP request, recorded into pre-resolved children.
+ */
+final class RequestTimer {
+
+  private final Histogram.Child duration;
+  private final Counter.Child reset;
+  private final long start = System.nanoTime();
+
+  RequestTimer(Histogram.Child duration, Counter.Child reset) {
+    this.duration = duration;
+    this.reset = reset;
+  }
+
+  void observeDuration() {
+    duration.observe((System.nanoTime() - start) / Collector.NANOSECONDS_PER_SECOND);
+  }
+
+  void reset() {
+    reset.inc();
+  }
+
+  /**
+   * The request duration children of one address, resolved on first use of each {@link HttpMethod},
+   * so that methods that are never seen do not export empty histograms.
+   */
+  static final class Durations {
+
+    private final Histogram histogram;
+    private final String address;
+    private final AtomicReferenceArray<Histogram.Child> children =
+        new AtomicReferenceArray<Histogram.Child>(HttpMethod.values().length);
+
+    Durations(Histogram histogram, String address) {
+      this.histogram = histogram;
+      this.address = address;
+    }
+
+    Histogram.Child get(HttpMethod method) {
+      Histogram.Child child = children.get(method.ordinal());
+      if (child == null) {
+        // Racing threads resolve the same child, as labels() returns the existing one.
+        child = histogram.labels(address, method.name());
+        children.set(method.ordinal(), child);
+      }
+      return child;
+    }
+
+    /**
+     * Remove the children resolved so far from the histogram. Must only be called once no more requests are
+     * recorded, otherwise {@link #get} resolves the children again.
+     */
+    void remove() {
+      for (HttpMethod method : HttpMethod.values()) {
+        if (children.getAndSet(method.ordinal(), null) != null) {
+          histogram.remove(address, method.name());
+        }
+      }
+    }
+  }
+}
@@ -1,7 +1,9 @@
 package io.prometheus.client.vertx;
 
+import io.prometheus.client.Collector;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.Gauge;
+import io.vertx.core.Context;
 import io.vertx.core.Vertx;
 import io.vertx.ext.web.Router;
 import org.junit.AfterClass;
@@ -9,11 +11,15 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.ServerSocket;
 import java.net.URL;
+import java.util.Collections;
+import java.util.List;
 import java.util.Scanner;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -22,6 +28,7 @@ public class MetricsHandlerTest {
   private static Vertx vertx;
   private static Integer port;
   private static CollectorRegistry registry;
+  private static volatile Boolean collectedOnEventLoop;
 
   @BeforeClass
   public static void setUp() throws Throwable {
@@ -53,6 +60,14 @@ public class MetricsHandlerTest {
     Gauge.build("a", "a help").register(registry);
     Gauge.build("b", "b help").register(registry);
     Gauge.build("c", "c help").register(registry);
+    Gauge.build("d", "d help \u00e4\u20ac\ud83d\ude00").register(registry);
+    new Collector() {
+      @Override
+      public List<MetricFamilySamples> collect() {
+        collectedOnEventLoop = Context.isOnEventLoopThread();
+        return Collections.emptyList();
+      }
+    }.register(registry);
   }
 
   @AfterClass
@@ -78,6 +93,33 @@ public class MetricsHandlerTest {
     assertThat(out).contains("c 0.0");
   }
 
+  @Test
+  public void metricsRequest_shouldNotCollectOnEventLoop() throws IOException {
+    collectedOnEventLoop = null;
+    makeRequest("/metrics");
+
+    assertThat(collectedOnEventLoop).isFalse();
+  }
+
+  @Test
+  public void metricsRequest_shouldEncodeUtf8() throws IOException {
+    String out = makeRequest("/metrics?name[]=d");
+
+    assertThat(out).contains("# HELP d d help \u00e4\u20ac\ud83d\ude00");
+  }
+
+  @Test
+  public void metricsRequest_shouldGzipIfAccepted() throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/metrics").openConnection();
+    connection.setRequestProperty("Accept-Encoding", "gzip");
+
+    assertThat(connection.getHeaderField("Content-Encoding")).isEqualTo("gzip");
+    Scanner scanner = new Scanner(new GZIPInputStream(connection.getInputStream()), "UTF-8").useDelimiter("\\A");
+    String out = scanner.next();
+    scanner.close();
+    assertThat(out).contains("a 0.0");
+    assertThat(out).contains("c 0.0");
+  }
 
   private String makeRequest(String url) throws IOException {
     Scanner scanner = new Scanner(new URL("http://localhost:" + port + url).openStream(), "UTF-8")
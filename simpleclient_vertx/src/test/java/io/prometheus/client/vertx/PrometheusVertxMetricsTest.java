@@ -0,0 +1,150 @@
+package io.prometheus.client.vertx;
+
+import io.prometheus.client.CollectorRegistry;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.metrics.MetricsOptions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PrometheusVertxMetricsTest {
+
+  private CollectorRegistry registry;
+  private Vertx vertx;
+
+  @Before
+  public void setUp() {
+    registry = new CollectorRegistry();
+    vertx = Vertx.vertx(new VertxOptions().setMetricsOptions(
+        new MetricsOptions().setEnabled(true).setFactory(new PrometheusVertxMetricsFactory(registry))));
+  }
+
+  @After
+  public void tearDown() {
+    vertx.close();
+  }
+
+  @Test
+  public void testHttpServerAndClient() throws Exception {
+    CompletableFuture<HttpServer> listening = new CompletableFuture<>();
+    vertx.createHttpServer()
+        .requestHandler(request -> request.response().end("Hello World!"))
+        .listen(0, "localhost", result -> listening.complete(result.result()));
+    int port = listening.get(10, TimeUnit.SECONDS).actualPort();
+
+    CountDownLatch done = new CountDownLatch(1);
+    vertx.createHttpClient().getNow(port, "localhost", "/", response -> response.endHandler(v -> done.countDown()));
+    assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+
+    // The server's metrics are labelled with the port it is bound to, not the requested port 0.
+    Double serverCount = registry.getSampleValue("vertx_http_server_request_duration_seconds_count",
+        new String[]{"local", "method"}, new String[]{"localhost:" + port, "GET"});
+    assertThat(serverCount).isEqualTo(1.0);
+    Double clientCount = registry.getSampleValue("vertx_http_client_request_duration_seconds_count",
+        new String[]{"remote", "method"}, new String[]{"localhost:" + port, "GET"});
+    assertThat(clientCount).isEqualTo(1.0);
+    // The client keeps the connection alive.
+    assertThat(registry.getSampleValue("vertx_http_server_connections",
+        new String[]{"local"}, new String[]{"localhost:" + port})).isEqualTo(1.0);
+  }
+
+  @Test
+  public void testHttpClientEndpointChildrenAreRemoved() throws Exception {
+    CompletableFuture<HttpServer> listening = new CompletableFuture<>();
+    vertx.createHttpServer()
+        .requestHandler(request -> request.response().end("Hello World!"))
+        .listen(0, "localhost", result -> listening.complete(result.result()));
+    int port = listening.get(10, TimeUnit.SECONDS).actualPort();
+
+    HttpClient first = vertx.createHttpClient();
+    HttpClient second = vertx.createHttpClient();
+    get(first, port);
+    get(second, port);
+
+    String[] labelNames = new String[]{"remote", "method"};
+    String[] getLabels = new String[]{"localhost:" + port, "GET"};
+    String[] remoteLabels = new String[]{"localhost:" + port};
+    assertThat(registry.getSampleValue("vertx_http_client_request_duration_seconds_count", labelNames, getLabels))
+        .isEqualTo(2.0);
+    // Only methods that were used have children.
+    assertThat(registry.getSampleValue("vertx_http_client_request_duration_seconds_count",
+        labelNames, new String[]{"localhost:" + port, "POST"})).isNull();
+    assertThat(registry.getSampleValue("vertx_http_client_connections", new String[]{"remote"}, remoteLabels))
+        .isEqualTo(2.0);
+
+    // Closing a client closes its connections, and with them its endpoint. The other client's endpoint
+    // for the same remote is still open, so the children are kept.
+    first.close();
+    Double connections = 2.0;
+    for (int i = 0; i < 100 && connections != null && connections > 1.0; i++) {
+      Thread.sleep(10);
+      connections = registry.getSampleValue("vertx_http_client_connections", new String[]{"remote"}, remoteLabels);
+    }
+    assertThat(connections).isEqualTo(1.0);
+    get(second, port);
+    assertThat(registry.getSampleValue("vertx_http_client_request_duration_seconds_count", labelNames, getLabels))
+        .isEqualTo(3.0);
+
+    // Closing the last endpoint for the remote removes the children.
+    second.close();
+    Double clientCount = 3.0;
+    for (int i = 0; i < 100 && clientCount != null; i++) {
+      Thread.sleep(10);
+      clientCount = registry.getSampleValue("vertx_http_client_request_duration_seconds_count", labelNames, getLabels);
+    }
+    assertThat(clientCount).isNull();
+    assertThat(registry.getSampleValue("vertx_http_client_connections", new String[]{"remote"}, remoteLabels))
+        .isNull();
+  }
+
+  private static void get(HttpClient client, int port) throws InterruptedException {
+    CountDownLatch done = new CountDownLatch(1);
+    client.getNow(port, "localhost", "/", response -> response.endHandler(v -> done.countDown()));
+    assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void testEventBus() throws Exception {
+    CountDownLatch handled = new CountDownLatch(2);
+    CountDownLatch registered = new CountDownLatch(1);
+    vertx.eventBus().consumer("test.address", message -> handled.countDown())
+        .completionHandler(result -> registered.countDown());
+    assertThat(registered.await(10, TimeUnit.SECONDS)).isTrue();
+    vertx.eventBus().send("test.address", "a");
+    vertx.eventBus().publish("test.address", "b");
+    assertThat(handled.await(10, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(registry.getSampleValue("vertx_eventbus_messages_sent_total",
+        new String[]{"type", "local"}, new String[]{"send", "true"})).isEqualTo(1.0);
+    assertThat(registry.getSampleValue("vertx_eventbus_messages_sent_total",
+        new String[]{"type", "local"}, new String[]{"publish", "true"})).isEqualTo(1.0);
+    // The duration is observed just after the handler returns.
+    Double handlerCount = null;
+    for (int i = 0; i < 100 && (handlerCount == null || handlerCount < 2.0); i++) {
+      Thread.sleep(10);
+      handlerCount = registry.getSampleValue("vertx_eventbus_handler_duration_seconds_count",
+          new String[]{"address"}, new String[]{"test.address"});
+    }
+    assertThat(handlerCount).isEqualTo(2.0);
+  }
+
+  @Test
+  public void testWorkerPool() throws Exception {
+    CountDownLatch done = new CountDownLatch(1);
+    vertx.executeBlocking(future -> future.complete(), result -> done.countDown());
+    assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+
+    Double queued = registry.getSampleValue("vertx_pool_queue_duration_seconds_count",
+        new String[]{"pool_type", "pool_name"}, new String[]{"worker", "vert.x-worker-thread"});
+    assertThat(queued).isGreaterThanOrEqualTo(1.0);
+  }
+}